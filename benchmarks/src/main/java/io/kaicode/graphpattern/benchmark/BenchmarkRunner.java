@@ -0,0 +1,23 @@
+package io.kaicode.graphpattern.benchmark;
+
+import org.openjdk.jmh.Main;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Runs the JMH benchmarks with the GC profiler, so that allocation rate is reported alongside throughput.
+ * Takes the usual JMH command line options, for example a benchmark name pattern or -p conceptCount=50000.
+ */
+public class BenchmarkRunner {
+
+	public static void main(String[] args) throws Exception {
+		List<String> jmhArgs = new ArrayList<>(Arrays.asList(args));
+		if (!jmhArgs.contains("-prof")) {
+			jmhArgs.add("-prof");
+			jmhArgs.add("gc");
+		}
+		Main.main(jmhArgs.toArray(new String[0]));
+	}
+}
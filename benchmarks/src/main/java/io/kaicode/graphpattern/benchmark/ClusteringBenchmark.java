@@ -0,0 +1,135 @@
+package io.kaicode.graphpattern.benchmark;
+
+import io.kaicode.graphpattern.ClusterMapWriter;
+import io.kaicode.graphpattern.KnowledgeGraphLoader;
+import io.kaicode.graphpattern.clustering.ClusterSelector;
+import io.kaicode.graphpattern.clustering.SubtreeAggregator;
+import io.kaicode.graphpattern.clustering.SubtreeCounts;
+import io.kaicode.graphpattern.domain.AncestorIndex;
+import io.kaicode.graphpattern.domain.GraphBuilder;
+import org.openjdk.jmh.annotations.*;
+import org.roaringbitmap.RoaringBitmap;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The stages of GraphClustering, each measured on its own against the same synthetic data.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MINUTES)
+@Warmup(iterations = 2, time = 10)
+@Measurement(iterations = 5, time = 10)
+@Fork(value = 1, jvmArgsAppend = {"-Xms3g", "-Xmx3g"})
+public class ClusteringBenchmark {
+
+	@Param("300000")
+	private int conceptCount;
+
+	@Param("100000")
+	private int instanceCount;
+
+	@Param("1")
+	private int threads;
+
+	@Param("100")
+	private int maxClusters;
+
+	@Param("0.001")
+	private float minDiff;
+
+	private File dataDir;
+	private File hierarchy;
+	private File labels;
+
+	private ForkJoinPool pool;
+	private GraphBuilder knowledgeGraph;
+	private AncestorIndex ancestorIndex;
+	private int groupASize;
+	private int groupBSize;
+	private float[] differences;
+	private boolean[] chosenNodes;
+	private RoaringBitmap codesUsed;
+
+	@Setup(Level.Trial)
+	public void setup() throws IOException {
+		SyntheticData data = new SyntheticData(conceptCount, instanceCount, SyntheticData.DEFAULT_SEED);
+		dataDir = Files.createTempDirectory("graph-patterns-benchmark").toFile();
+		hierarchy = new File(dataDir, "hierarchy.txt");
+		labels = new File(dataDir, "labels.txt");
+		data.writeFiles(hierarchy, labels, new File(dataDir, "instances.txt"), new File(dataDir, "cohorts.txt"));
+
+		pool = threads > 1 ? new ForkJoinPool(threads) : null;
+		knowledgeGraph = data.buildKnowledgeGraph();
+		data.addInstances(knowledgeGraph);
+		ancestorIndex = new AncestorIndex(knowledgeGraph);
+		groupBSize = data.getGroupBSize();
+		groupASize = data.getInstanceCount() - groupBSize;
+		differences = new SubtreeAggregator(pool).aggregate(knowledgeGraph).calculateDifferences(groupASize, groupBSize);
+
+		chosenNodes = new boolean[knowledgeGraph.getNodeCount()];
+		for (int nodeIndex : new ClusterSelector(knowledgeGraph, ancestorIndex).select(differences, maxClusters, minDiff)) {
+			chosenNodes[nodeIndex] = true;
+		}
+		codesUsed = new RoaringBitmap();
+		for (int nodeIndex = 0; nodeIndex < knowledgeGraph.getNodeCount(); nodeIndex++) {
+			if (!knowledgeGraph.getNode(nodeIndex).getGroupAInstances().isEmpty() || !knowledgeGraph.getNode(nodeIndex).getGroupBInstances().isEmpty()) {
+				codesUsed.add(nodeIndex);
+			}
+		}
+	}
+
+	@TearDown(Level.Trial)
+	public void tearDown() {
+		if (pool != null) {
+			pool.shutdown();
+		}
+		File[] files = dataDir.listFiles();
+		if (files != null) {
+			for (File file : files) {
+				file.delete();
+			}
+		}
+		dataDir.delete();
+	}
+
+	@Benchmark
+	public GraphBuilder loadKnowledgeGraph() {
+		return KnowledgeGraphLoader.loadTsv(hierarchy, labels);
+	}
+
+	@Benchmark
+	public AncestorIndex buildAncestorIndex() {
+		return new AncestorIndex(knowledgeGraph);
+	}
+
+	/**
+	 * Subtree counts and differences of every node, this replaced calculateNodeDiffAndCollect.
+	 */
+	@Benchmark
+	public float[] calculateDifferences() {
+		SubtreeCounts subtreeCounts = new SubtreeAggregator(pool).aggregate(knowledgeGraph);
+		return subtreeCounts.calculateDifferences(groupASize, groupBSize);
+	}
+
+	/**
+	 * Greedy cluster selection, this replaced getNodesRankedByDifferenceAndGain.
+	 */
+	@Benchmark
+	public int[] selectClusters() {
+		return new ClusterSelector(knowledgeGraph, ancestorIndex).select(differences, maxClusters, minDiff);
+	}
+
+	/**
+	 * Output goes to a null writer so that the measurement is not dominated by the disk.
+	 */
+	@Benchmark
+	public void writeClusterMap() throws IOException {
+		new ClusterMapWriter(knowledgeGraph).write(OutputStream.nullOutputStream(), codesUsed, chosenNodes, pool);
+	}
+}
@@ -0,0 +1,89 @@
+package io.kaicode.graphpattern.benchmark;
+
+import io.kaicode.graphpattern.PatternFinder;
+import io.kaicode.graphpattern.domain.*;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.BenchmarkParams;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.SplittableRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * PatternFinder over seeded instance graphs that link to a flat vocabulary of concepts.
+ * Group B is more likely to link to the first few concepts.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MINUTES)
+@Warmup(iterations = 2, time = 10)
+@Measurement(iterations = 5, time = 10)
+@Fork(value = 1, jvmArgsAppend = {"-Xms3g", "-Xmx3g"})
+public class PatternFinderBenchmark {
+
+	@Param("20")
+	private int vocabularySize;
+
+	@Param("100000")
+	private int groupAInstanceCount;
+
+	@Param("10000")
+	private int groupBInstanceCount;
+
+	private Graph knowledgeGraph;
+	private List<Node> vocabulary;
+	private List<Graph> groupAGraphs;
+	private List<Graph> groupBGraphs;
+
+	private PatternSets patternSets;
+
+	@Setup(Level.Trial)
+	public void setup() {
+		GraphSet graphSet = new GraphSet();
+		knowledgeGraph = graphSet.createKnowledgeGraph();
+		vocabulary = new ArrayList<>();
+		for (int i = 0; i < vocabularySize; i++) {
+			vocabulary.add(knowledgeGraph.addChild(new Node("c" + i)));
+		}
+		groupAGraphs = generateInstanceGraphs(graphSet, groupAInstanceCount, false, SyntheticData.DEFAULT_SEED);
+		groupBGraphs = generateInstanceGraphs(graphSet, groupBInstanceCount, true, SyntheticData.DEFAULT_SEED + 1);
+	}
+
+	/**
+	 * mergeGroups makes nodes of the patterns optional, which modifies the instance graph links the patterns were made from,
+	 * so each invocation starts from new instance graphs.
+	 */
+	@Setup(Level.Invocation)
+	public void setupPatterns(BenchmarkParams params) {
+		if (params.getBenchmark().endsWith("mergeGroups")) {
+			GraphSet graphSet = new GraphSet();
+			List<Graph> freshGroupA = generateInstanceGraphs(graphSet, groupAInstanceCount, false, SyntheticData.DEFAULT_SEED);
+			List<Graph> freshGroupB = generateInstanceGraphs(graphSet, groupBInstanceCount, true, SyntheticData.DEFAULT_SEED + 1);
+			patternSets = new PatternFinder(knowledgeGraph).differentiateGroupB(freshGroupA, freshGroupB);
+		}
+	}
+
+	@Benchmark
+	public PatternSets differentiateGroupB() {
+		return new PatternFinder(knowledgeGraph).differentiateGroupB(groupAGraphs, groupBGraphs);
+	}
+
+	@Benchmark
+	public List<Pattern> mergeGroups() {
+		return new PatternFinder(knowledgeGraph).mergeGroups(patternSets.getGroupBPatterns(), patternSets.getGroupAPatterns());
+	}
+
+	private List<Graph> generateInstanceGraphs(GraphSet graphSet, int quantity, boolean groupB, long seed) {
+		SplittableRandom random = new SplittableRandom(seed);
+		return graphSet.generateInstanceGraphs(quantity, instanceGraph -> {
+			for (int i = 0; i < vocabulary.size(); i++) {
+				// Later concepts are rarer, group B favours the first three
+				double chance = (groupB && i < 3 ? 0.6 : 0.3) / (1 + i / 4.0);
+				if (random.nextDouble() < chance) {
+					instanceGraph.link(vocabulary.get(i));
+				}
+			}
+		});
+	}
+}
@@ -0,0 +1,175 @@
+package io.kaicode.graphpattern.benchmark;
+
+import io.kaicode.graphpattern.domain.GraphBuilder;
+import io.kaicode.graphpattern.domain.Node;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.SplittableRandom;
+
+/**
+ * Seeded synthetic knowledge graph and instance data, shaped roughly like SNOMED CT with patient records.
+ * <p>
+ * Every concept after the root is attached below a randomly chosen earlier concept, giving a deep tree with a long tail,
+ * and about a third of concepts get one or two further parents to make a multi-parent DAG. Instances link to 5-30 concepts,
+ * skewed towards the more specific concepts. Every tenth instance is in group B and is more likely to link to a small set of
+ * signal concepts, so there is a real difference for the clustering to find.
+ * The same seed and sizes always give the same data.
+ */
+public class SyntheticData {
+
+	public static final long DEFAULT_SEED = 20240521L;
+	public static final String ROOT_CODE = "138875005";
+	public static final String GROUP_B = "B";
+
+	private static final int SIGNAL_CONCEPTS = 50;
+
+	private final int[][] parents;
+	private final int[][] instanceConcepts;
+
+	public SyntheticData(int conceptCount, int instanceCount, long seed) {
+		SplittableRandom random = new SplittableRandom(seed);
+		parents = new int[conceptCount][];
+		parents[0] = new int[0];
+		for (int concept = 1; concept < conceptCount; concept++) {
+			int parentCount = 1;
+			double extraParents = random.nextDouble();
+			if (extraParents < 0.05) {
+				parentCount = 3;
+			} else if (extraParents < 0.3) {
+				parentCount = 2;
+			}
+			// Parents always come before the child, so the graph can not have a cycle
+			int[] conceptParents = random.ints(parentCount, 0, concept).distinct().toArray();
+			parents[concept] = conceptParents;
+		}
+
+		int[] signalConcepts = random.ints(SIGNAL_CONCEPTS, conceptCount / 2, conceptCount).toArray();
+		instanceConcepts = new int[instanceCount][];
+		for (int instance = 0; instance < instanceCount; instance++) {
+			double signalChance = isGroupB(instance) ? 0.2 : 0.02;
+			int linkCount = 5 + random.nextInt(26);
+			int[] concepts = new int[linkCount + SIGNAL_CONCEPTS];
+			int size = 0;
+			for (int i = 0; i < linkCount; i++) {
+				// Skewed towards later, more specific, concepts
+				concepts[size++] = conceptCount - 1 - (int) ((conceptCount - 1) * Math.pow(random.nextDouble(), 2));
+			}
+			for (int signalConcept : signalConcepts) {
+				if (random.nextDouble() < signalChance) {
+					concepts[size++] = signalConcept;
+				}
+			}
+			instanceConcepts[instance] = Arrays.stream(concepts, 0, size).distinct().toArray();
+		}
+	}
+
+	public static boolean isGroupB(int instance) {
+		return instance % 10 == 0;
+	}
+
+	public static String getCode(int concept) {
+		return concept == 0 ? ROOT_CODE : Integer.toString(100000 + concept);
+	}
+
+	public static String getInstanceId(int instance) {
+		return "i" + instance;
+	}
+
+	public int getConceptCount() {
+		return parents.length;
+	}
+
+	public int getInstanceCount() {
+		return instanceConcepts.length;
+	}
+
+	public int getGroupBSize() {
+		return (getInstanceCount() + 9) / 10;
+	}
+
+	public GraphBuilder buildKnowledgeGraph() {
+		GraphBuilder knowledgeGraph = new GraphBuilder();
+		for (int concept = 0; concept < parents.length; concept++) {
+			knowledgeGraph.getOrAddNodeIndex(getCode(concept));
+		}
+		for (int concept = 1; concept < parents.length; concept++) {
+			for (int parent : parents[concept]) {
+				knowledgeGraph.addChildParentLink(concept, parent);
+			}
+		}
+		return knowledgeGraph;
+	}
+
+	/**
+	 * Adds every instance to the nodes it links to, as group A or group B.
+	 * Concept numbers are node indexes because buildKnowledgeGraph adds the codes in order.
+	 */
+	public void addInstances(GraphBuilder knowledgeGraph) {
+		for (int instance = 0; instance < instanceConcepts.length; instance++) {
+			boolean groupB = isGroupB(instance);
+			for (int concept : instanceConcepts[instance]) {
+				Node node = knowledgeGraph.getNode(concept);
+				if (groupB) {
+					node.addGroupBInstance(instance);
+				} else {
+					node.addGroupAInstance(instance);
+				}
+			}
+		}
+	}
+
+	/**
+	 * Writes the input files of GraphClustering: knowledge graph hierarchy, labels, instance data and cohorts.
+	 */
+	public void writeFiles(File hierarchy, File labels, File instanceData, File cohorts) throws IOException {
+		try (BufferedWriter writer = new BufferedWriter(new FileWriter(hierarchy))) {
+			writer.write("child\tparent");
+			writer.newLine();
+			for (int concept = 1; concept < parents.length; concept++) {
+				for (int parent : parents[concept]) {
+					writer.write(getCode(concept));
+					writer.write("\t");
+					writer.write(getCode(parent));
+					writer.newLine();
+				}
+			}
+		}
+		try (BufferedWriter writer = new BufferedWriter(new FileWriter(labels))) {
+			writer.write("code\tlabel");
+			writer.newLine();
+			for (int concept = 0; concept < parents.length; concept++) {
+				writer.write(getCode(concept));
+				writer.write("\tSynthetic concept ");
+				writer.write(Integer.toString(concept));
+				writer.newLine();
+			}
+		}
+		try (BufferedWriter instanceWriter = new BufferedWriter(new FileWriter(instanceData));
+			 BufferedWriter cohortWriter = new BufferedWriter(new FileWriter(cohorts))) {
+			instanceWriter.write("instance\tyear\tcode");
+			instanceWriter.newLine();
+			cohortWriter.write("instance\tcohort");
+			cohortWriter.newLine();
+			for (int instance = 0; instance < instanceConcepts.length; instance++) {
+				String instanceId = getInstanceId(instance);
+				int[] concepts = instanceConcepts[instance];
+				for (int i = 0; i < concepts.length; i++) {
+					instanceWriter.write(instanceId);
+					instanceWriter.write("\t");
+					instanceWriter.write(Integer.toString(2000 + (instance + i) % 20));
+					instanceWriter.write("\t");
+					instanceWriter.write(getCode(concepts[i]));
+					instanceWriter.newLine();
+				}
+				cohortWriter.write(instanceId);
+				cohortWriter.write("\t");
+				cohortWriter.write(isGroupB(instance) ? GROUP_B : "A");
+				cohortWriter.newLine();
+			}
+		}
+	}
+}
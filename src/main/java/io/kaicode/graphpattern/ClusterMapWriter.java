@@ -0,0 +1,207 @@
+package io.kaicode.graphpattern;
+
+import io.kaicode.graphpattern.domain.GraphBuilder;
+import io.kaicode.graphpattern.util.IdDictionary;
+import org.roaringbitmap.RoaringBitmap;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Deque;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+
+/**
+ * Writes the instance-code-cluster-map, each used code with every chosen cluster that it is, or descends from.
+ * The chosen clusters of each used code are found once from the descendants of the chosen clusters, and rows are copied as bytes
+ * straight from the code dictionary, so no Strings are created per row. Codes can be split into shards that are written to their own
+ * buffers in parallel. Shards are written out in code order as they finish, with only a few in flight at once, so the output is the
+ * same as writing on one thread and only those shards are held in memory.
+ */
+public class ClusterMapWriter {
+
+	private static final byte[] HEADER = ("sourceCode\ttargetCode" + System.lineSeparator()).getBytes(StandardCharsets.UTF_8);
+	private static final byte[] LINE_SEPARATOR = System.lineSeparator().getBytes(StandardCharsets.UTF_8);
+	private static final int FLUSH_SIZE = 1 << 16;
+	private static final int SHARD_SIZE = 4096;
+
+	private final GraphBuilder knowledgeGraph;
+	private final IdDictionary codes;
+
+	public ClusterMapWriter(GraphBuilder knowledgeGraph) {
+		this.knowledgeGraph = knowledgeGraph;
+		this.codes = knowledgeGraph.getCodes();
+	}
+
+	/**
+	 * @param chosenNodes chosen clusters, indexed by node index
+	 * @param pool pool to write shards of the codes in parallel, or null to write on the calling thread
+	 */
+	public void write(OutputStream out, RoaringBitmap allCodesUsed, boolean[] chosenNodes, ForkJoinPool pool) throws IOException {
+		out.write(HEADER);
+		CodeClusters codeClusters = new CodeClusters(knowledgeGraph, allCodesUsed, chosenNodes);
+		int usedCodeCount = codeClusters.getUsedCodeCount();
+		if (pool == null) {
+			RowBuffer buffer = new RowBuffer();
+			for (int position = 0; position < usedCodeCount; position++) {
+				writeRows(codeClusters, position, buffer);
+				if (buffer.size >= FLUSH_SIZE) {
+					out.write(buffer.bytes, 0, buffer.size);
+					buffer.size = 0;
+				}
+			}
+			out.write(buffer.bytes, 0, buffer.size);
+			return;
+		}
+
+		int shardCount = (usedCodeCount + SHARD_SIZE - 1) / SHARD_SIZE;
+		int window = pool.getParallelism() * 2;
+		Deque<Future<RowBuffer>> inFlight = new ArrayDeque<>();
+		int nextShard = 0;
+		try {
+			while (nextShard < shardCount || !inFlight.isEmpty()) {
+				while (nextShard < shardCount && inFlight.size() < window) {
+					int shard = nextShard++;
+					inFlight.add(pool.submit(() -> {
+						RowBuffer buffer = new RowBuffer();
+						for (int position = shard * SHARD_SIZE; position < Math.min(usedCodeCount, (shard + 1) * SHARD_SIZE); position++) {
+							writeRows(codeClusters, position, buffer);
+						}
+						return buffer;
+					}));
+				}
+				RowBuffer buffer = inFlight.remove().get();
+				out.write(buffer.bytes, 0, buffer.size);
+			}
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new RuntimeException("Interrupted while writing the cluster map.", e);
+		} catch (ExecutionException e) {
+			throw new RuntimeException("Failed to write the cluster map.", e.getCause());
+		} finally {
+			for (Future<RowBuffer> shard : inFlight) {
+				shard.cancel(false);
+			}
+		}
+	}
+
+	private void writeRows(CodeClusters codeClusters, int position, RowBuffer buffer) {
+		int usedCode = codeClusters.getUsedCode(position);
+		for (int i = codeClusters.getFirstCluster(position); i < codeClusters.getFirstCluster(position + 1); i++) {
+			writeRow(usedCode, codeClusters.getCluster(i), buffer);
+		}
+	}
+
+	private void writeRow(int usedCode, int cluster, RowBuffer buffer) {
+		buffer.ensureCapacity(codes.getLength(usedCode) + codes.getLength(cluster) + 1 + LINE_SEPARATOR.length);
+		buffer.size = codes.copyBytes(usedCode, buffer.bytes, buffer.size);
+		buffer.bytes[buffer.size++] = '\t';
+		buffer.size = codes.copyBytes(cluster, buffer.bytes, buffer.size);
+		System.arraycopy(LINE_SEPARATOR, 0, buffer.bytes, buffer.size, LINE_SEPARATOR.length);
+		buffer.size += LINE_SEPARATOR.length;
+	}
+
+	/**
+	 * Chosen clusters of each used code, compressed sparse rows by position of the code in the used codes.
+	 * The code itself comes first when it is chosen, then its chosen ancestors in node index order, so no cluster is repeated.
+	 * Built from the used descendants of each chosen cluster, so the ancestor closure of every used code is never scanned.
+	 * <p>
+	 * Read only once built, safe for concurrent use.
+	 */
+	public static final class CodeClusters {
+
+		private final int[] usedCodes;
+		private final int[] offsets;
+		private final int[] clusters;
+
+		/**
+		 * @param chosenNodes chosen clusters, indexed by node index
+		 */
+		public CodeClusters(GraphBuilder knowledgeGraph, RoaringBitmap allCodesUsed, boolean[] chosenNodes) {
+			usedCodes = allCodesUsed.toArray();
+			int usedCodeCount = usedCodes.length;
+			List<Integer> chosenClusters = new ArrayList<>();
+			List<int[]> descendantPositions = new ArrayList<>();
+			offsets = new int[usedCodeCount + 1];
+			for (int position = 0; position < usedCodeCount; position++) {
+				if (chosenNodes[usedCodes[position]]) {
+					offsets[position + 1]++;
+				}
+			}
+			for (int cluster = 0; cluster < chosenNodes.length; cluster++) {
+				if (chosenNodes[cluster]) {
+					RoaringBitmap descendants = RoaringBitmap.and(knowledgeGraph.getNode(cluster).getIndexAndDescendantIndexes(new RoaringBitmap()),
+							allCodesUsed);
+					descendants.remove(cluster);
+					int[] positions = new int[descendants.getCardinality()];
+					int i = 0;
+					for (int descendant : descendants) {
+						int position = (int) allCodesUsed.rankLong(descendant) - 1;
+						positions[i++] = position;
+						offsets[position + 1]++;
+					}
+					chosenClusters.add(cluster);
+					descendantPositions.add(positions);
+				}
+			}
+			for (int position = 0; position < usedCodeCount; position++) {
+				offsets[position + 1] += offsets[position];
+			}
+			clusters = new int[offsets[usedCodeCount]];
+			int[] fill = Arrays.copyOf(offsets, usedCodeCount);
+			for (int position = 0; position < usedCodeCount; position++) {
+				if (chosenNodes[usedCodes[position]]) {
+					clusters[fill[position]++] = usedCodes[position];
+				}
+			}
+			for (int i = 0; i < chosenClusters.size(); i++) {
+				int cluster = chosenClusters.get(i);
+				for (int position : descendantPositions.get(i)) {
+					clusters[fill[position]++] = cluster;
+				}
+			}
+		}
+
+		public int getUsedCodeCount() {
+			return usedCodes.length;
+		}
+
+		/**
+		 * @return node index of the used code at the position, used codes are in node index order
+		 */
+		public int getUsedCode(int position) {
+			return usedCodes[position];
+		}
+
+		/**
+		 * @return index of the first cluster of the used code, its clusters end at the first cluster of the next position
+		 */
+		public int getFirstCluster(int position) {
+			return offsets[position];
+		}
+
+		/**
+		 * @return node index of the cluster
+		 */
+		public int getCluster(int i) {
+			return clusters[i];
+		}
+	}
+
+	private static final class RowBuffer {
+
+		private byte[] bytes = new byte[FLUSH_SIZE + 256];
+		private int size;
+
+		private void ensureCapacity(int extra) {
+			if (size + extra > bytes.length) {
+				bytes = Arrays.copyOf(bytes, Math.max(bytes.length * 2, size + extra));
+			}
+		}
+	}
+}
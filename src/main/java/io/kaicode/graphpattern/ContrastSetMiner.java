@@ -0,0 +1,346 @@
+package io.kaicode.graphpattern;
+
+import io.kaicode.graphpattern.domain.Graph;
+import io.kaicode.graphpattern.domain.Node;
+import io.kaicode.graphpattern.domain.Pattern;
+
+import java.util.*;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.stream.IntStream;
+
+/**
+ * Mines sets of links that are frequent in group B and differentiate it from group A, FP-Growth style.
+ * Unlike PatternFinder.differentiateGroupB, an instance supports every set that is part of its links, not only its exact set of links.
+ * <p>
+ * Both groups go into one FP-tree, each tree node counting the instances of each group, so the group A support of a set comes
+ * with its group B support. Only links that reach the minimum group B coverage are put in the tree, and a set is only grown while it
+ * still reaches that coverage. The tree is held in int arrays, a node per distinct prefix of sorted frequent links, and sets are
+ * grown to at most the maximum size. The sets starting from each link are mined in parallel.
+ */
+public class ContrastSetMiner {
+
+	private final int threads;
+
+	/**
+	 * @param threads number of threads used to mine, 1 to use the calling thread
+	 */
+	public ContrastSetMiner(int threads) {
+		this.threads = threads;
+	}
+
+	/**
+	 * @param minCoverage minimum fraction of group B instances that have every link of a set
+	 * @param minDifference minimum group B coverage minus group A coverage of a set
+	 * @param maxSetSize maximum number of links in a set
+	 * @return sets as patterns, count and coverage over group B, accuracy as the fraction of supporting instances in group B,
+	 * ordered by PatternFinder.PATTERN_COMPARATOR
+	 */
+	public List<Pattern> mine(List<Graph> groupAGraphs, List<Graph> groupBGraphs, float minCoverage, float minDifference, int maxSetSize) {
+		System.out.println("Mining contrast sets...");
+		int groupASize = groupAGraphs.size();
+		int groupBSize = groupBGraphs.size();
+		int minSupport = Math.max(1, (int) Math.ceil(minCoverage * groupBSize));
+
+		// Count group B support of each link
+		Map<Node, Integer> nodeIds = new HashMap<>();
+		List<Node> nodes = new ArrayList<>();
+		int[] groupBSupport = new int[16];
+		for (Graph groupBGraph : groupBGraphs) {
+			for (Node link : groupBGraph.getLinks()) {
+				int nodeId = nodeIds.computeIfAbsent(link, node -> {
+					nodes.add(node);
+					return nodes.size() - 1;
+				});
+				if (nodeId == groupBSupport.length) {
+					groupBSupport = Arrays.copyOf(groupBSupport, nodeId * 2);
+				}
+				groupBSupport[nodeId]++;
+			}
+		}
+
+		// Frequent links ranked by descending support, so that common prefixes are shared in the tree
+		int[] support = groupBSupport;
+		int[] rankNodeIds = IntStream.range(0, nodes.size()).filter(nodeId -> support[nodeId] >= minSupport).boxed()
+				.sorted(Comparator.comparing((Integer nodeId) -> support[nodeId]).reversed().thenComparing(nodeId -> nodeId))
+				.mapToInt(Integer::intValue).toArray();
+		int[] nodeRanks = new int[nodes.size()];
+		Arrays.fill(nodeRanks, -1);
+		for (int rank = 0; rank < rankNodeIds.length; rank++) {
+			nodeRanks[rankNodeIds[rank]] = rank;
+		}
+		System.out.printf("%s of %s links reach minimum coverage of %s group B instances%n", rankNodeIds.length, nodes.size(), minSupport);
+
+		FpTree tree = new FpTree(rankNodeIds.length, 1024);
+		int[] ranks = new int[16];
+		for (int group = 0; group < 2; group++) {
+			for (Graph graph : group == 0 ? groupAGraphs : groupBGraphs) {
+				Set<Node> links = graph.getLinks();
+				if (ranks.length < links.size()) {
+					ranks = new int[links.size()];
+				}
+				int length = 0;
+				for (Node link : links) {
+					Integer nodeId = nodeIds.get(link);
+					if (nodeId != null && nodeRanks[nodeId] != -1) {
+						ranks[length++] = nodeRanks[nodeId];
+					}
+				}
+				if (length > 0) {
+					Arrays.sort(ranks, 0, length);
+					tree.insert(ranks, length, group == 0 ? 1 : 0, group == 1 ? 1 : 0);
+				}
+			}
+		}
+		System.out.printf("FP-tree of %s nodes%n", tree.size);
+
+		Queue<int[]> sets = new ConcurrentLinkedQueue<>();
+		Mining mining = new Mining(minSupport, minDifference, maxSetSize, groupASize, groupBSize, sets);
+		IntStream startRanks = IntStream.range(0, rankNodeIds.length);
+		if (threads <= 1) {
+			startRanks.forEach(rank -> mining.mineFrom(tree, rank, new int[0]));
+		} else {
+			ForkJoinPool pool = new ForkJoinPool(threads);
+			try {
+				pool.submit(() -> startRanks.parallel().forEach(rank -> mining.mineFrom(tree, rank, new int[0]))).get();
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				throw new RuntimeException("Interrupted while mining contrast sets.", e);
+			} catch (ExecutionException e) {
+				throw new RuntimeException("Failed to mine contrast sets.", e.getCause());
+			} finally {
+				pool.shutdown();
+			}
+		}
+
+		// set: group A support, group B support, then ranks
+		List<Pattern> patterns = new ArrayList<>();
+		for (int[] set : sets) {
+			Set<Node> setNodes = new HashSet<>();
+			int[] setNodeIds = new int[set.length - 2];
+			for (int i = 2; i < set.length; i++) {
+				setNodeIds[i - 2] = rankNodeIds[set[i]];
+				setNodes.add(nodes.get(setNodeIds[i - 2]));
+			}
+			Arrays.sort(setNodeIds);
+			Pattern pattern = new Pattern(setNodes, setNodeIds);
+			pattern.setCount(set[1]);
+			pattern.setCoverage(set[1] / (float) groupBSize);
+			pattern.setAccuracy(set[1] / (float) (set[0] + set[1]));
+			patterns.add(pattern);
+		}
+		patterns.sort(PatternFinder.PATTERN_COMPARATOR.thenComparing(Pattern::getNodeIds, Arrays::compare));
+		System.out.printf("Found %s contrast sets%n", patterns.size());
+		return patterns;
+	}
+
+	private static final class Mining {
+
+		private final int minSupport;
+		private final float minDifference;
+		private final int maxSetSize;
+		private final int groupASize;
+		private final int groupBSize;
+		private final Queue<int[]> sets;
+
+		private Mining(int minSupport, float minDifference, int maxSetSize, int groupASize, int groupBSize, Queue<int[]> sets) {
+			this.minSupport = minSupport;
+			this.minDifference = minDifference;
+			this.maxSetSize = maxSetSize;
+			this.groupASize = groupASize;
+			this.groupBSize = groupBSize;
+			this.sets = sets;
+		}
+
+		/**
+		 * Records the suffix extended with the rank, then mines the sets that extend it further from the prefix paths of the rank.
+		 */
+		private void mineFrom(FpTree tree, int rank, int[] suffix) {
+			int groupBSupport = tree.rankGroupBCounts[rank];
+			if (groupBSupport < minSupport) {
+				return;
+			}
+			int groupASupport = tree.rankGroupACounts[rank];
+			int[] set = Arrays.copyOf(suffix, suffix.length + 1);
+			set[suffix.length] = rank;
+			float difference = groupBSupport / (float) groupBSize - (groupASize > 0 ? groupASupport / (float) groupASize : 0);
+			if (difference >= minDifference) {
+				int[] record = new int[set.length + 2];
+				record[0] = groupASupport;
+				record[1] = groupBSupport;
+				System.arraycopy(set, 0, record, 2, set.length);
+				sets.add(record);
+			}
+			if (set.length < maxSetSize) {
+				FpTree conditionalTree = tree.conditionalTree(rank, minSupport);
+				if (conditionalTree != null) {
+					for (int prefixRank = rank - 1; prefixRank >= 0; prefixRank--) {
+						mineFrom(conditionalTree, prefixRank, set);
+					}
+				}
+			}
+		}
+	}
+
+	/**
+	 * FP-tree held in parallel int arrays, node 0 is the root. Ranks only grow along a path.
+	 * Children are found through an open addressing table keyed by parent and rank, a scan of siblings is too slow near the root.
+	 */
+	private static final class FpTree {
+
+		private final int rankCount;
+		private int[] ranks;
+		private int[] parents;
+		private int[] nextOfRank;
+		private int[] groupACounts;
+		private int[] groupBCounts;
+		private int size;
+
+		// Parent and rank of each child, 0 when the slot is free
+		private long[] childKeys;
+		private int[] children;
+
+		// First node and totals of each rank
+		private final int[] rankFirstNodes;
+		private final int[] rankGroupACounts;
+		private final int[] rankGroupBCounts;
+
+		private FpTree(int rankCount, int capacity) {
+			this.rankCount = rankCount;
+			ranks = new int[capacity];
+			parents = new int[capacity];
+			nextOfRank = new int[capacity];
+			groupACounts = new int[capacity];
+			groupBCounts = new int[capacity];
+			childKeys = new long[Integer.highestOneBit(capacity) * 4];
+			children = new int[childKeys.length];
+			rankFirstNodes = new int[rankCount];
+			rankGroupACounts = new int[rankCount];
+			rankGroupBCounts = new int[rankCount];
+			ranks[0] = -1;
+			parents[0] = -1;
+			size = 1;
+			Arrays.fill(rankFirstNodes, -1);
+		}
+
+		/**
+		 * @param pathRanks ascending ranks of the path
+		 */
+		private void insert(int[] pathRanks, int length, int groupACount, int groupBCount) {
+			int node = 0;
+			for (int i = 0; i < length; i++) {
+				int rank = pathRanks[i];
+				long childKey = (long) node * rankCount + rank + 1;
+				int mask = childKeys.length - 1;
+				int slot = slot(childKey, mask);
+				while (childKeys[slot] != 0 && childKeys[slot] != childKey) {
+					slot = (slot + 1) & mask;
+				}
+				int child;
+				if (childKeys[slot] == 0) {
+					child = addNode(node, rank);
+					addChild(childKey, child);
+				} else {
+					child = children[slot];
+				}
+				groupACounts[child] += groupACount;
+				groupBCounts[child] += groupBCount;
+				rankGroupACounts[rank] += groupACount;
+				rankGroupBCounts[rank] += groupBCount;
+				node = child;
+			}
+		}
+
+		private int addNode(int parent, int rank) {
+			if (size == ranks.length) {
+				int capacity = size * 2;
+				ranks = Arrays.copyOf(ranks, capacity);
+				parents = Arrays.copyOf(parents, capacity);
+				nextOfRank = Arrays.copyOf(nextOfRank, capacity);
+				groupACounts = Arrays.copyOf(groupACounts, capacity);
+				groupBCounts = Arrays.copyOf(groupBCounts, capacity);
+			}
+			int node = size++;
+			ranks[node] = rank;
+			parents[node] = parent;
+			nextOfRank[node] = rankFirstNodes[rank];
+			rankFirstNodes[rank] = node;
+			return node;
+		}
+
+		private void addChild(long childKey, int child) {
+			if (size * 2 > childKeys.length) {
+				// Keep the table at most half full
+				long[] oldKeys = childKeys;
+				int[] oldChildren = children;
+				childKeys = new long[oldKeys.length * 2];
+				children = new int[childKeys.length];
+				for (int i = 0; i < oldKeys.length; i++) {
+					if (oldKeys[i] != 0) {
+						putChild(oldKeys[i], oldChildren[i]);
+					}
+				}
+			}
+			putChild(childKey, child);
+		}
+
+		private void putChild(long childKey, int child) {
+			int mask = childKeys.length - 1;
+			int slot = slot(childKey, mask);
+			while (childKeys[slot] != 0) {
+				slot = (slot + 1) & mask;
+			}
+			childKeys[slot] = childKey;
+			children[slot] = child;
+		}
+
+		private static int slot(long childKey, int mask) {
+			long hash = childKey * 0x9E3779B97F4A7C15L;
+			return (int) (hash ^ (hash >>> 32)) & mask;
+		}
+
+		/**
+		 * @return tree of the prefix paths of the nodes of the rank, keeping links that still reach minimum support, or null if none do
+		 */
+		private FpTree conditionalTree(int rank, int minSupport) {
+			// Group B support of each prefix rank within these paths
+			int[] prefixGroupBCounts = new int[rank];
+			int pathCount = 0;
+			for (int node = rankFirstNodes[rank]; node != -1; node = nextOfRank[node]) {
+				for (int ancestor = parents[node]; ancestor > 0; ancestor = parents[ancestor]) {
+					prefixGroupBCounts[ranks[ancestor]] += groupBCounts[node];
+				}
+				pathCount++;
+			}
+			boolean anyFrequent = false;
+			for (int prefixRank = 0; prefixRank < rank && !anyFrequent; prefixRank++) {
+				anyFrequent = prefixGroupBCounts[prefixRank] >= minSupport;
+			}
+			if (!anyFrequent) {
+				return null;
+			}
+
+			FpTree conditionalTree = new FpTree(rank, Math.max(16, pathCount * 2));
+			int[] path = new int[rank];
+			for (int node = rankFirstNodes[rank]; node != -1; node = nextOfRank[node]) {
+				int length = 0;
+				for (int ancestor = parents[node]; ancestor > 0; ancestor = parents[ancestor]) {
+					if (prefixGroupBCounts[ranks[ancestor]] >= minSupport) {
+						path[length++] = ranks[ancestor];
+					}
+				}
+				if (length > 0) {
+					// Collected leaf to root, so reverse to ascending ranks
+					for (int i = 0, j = length - 1; i < j; i++, j--) {
+						int swap = path[i];
+						path[i] = path[j];
+						path[j] = swap;
+					}
+					conditionalTree.insert(path, length, groupACounts[node], groupBCounts[node]);
+				}
+			}
+			return conditionalTree;
+		}
+	}
+}
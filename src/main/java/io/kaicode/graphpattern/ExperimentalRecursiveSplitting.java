@@ -1,16 +1,21 @@
 package io.kaicode.graphpattern;
 
+import io.kaicode.graphpattern.clustering.EnrichedCodeInstances;
+import io.kaicode.graphpattern.clustering.RecursiveSplitter;
 import io.kaicode.graphpattern.domain.GraphBuilder;
-import io.kaicode.graphpattern.domain.Pair;
 import io.kaicode.graphpattern.util.FileUtils;
+import io.kaicode.graphpattern.util.IdDictionary;
+import io.kaicode.graphpattern.util.MappedTsvReader;
+import org.roaringbitmap.RoaringBitmap;
 
 import java.io.BufferedReader;
+import java.io.File;
 import java.io.FileReader;
 import java.io.IOException;
-import java.util.*;
-import java.util.concurrent.atomic.AtomicInteger;
-import java.util.function.Predicate;
-import java.util.stream.Collectors;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
 
 public class ExperimentalRecursiveSplitting {
 	public static final String DIABETIC_FOOT = "371087003";
@@ -25,154 +30,68 @@ public class ExperimentalRecursiveSplitting {
 
 	// knowledge-graph-child-parent.txt instance-data.txt
 	public static void main(String[] args) {
-		new ExperimentalRecursiveSplitting().run("knowledge-graph-child-parent.txt", "instance-data.txt", DIABETIC_FOOT);
+		Map<String, String> options = GraphClustering.readOptions(args, 0);
+		int depth = Integer.parseInt(options.getOrDefault("depth", "4"));
+		int branching = Integer.parseInt(options.getOrDefault("branching", "1"));
+		int minGroupBSize = Integer.parseInt(options.getOrDefault("min-group-b", "1"));
+		int threads = Integer.parseInt(options.getOrDefault("threads", "1"));
+		new ExperimentalRecursiveSplitting().run("knowledge-graph-child-parent.txt", "instance-data.txt", DIABETIC_FOOT,
+				new RecursiveSplitter(depth, branching, minGroupBSize, threads));
 	}
 
-	private void run(String knowledgeGraphHierarchy, String instanceData, String groupBIndicator) {
+	private void run(String knowledgeGraphHierarchy, String instanceData, String groupBIndicator, RecursiveSplitter splitter) {
 		System.out.println("< Graph Pattern Finder >");
 		System.out.println();
 
 		GraphBuilder knowledgeGraph = loadKnowledgeGraph(knowledgeGraphHierarchy);
 
-		Map<String, Set<String>> allInstanceGraphs = loadInstanceGraphs(instanceData);
+		// Instances of each code, codes missing from the knowledge graph are added to it
+		RoaringBitmap[] codeInstances = loadCodeInstances(instanceData, knowledgeGraph);
+		int groupBIndicatorIndex = knowledgeGraph.getOrAddNodeIndex(groupBIndicator);
+		codeInstances = Arrays.copyOf(codeInstances, knowledgeGraph.getNodeCount());
 
 		// Split instance groups
-		Map<String, Set<String>> groupAInstanceGraphs = allInstanceGraphs.entrySet().stream()
-				.filter(entry -> !entry.getValue().contains(groupBIndicator))
-				.collect(Collectors.toMap(Map.Entry::getKey, Map.Entry::getValue));
-
-		Map<String, Set<String>> groupBInstanceGraphs = allInstanceGraphs.entrySet().stream()
-				.filter(entry -> entry.getValue().contains(groupBIndicator))
-				.collect(Collectors.toMap(Map.Entry::getKey, Map.Entry::getValue));
-
-		// Collect group B ids for enrichment step
-		Set<String> groupBNodeIds = groupBInstanceGraphs.values().stream().flatMap(Set::stream).collect(Collectors.toSet());
-		Map<String, Set<String>> groupBAncestorMap = new HashMap<>();
-		for (String toEnrich : groupBNodeIds) {
-			Set<String> ancestors = knowledgeGraph.getAncestors(toEnrich, 5);
-			if (!ancestors.isEmpty()) {
-				groupBAncestorMap.put(toEnrich, ancestors);
+		RoaringBitmap allInstances = new RoaringBitmap();
+		for (RoaringBitmap instances : codeInstances) {
+			if (instances != null) {
+				allInstances.or(instances);
 			}
 		}
-		groupBAncestorMap.remove(DIABETIC_FOOT);
-
-		// Prepare index for enrichment step
-		// - Create inverted index of nodes and instance graphs, add group A and B
-		Map<String, List<Set<String>>> nodeInstanceSets = new HashMap<>();
-		for (Set<String> instanceNodes : groupAInstanceGraphs.values()) {
-			for (String instanceNode : instanceNodes) {
-				nodeInstanceSets.computeIfAbsent(instanceNode, v -> new ArrayList<>()).add(instanceNodes);
-			}
-		}
-		for (Set<String> instanceNodes : groupBInstanceGraphs.values()) {
-			for (String instanceNode : instanceNodes) {
-				nodeInstanceSets.computeIfAbsent(instanceNode, v -> new ArrayList<>()).add(instanceNodes);
-			}
-		}
-
-		// Apply enrichment
-		// - For each node in group B, add the node's ancestors to instance graphs in group A and group B
-		int a = 0;
-		for (Map.Entry<String, Set<String>> nodeEnrichmentNode : groupBAncestorMap.entrySet()) {
-			for (Set<String> instanceNodes : nodeInstanceSets.get(nodeEnrichmentNode.getKey())) {
-//				if (a++ < 10) {
-//					System.out.printf("Adding ancestors of %s : %s\n", nodeEnrichmentNode.getKey(), nodeEnrichmentNode.getValue());
-//				}
-				instanceNodes.addAll(nodeEnrichmentNode.getValue());
-			}
-		}
-
-		Map<String, Set<String>> subGroupA = groupAInstanceGraphs;
-		Map<String, Set<String>> subGroupB = groupBInstanceGraphs;
-		Set<String> alreadyChosen = new HashSet<>();
-		System.out.printf("Group spitting, starting A:%s/B:%s\n", subGroupA.size(), subGroupB.size());
-		for (int i = 0; i < 10; i++) {
-			List<Pair<String, Float>> mostDifferentiatingNodes = getMostDifferentiatingNodes(subGroupA, subGroupB);
-			Optional<Pair<String, Float>> first = mostDifferentiatingNodes.stream()
-					.filter(pair -> !DIABETIC_FOOT.equals(pair.getFirst()) && !alreadyChosen.contains(pair.getFirst())).findFirst();
-			if (first.isPresent()) {
-				String mostDifferentiatingNode = first.get().getFirst();
-				int subGroupASizeBefore = subGroupA.size();
-				int subGroupBSizeBefore = subGroupB.size();
-				subGroupA = filterGroup(subGroupA, entry -> !entry.getValue().contains(mostDifferentiatingNode));
-				subGroupB = filterGroup(subGroupB, entry -> !entry.getValue().contains(mostDifferentiatingNode));
-//				subGroupA = filterGroup(subGroupA, entry -> entry.getValue().contains(mostDifferentiatingNode));
-//				subGroupB = filterGroup(subGroupB, entry -> entry.getValue().contains(mostDifferentiatingNode));
-				alreadyChosen.add(mostDifferentiatingNode);
-				System.out.printf("Groups spit using %s, A:%s/B:%s reduction of %s%%/%s%%\n",
-						mostDifferentiatingNode, subGroupA.size(), subGroupB.size(),
-						Math.round((subGroupA.size() / (float) subGroupASizeBefore) * 100), Math.round((subGroupB.size() / (float) subGroupBSizeBefore) * 100));
-			} else {
-				break;
+		RoaringBitmap groupB = codeInstances[groupBIndicatorIndex] != null ? codeInstances[groupBIndicatorIndex] : new RoaringBitmap();
+		RoaringBitmap groupA = RoaringBitmap.andNot(allInstances, groupB);
+
+		// Enrichment
+		// - Instances of each code in group B count towards the code's ancestors, in group A and group B, without adding them to the instances
+		RoaringBitmap groupBCodes = new RoaringBitmap();
+		for (int code = 0; code < codeInstances.length; code++) {
+			if (code != groupBIndicatorIndex && codeInstances[code] != null && RoaringBitmap.intersects(codeInstances[code], groupB)) {
+				groupBCodes.add(code);
 			}
 		}
+		EnrichedCodeInstances enrichedCodeInstances = new EnrichedCodeInstances(knowledgeGraph, codeInstances, groupBCodes, 5);
 
-
-	}
-
-	private List<Pair<String, Float>> getMostDifferentiatingNodes(Map<String, Set<String>> groupAInstanceGraphs, Map<String, Set<String>> groupBInstanceGraphs) {
-		Map<String, Integer> groupAKNodeCounts = getTopKNodeCounts(groupAInstanceGraphs);
-		Map<String, Integer> groupBKNodeCounts = getTopKNodeCounts(groupBInstanceGraphs);
-		int groupASize = groupAInstanceGraphs.size();
-		int groupBSize = groupBInstanceGraphs.size();
-		return getMostDifferentiatingNodes(groupAKNodeCounts, groupBKNodeCounts, groupASize, groupBSize);
+		System.out.printf("Group spitting, starting A:%s/B:%s\n", groupA.getCardinality(), groupB.getCardinality());
+		List<RecursiveSplitter.Split> splits = splitter.split(enrichedCodeInstances, groupA, groupB, RoaringBitmap.bitmapOf(groupBIndicatorIndex));
+		printSplits(splits, groupA.getCardinality(), groupB.getCardinality(), knowledgeGraph, "");
 	}
 
-	private Map<String, Set<String>> filterGroup(Map<String, Set<String>> group, Predicate<Map.Entry<String, Set<String>>> predicate) {
-		return group.entrySet().stream().filter(predicate).collect(Collectors.toMap(Map.Entry::getKey, Map.Entry::getValue));
-	}
-
-	private float getNodeSetStrength(Set<String> nodeSet, Map<String, Set<String>> groupAInstanceGraphs, int groupASize,
-			Map<String, Set<String>> groupBInstanceGraphs, int groupBSize) {
-
-		long aCount = groupAInstanceGraphs.values().stream().filter(values -> values.containsAll(nodeSet)).count();
-		long bCount = groupBInstanceGraphs.values().stream().filter(values -> values.containsAll(nodeSet)).count();
-		if (bCount > 0) {
-			if (aCount > 0) {
-				float aCoverage = aCount / (float) groupASize;
-				float bCoverage = bCount / (float) groupBSize;
-				return bCoverage - aCoverage;
-			} else {
-				return 1;
+	private void printSplits(List<RecursiveSplitter.Split> splits, int groupASize, int groupBSize, GraphBuilder knowledgeGraph, String indent) {
+		for (RecursiveSplitter.Split split : splits) {
+			String code = knowledgeGraph.getNode(split.getCode()).getCode();
+			int withoutA = split.getWithoutCodeGroupA().getCardinality();
+			int withoutB = split.getWithoutCodeGroupB().getCardinality();
+			System.out.printf("%sGroups spit using %s, score %s, without A:%s/B:%s reduction of %s%%/%s%%\n", indent, code, split.getScore(), withoutA, withoutB,
+					Math.round((withoutA / (float) groupASize) * 100), Math.round((withoutB / (float) groupBSize) * 100));
+			if (!split.getWithCodeSplits().isEmpty()) {
+				System.out.printf("%s  With %s:\n", indent, code);
+				printSplits(split.getWithCodeSplits(), split.getWithCodeGroupA().getCardinality(), split.getWithCodeGroupB().getCardinality(), knowledgeGraph,
+						indent + "    ");
 			}
-		}
-		return 0;
-	}
-
-	private List<Pair<String, Float>> getMostDifferentiatingNodes(Map<String, Integer> groupAKNodeCounts, Map<String, Integer> groupBKNodeCounts,
-			int groupASize, int groupBSize) {
-
-		Map<String, Float> nodeDiffStrength = new HashMap<>();
-
-		Set<String> allKeys = new HashSet<>(groupBKNodeCounts.keySet());
-		allKeys.addAll(groupAKNodeCounts.keySet());
-		for (String code : allKeys) {
-			int groupACount = groupAKNodeCounts.getOrDefault(code, 0);
-			float groupACoverage = groupACount / (float) groupASize;
-
-			int groupBCount = groupBKNodeCounts.getOrDefault(code, 0);
-			float groupBCoverage = groupBCount / (float) groupBSize;
-
-			float diffStrength = groupBCoverage - groupACoverage;
-			nodeDiffStrength.put(code, diffStrength);
-		}
-
-		return nodeDiffStrength.entrySet().stream()
-//				.sorted(Map.Entry.comparingByValue())
-				.sorted(Map.Entry.comparingByValue(Comparator.reverseOrder()))
-				.map(entry -> new Pair<>(entry.getKey(), entry.getValue()))
-				.collect(Collectors.toList());
-	}
-
-	private Map<String, Integer> getTopKNodeCounts(Map<String, Set<String>> groupAInstanceGraphs) {
-		Map<String, AtomicInteger> nodeCounts = new HashMap<>();
-		for (Set<String> kNodes : groupAInstanceGraphs.values()) {
-			for (String kNode : kNodes) {
-				nodeCounts.computeIfAbsent(kNode, k -> new AtomicInteger()).incrementAndGet();
+			if (!split.getWithoutCodeSplits().isEmpty()) {
+				System.out.printf("%s  Without %s:\n", indent, code);
+				printSplits(split.getWithoutCodeSplits(), withoutA, withoutB, knowledgeGraph, indent + "    ");
 			}
 		}
-		return nodeCounts.entrySet().stream()
-				.collect(Collectors.toMap(Map.Entry::getKey, entry -> entry.getValue().get()));
 	}
 
 	private GraphBuilder loadKnowledgeGraph(String knowledgeGraphHierarchy) {
@@ -192,28 +111,29 @@ public class ExperimentalRecursiveSplitting {
 		return graphBuilder;
 	}
 
-	private Map<String, Set<String>> loadInstanceGraphs(String instanceData) {
-		Map<String, Set<String>> instanceGraphs = new HashMap<>();
-		try (BufferedReader reader = new BufferedReader(new FileReader(instanceData))) {
-			FileUtils.readAndAssertHeader(reader, "instance\tyear\tsnomedId");
-
-			String line;
-			while ((line = reader.readLine()) != null) {
-				String[] cols = line.split("\t");
-				// instance	year	snomedId
-				// 0		1		2
-				String instanceId = cols[0];
-//				String year = cols[1]; Not used yet
-				if (cols.length == 3) {// Some data may not be mapped
-					String snomedId = cols[2];
-					instanceGraphs.computeIfAbsent(instanceId, id -> new HashSet<>()).add(snomedId);
+	private RoaringBitmap[] loadCodeInstances(String instanceData, GraphBuilder knowledgeGraph) {
+		IdDictionary instanceIds = new IdDictionary();
+		List<RoaringBitmap> codeInstances = new ArrayList<>();
+		try {
+			// instance	year	snomedId
+			// 0		1		2
+			MappedTsvReader.read(new File(instanceData), "instance\tyear\tsnomedId", row -> {
+				// Year not used yet
+				if (row.getColumnCount() == 3 && !row.isEmpty(2)) {// Some data may not be mapped
+					int code = knowledgeGraph.getOrAddNodeIndex(row, 2);
+					while (codeInstances.size() <= code) {
+						codeInstances.add(null);
+					}
+					if (codeInstances.get(code) == null) {
+						codeInstances.set(code, new RoaringBitmap());
+					}
+					codeInstances.get(code).add(instanceIds.getOrAdd(row, 0));
 				}
-			}
+			});
 		} catch (IOException e) {
 			throw new RuntimeException(e);
 		}
-		return instanceGraphs;
-
+		return codeInstances.toArray(new RoaringBitmap[0]);
 	}
 
 }
@@ -1,17 +1,36 @@
 package io.kaicode.graphpattern;
 
+import io.kaicode.graphpattern.clustering.BootstrapStability;
+import io.kaicode.graphpattern.clustering.ClusterSelector;
+import io.kaicode.graphpattern.clustering.CohortScoreCache;
+import io.kaicode.graphpattern.clustering.CohortScores;
+import io.kaicode.graphpattern.clustering.PermutationSignificance;
+import io.kaicode.graphpattern.clustering.SubtreeAggregator;
+import io.kaicode.graphpattern.clustering.SubtreeCounts;
+import io.kaicode.graphpattern.clustering.SubtreeInstanceIndex;
+import io.kaicode.graphpattern.domain.AncestorIndex;
 import io.kaicode.graphpattern.domain.GraphBuilder;
+import io.kaicode.graphpattern.domain.InstanceCodeMatrix;
 import io.kaicode.graphpattern.domain.Node;
-import io.kaicode.graphpattern.util.FileUtils;
+import io.kaicode.graphpattern.util.IdDictionary;
+import io.kaicode.graphpattern.util.MappedTsvReader;
+import io.kaicode.graphpattern.util.RunMetrics;
+import org.roaringbitmap.RoaringBitmap;
 
 import java.io.*;
 import java.util.*;
-import java.util.stream.Collectors;
-
-import static java.lang.String.format;
+import java.util.concurrent.ForkJoinPool;
 
 public class GraphClustering {
 
+	private final int threads;
+	private final String knowledgeGraphSnapshot;
+	private final String scoreCacheDir;
+	private final int permutations;
+	private final int bootstrapReplicates;
+	private final long seed;
+	private final String matrixFile;
+
 	// Load knowledge graph
 	// Load instance graphs
 	// Load instance cohorts
@@ -26,9 +45,11 @@ public class GraphClustering {
 		// output - list of highest, strength and type
 		// output - map of highest code to final code (may be original or enriched)
 
-		if (args.length != 7) {
+		if (args.length < 7) {
 			System.out.println("Expecting 7 arguments: path-to-knowledge-graph path-to-knowledge-graph-labels path-to-instance-data path-to-cohorts groupB-indicator " +
 					"min-difference max-clusters");
+			System.out.println("Options, after the arguments: --threads=N --snapshot=path-to-knowledge-graph-snapshot --cache-dir=path-to-score-cache " +
+					"--permutations=N --bootstrap=N --seed=N --matrix=path-to-instance-code-matrix");
 			System.exit(1);
 		}
 		String knowledgeGraphHierarchy = args[0];
@@ -38,7 +59,58 @@ public class GraphClustering {
 		String groupBIndicator = args[4];
 		float minDiff = Float.parseFloat(args[5]);
 		int maxClusters = Integer.parseInt(args[6]);
-		new GraphClustering().run(knowledgeGraphHierarchy, knowledgeGraphLabels, instanceData, instanceCohorts, groupBIndicator, minDiff, maxClusters);
+		Map<String, String> options = readOptions(args, 7);
+		int threads = Integer.parseInt(options.getOrDefault("threads", "1"));
+		String snapshot = options.get("snapshot");
+		String cacheDir = options.get("cache-dir");
+		int permutations = Integer.parseInt(options.getOrDefault("permutations", "0"));
+		int bootstrapReplicates = Integer.parseInt(options.getOrDefault("bootstrap", "0"));
+		long seed = Long.parseLong(options.getOrDefault("seed", "1"));
+		String matrix = options.get("matrix");
+		if (matrix != null && (permutations > 0 || bootstrapReplicates > 0)) {
+			System.err.println("The permutation test and bootstrap need the instances of every node on the heap, they can not be used with --matrix");
+			System.exit(1);
+		}
+		new GraphClustering(threads, snapshot, cacheDir, permutations, bootstrapReplicates, seed, matrix).run(knowledgeGraphHierarchy, knowledgeGraphLabels, instanceData, instanceCohorts, groupBIndicator, minDiff, maxClusters);
+	}
+
+	static Map<String, String> readOptions(String[] args, int firstOption) {
+		Map<String, String> options = new HashMap<>();
+		for (int i = firstOption; i < args.length; i++) {
+			String arg = args[i];
+			if (!arg.startsWith("--")) {
+				System.err.printf("Unexpected argument '%s', options must be given as --name=value%n", arg);
+				System.exit(1);
+			}
+			int equals = arg.indexOf('=');
+			if (equals == -1) {
+				options.put(arg.substring(2), "true");
+			} else {
+				options.put(arg.substring(2, equals), arg.substring(equals + 1));
+			}
+		}
+		return options;
+	}
+
+	/**
+	 * @param threads number of threads used to score nodes, 1 to score on the calling thread
+	 * @param knowledgeGraphSnapshot path of a compiled knowledge graph snapshot to load from, or create, null to always load the TSV files
+	 * @param scoreCacheDir directory to keep node scores in for reuse by later runs with the same data and cohort, null to always score
+	 * @param permutations number of cohort label permutations used to give each cluster a p-value and q-value, 0 to skip the test
+	 * @param bootstrapReplicates number of resampled cohorts used to give each cluster a selection frequency, 0 to skip the bootstrap
+	 * @param seed seed of the permutations and bootstrap, the same seed gives the same values for any number of threads
+	 * @param matrixFile path of an instance code matrix to count from, or build, so that instance data is kept off the heap, null to load
+	 * instance data into the nodes. Not used with the permutation test or bootstrap.
+	 */
+	public GraphClustering(int threads, String knowledgeGraphSnapshot, String scoreCacheDir, int permutations, int bootstrapReplicates, long seed,
+			String matrixFile) {
+		this.threads = threads;
+		this.knowledgeGraphSnapshot = knowledgeGraphSnapshot;
+		this.scoreCacheDir = scoreCacheDir;
+		this.permutations = permutations;
+		this.bootstrapReplicates = bootstrapReplicates;
+		this.seed = seed;
+		this.matrixFile = matrixFile;
 	}
 
 	private void run(String knowledgeGraphHierarchy, String knowledgeGraphLabelsPath, String instanceData, String instanceCohorts, String groupBIndicator,
@@ -47,70 +119,94 @@ public class GraphClustering {
 		System.out.println("< Graph Pattern Analysis >");
 		System.out.println();
 
-		GraphBuilder knowledgeGraph = loadKnowledgeGraph(knowledgeGraphHierarchy);
-		Map<String, String> knowledgeGraphLabels = loadKnowledgeGraphLabels(knowledgeGraphLabelsPath);
-
-		Map<String, Set<String>> allInstanceGraphs = loadInstanceGraphs(instanceData);
-		Map<String, Set<String>> cohortInstanceMap = loadCohorts(instanceCohorts);
-		Set<String> groupBCohort = cohortInstanceMap.get(groupBIndicator);
-		if (groupBCohort == null) {
-			throw new RuntimeException("GroupB indicator is not present in the cohorts file");
+		RunMetrics metrics = new RunMetrics();
+		GraphBuilder knowledgeGraph = metrics.call("load-knowledge-graph", () -> KnowledgeGraphLoader.load(new File(knowledgeGraphHierarchy),
+				new File(knowledgeGraphLabelsPath), knowledgeGraphSnapshot != null ? new File(knowledgeGraphSnapshot) : null));
+		// Ancestor closure, used in place of enriching instances with their ancestors
+		AncestorIndex ancestorIndex = metrics.call("enrichment", () -> new AncestorIndex(knowledgeGraph));
+
+		// Cohorts are read first so that instance data can be streamed straight into the group membership of each node
+		IdDictionary instanceIds = new IdDictionary();
+		RoaringBitmap groupBCohort;
+		// Group A is all instances not in Group B
+		RoaringBitmap allInstances = new RoaringBitmap();
+		RoaringBitmap allCodesUsed = new RoaringBitmap();
+		InstanceCodeMatrix matrix = null;
+		long dataVersion = CohortScoreCache.getDataVersion(new File(knowledgeGraphHierarchy), new File(instanceData), new File(instanceCohorts));
+		try (RunMetrics.Phase phase = metrics.start("load-instance-data")) {
+			Map<String, RoaringBitmap> cohortInstanceMap = InstanceDataLoader.loadCohorts(new File(instanceCohorts), instanceIds);
+			groupBCohort = cohortInstanceMap.get(groupBIndicator);
+			if (groupBCohort == null) {
+				throw new RuntimeException("GroupB indicator is not present in the cohorts file");
+			}
+			if (matrixFile != null) {
+				matrix = InstanceCodeMatrix.load(new File(instanceData), knowledgeGraph, instanceIds, new File(matrixFile), dataVersion);
+				phase.addRowsParsed(matrix.getRowsRead());
+				allInstances.or(matrix.getInstances());
+				allCodesUsed.or(matrix.getCodesUsed());
+			} else {
+				if (threads > 1) {
+					// Read on threads of the file reader
+					phase.markPartialAllocation();
+				}
+				phase.addRowsParsed(InstanceDataLoader.loadInstanceData(new File(instanceData), knowledgeGraph, instanceIds, groupBCohort, threads, allInstances,
+						allCodesUsed));
+			}
 		}
-		if (groupBCohort.isEmpty()) {
+		int groupBSize = RoaringBitmap.andCardinality(groupBCohort, allInstances);
+		if (groupBSize == 0) {
 			throw new RuntimeException("GroupB cohort is empty");
 		}
-
-		// Split instance groups
-		// Group A is all patients not in Group B
-		Map<String, Set<String>> groupAInstanceGraphs = allInstanceGraphs.entrySet().stream()
-				.filter(entry -> !groupBCohort.contains(entry.getKey()))
-				.collect(Collectors.toMap(Map.Entry::getKey, Map.Entry::getValue));
-
-		Map<String, Set<String>> groupBInstanceGraphs = allInstanceGraphs.entrySet().stream()
-				.filter(entry -> groupBCohort.contains(entry.getKey()))
-				.collect(Collectors.toMap(Map.Entry::getKey, Map.Entry::getValue));
-
-		// Add instance ids into the graph
-		Set<String> notFoundCodes = new HashSet<>();
-		Set<String> allCodesUsed = new HashSet<>();
-		for (Map.Entry<String, Set<String>> instanceIdAndConcepts : groupAInstanceGraphs.entrySet()) {
-			String id = instanceIdAndConcepts.getKey();
-			Set<String> concepts = instanceIdAndConcepts.getValue();
-			for (String code : concepts) {
-				Node node = knowledgeGraph.getNode(code);
-				if (node == null) {
-					if (notFoundCodes.add(code)) {// Report only once per code
-						System.err.printf("Code %s not found in knowledge graph%n", code);
-					}
-				} else {
-					node.addGroupAInstance(id);
-					allCodesUsed.add(code);
-				}
-
+		int groupASize = allInstances.getCardinality() - groupBSize;
+		float[] differences;
+		InstanceCodeMatrix instanceCodes = matrix;
+		try (RunMetrics.Phase phase = metrics.start("aggregation")) {
+			if (scoreCacheDir != null) {
+				CohortScoreCache scoreCache = new CohortScoreCache(1, new File(scoreCacheDir));
+				differences = scoreCache.getOrCompute(dataVersion, RoaringBitmap.and(groupBCohort, allInstances), () -> {
+					phase.addNodesScored(knowledgeGraph.getNodeCount());
+					return new CohortScores(aggregateSubtreeCounts(knowledgeGraph, ancestorIndex, instanceCodes, groupBCohort, metrics), groupASize, groupBSize);
+				}).getDifferences();
+			} else {
+				phase.addNodesScored(knowledgeGraph.getNodeCount());
+				differences = aggregateSubtreeCounts(knowledgeGraph, ancestorIndex, instanceCodes, groupBCohort, metrics).calculateDifferences(groupASize, groupBSize);
 			}
 		}
-		for (Map.Entry<String, Set<String>> patientAndConcepts : groupBInstanceGraphs.entrySet()) {
-			String id = patientAndConcepts.getKey();
-			Set<String> concepts = patientAndConcepts.getValue();
-			for (String code : concepts) {
-				Node node = knowledgeGraph.getNode(code);
-				if (node == null) {
-					if (notFoundCodes.add(code)) {// Report only once per code
-						System.err.printf("Code %s not found in knowledge graph%n", code);
+		List<Node> nodesRankedByDifference;
+		try (RunMetrics.Phase phase = metrics.start("selection")) {
+			ClusterSelector clusterSelector = new ClusterSelector(knowledgeGraph, ancestorIndex);
+			nodesRankedByDifference = getNodesRankedByDifferenceAndGain(clusterSelector, knowledgeGraph, differences, maxClusters, minDiff);
+			phase.addCandidatesEvaluated(clusterSelector.getCandidatesEvaluated());
+		}
+		PermutationSignificance.Result significance = null;
+		float[] selectionFrequencies = null;
+		if (permutations > 0 || bootstrapReplicates > 0) {
+			ForkJoinPool pool = threads > 1 ? metrics.newPool(threads) : null;
+			try {
+				SubtreeInstanceIndex subtreeInstanceIndex = metrics.call("index-subtrees", () -> new SubtreeInstanceIndex(
+						new SubtreeAggregator(pool).aggregateSubtrees(knowledgeGraph, node -> RoaringBitmap.or(node.getGroupAInstances(), node.getGroupBInstances())),
+						allInstances));
+				if (permutations > 0) {
+					try (RunMetrics.Phase phase = metrics.start("permutation-test")) {
+						significance = new PermutationSignificance(subtreeInstanceIndex, permutations, seed).test(groupBCohort, pool);
+						phase.addNodesScored((long) knowledgeGraph.getNodeCount() * permutations);
+					}
+				}
+				if (bootstrapReplicates > 0) {
+					try (RunMetrics.Phase phase = metrics.start("bootstrap")) {
+						selectionFrequencies = new BootstrapStability(subtreeInstanceIndex, knowledgeGraph, ancestorIndex, bootstrapReplicates, seed)
+								.getSelectionFrequencies(groupBCohort, maxClusters, minDiff, pool);
+						phase.addNodesScored((long) knowledgeGraph.getNodeCount() * bootstrapReplicates);
 					}
-				} else {
-					node.addGroupBInstance(id);
-					allCodesUsed.add(code);
+				}
+			} finally {
+				if (pool != null) {
+					pool.shutdown();
 				}
 			}
 		}
 
-		int groupASize = groupAInstanceGraphs.size();
-		int groupBSize = groupBInstanceGraphs.size();
-		List<Node> nodesRankedByDifference = getNodesRankedByDifferenceAndGain(knowledgeGraph, allCodesUsed, groupASize, groupBSize, maxClusters, minDiff);
-
-		Set<String> chosenNodes = new HashSet<>();
-		Map<String, Float> chosenNodeStrengths = new HashMap<>();
+		boolean[] chosenNodes = new boolean[knowledgeGraph.getNodeCount()];
 
 		File outputDir = new File("output");
 		if (!outputDir.isDirectory() && !outputDir.mkdirs()) {
@@ -118,207 +214,136 @@ public class GraphClustering {
 		}
 		String clusterFilename = "output/clusters.txt";
 		String codeMapFilename = "output/instance-code-cluster-map.txt";
+		String metricsFilename = "output/metrics.txt";
+		RunMetrics.Phase writing = metrics.start("writing");
 		try (BufferedWriter clustersWriter = new BufferedWriter(new FileWriter(clusterFilename));
-			 BufferedWriter clusterMapWriter = new BufferedWriter(new FileWriter(codeMapFilename))) {
+			 OutputStream clusterMapOut = new FileOutputStream(codeMapFilename)) {
 
 			System.out.println();
 			System.out.printf("Top %s differentiating nodes:%n", maxClusters);
-			clustersWriter.write("code\tdiffStrength\tdisplay\tclusterCodes");
-			clustersWriter.newLine();
-			for (int i = 0; chosenNodes.size() < Math.min(maxClusters, nodesRankedByDifference.size()); i++) {
-				Node node = nodesRankedByDifference.get(i);
+			List<Node> clusters = new ArrayList<>();
+			for (Node node : nodesRankedByDifference) {
 				String code = node.getCode();
 				if (!code.equals(groupBIndicator)) {
-					chosenNodes.add(code);
-					Float difference = node.getGroupDifferenceWithSubtypesBackup();
-					chosenNodeStrengths.put(code, difference);
-					String label = knowledgeGraphLabels.get(code);
-					clustersWriter.write(code);
-					clustersWriter.write("\t");
-					clustersWriter.write(difference.toString());
-					clustersWriter.write("\t");
-					clustersWriter.write(label);
-					clustersWriter.write("\t");
-					Set<String> codeAndDescendantCodes = node.getCodeAndDescendantCodes(new HashSet<>());
-					clustersWriter.write(codeAndDescendantCodes.stream().filter(allCodesUsed::contains).collect(Collectors.joining(",")));
-					clustersWriter.newLine();
-					System.out.printf("Node %s diff strength %s %s%n", code, difference, label != null ? label : "");
+					clusters.add(node);
+					chosenNodes[node.getIndex()] = true;
+					String label = knowledgeGraph.getLabel(node.getIndex());
+					System.out.printf("Node %s diff strength %s %s%n", code, differences[node.getIndex()], label != null ? label : "");
 				}
 			}
+			writeClusters(clustersWriter, knowledgeGraph, clusters, differences, allCodesUsed, significance, selectionFrequencies);
 			System.out.println();
 			System.out.println();
 
 			// Create cluster-map. Can be used for feature reduction. Codes are mapped to cluster codes.
 
-			clusterMapWriter.write("sourceCode\ttargetCode");
-			clusterMapWriter.newLine();
-			Set<String> mapped = new HashSet<>();
-			for (String codeUsed : allCodesUsed) {
-				Node node = knowledgeGraph.getNode(codeUsed);
-				Set<Node> ancestorsAndSelf = new HashSet<>(node.getAncestors());
-				ancestorsAndSelf.add(node);
-				for (Node candidate : ancestorsAndSelf) {
-					if (chosenNodes.contains(candidate.getCode())) {
-						String destinationCode = candidate.getCode();
-						if (mapped.add(codeUsed + ">" + destinationCode)) {
-							clusterMapWriter.write(codeUsed);
-							clusterMapWriter.write("\t");
-							clusterMapWriter.write(destinationCode);
-							clusterMapWriter.newLine();
-
-							Float diffStrength = chosenNodeStrengths.get(destinationCode);
-							String enrichmentMessage = !codeUsed.equals(destinationCode) ? format("clustered at ancestor level (%s)", destinationCode) : "";
-							Float diffStrengthDisplay = Math.round(diffStrength * 1000) / 1000f;
-//							System.out.printf("code %s diff strength %s %s%n", codeUsed, diffStrengthDisplay, enrichmentMessage);
-						}
-					}
-				}
-			}
+			writeClusterMap(clusterMapOut, knowledgeGraph, allCodesUsed, chosenNodes, metrics);
 
 			System.out.println();
 			System.out.printf("Clusters written to %s%n", clusterFilename);
 			System.out.printf("Map written to %s%n", codeMapFilename);
 		} catch (IOException e) {
 			throw new RuntimeException("Failed to write cluster map output file.", e);
+		} finally {
+			writing.close();
 		}
+		metrics.write(new File(metricsFilename));
+		System.out.printf("Metrics written to %s%n", metricsFilename);
 
 		System.out.println();
 		System.out.println("Process Complete");
 	}
 
-	private Map<String, Set<String>> loadCohorts(String instanceCohorts) {
+	/**
+	 * @param matrix codes of each instance to count from, or null to count from the instances of each node
+	 */
+	private SubtreeCounts aggregateSubtreeCounts(GraphBuilder knowledgeGraph, AncestorIndex ancestorIndex, InstanceCodeMatrix matrix, RoaringBitmap groupB,
+			RunMetrics metrics) {
+		ForkJoinPool pool = threads > 1 ? metrics.newPool(threads) : null;
 		try {
-			BufferedReader reader = new BufferedReader(new FileReader(instanceCohorts));
-			String header = reader.readLine();
-			int columnCount = header.split("\t").length;
-			if (columnCount != 2) {
-				System.err.printf("Failed to read cohorts input file. Expected tab separated file with two columns. Got %s columns.", columnCount);
-				System.exit(1);
+			SubtreeAggregator subtreeAggregator = new SubtreeAggregator(pool);
+			return matrix != null ? subtreeAggregator.aggregate(matrix, ancestorIndex, groupB) : subtreeAggregator.aggregate(knowledgeGraph);
+		} finally {
+			if (pool != null) {
+				pool.shutdown();
 			}
-
-			Map<String, Set<String>> cohortInstanceMap = new HashMap<>();
-			String row;
-			while ((row = reader.readLine()) != null) {
-				String[] columns = row.split("\t");
-				String instanceId = columns[0];
-				String cohort = columns[1];
-				cohortInstanceMap.computeIfAbsent(cohort, i -> new HashSet<>()).add(instanceId);
-			}
-			return cohortInstanceMap;
-		} catch (IOException e) {
-			throw new RuntimeException("Failed to read cohort file.", e);
 		}
 	}
 
-	private List<Node> getNodesRankedByDifferenceAndGain(GraphBuilder knowledgeGraph, Set<String> allCodesUsed, int groupASize, int groupBSize, int maxClusters, float minDiff) {
-
-		Comparator<Node> maxDiffMaxDepthComparator = Comparator.comparing(Node::getGroupDifferenceWithSubtypes).thenComparing(Node::getDepth).reversed();
-
-		Node rootNode = knowledgeGraph.getRootNode();
-		rootNode.recordDepth(0);
-
-		Set<Node> candidateNodes = calculateNodeDiffAndCollect(allCodesUsed, knowledgeGraph, groupASize, groupBSize, false);
-
-		List<Node> bestNodes = new ArrayList<>();
-		while (bestNodes.size() < maxClusters && !candidateNodes.isEmpty()) {
-			List<Node> sortedNodes = new ArrayList<>(candidateNodes);
-			sortedNodes.sort(maxDiffMaxDepthComparator);
-			Node candidateNode = sortedNodes.get(0);
-			if (candidateNode.getGroupDifferenceWithSubtypes() < minDiff) {
-				break;
-			}
-			if (!anySubsumption(candidateNode, bestNodes)) {
-				bestNodes.add(candidateNode);
-				// Clear diff of all descendants
-				calculateNodeDiffAndCollect(candidateNode.getCodeAndDescendantCodes(new HashSet<>()), knowledgeGraph, groupASize, groupBSize, true);
-			}
-			if (candidateNodes.remove(candidateNode)) {
-				System.out.println("Failed to remove");
-			}
-		}
-		return bestNodes;
+	/**
+	 * Writes each cluster with its difference, label and the used codes within it.
+	 */
+	public static void writeClusters(BufferedWriter clustersWriter, GraphBuilder knowledgeGraph, List<Node> clusters, float[] differences,
+			RoaringBitmap allCodesUsed) throws IOException {
+		writeClusters(clustersWriter, knowledgeGraph, clusters, differences, allCodesUsed, null, null);
 	}
 
-	private static Set<Node> calculateNodeDiffAndCollect(Set<String> allCodesUsed, GraphBuilder knowledgeGraph, int groupASize, int groupBSize, boolean forceZero) {
-		Set<Node> nodes = new HashSet<>();
-		for (String codeUsed : allCodesUsed) {
-			Node node = knowledgeGraph.getNode(codeUsed);
-			node.calculateGroupDifferenceWithSubtypes(groupASize, groupBSize, forceZero);
-			nodes.add(node);
-			for (Node ancestor : node.getAncestors()) {
-				ancestor.calculateGroupDifferenceWithSubtypes(groupASize, groupBSize, forceZero);
-				nodes.add(ancestor);
-			}
+	/**
+	 * @param significance p-values and q-values of the permutation test, written after the other columns, or null to leave them out
+	 * @param selectionFrequencies bootstrap selection frequency of each node, written last, or null to leave it out
+	 */
+	public static void writeClusters(BufferedWriter clustersWriter, GraphBuilder knowledgeGraph, List<Node> clusters, float[] differences,
+			RoaringBitmap allCodesUsed, PermutationSignificance.Result significance, float[] selectionFrequencies) throws IOException {
+
+		IdDictionary codes = knowledgeGraph.getCodes();
+		clustersWriter.write("code\tdiffStrength\tdisplay\tclusterCodes");
+		if (significance != null) {
+			clustersWriter.write("\tpValue\tqValue");
 		}
-		return nodes;
-	}
-
-	private boolean anySubsumption(Node node, List<Node> otherNodes) {
-		Set<Node> nodeAncestors = node.getAncestors();
-		for (Node otherNode : otherNodes) {
-			if (nodeAncestors.contains(otherNode) || otherNode.getAncestors().contains(node)) {
-				return true;
-			}
+		if (selectionFrequencies != null) {
+			clustersWriter.write("\tselectionFrequency");
 		}
-		return false;
-	}
-
-	private GraphBuilder loadKnowledgeGraph(String knowledgeGraphHierarchy) {
-		GraphBuilder graphBuilder = new GraphBuilder();
-
-		try (BufferedReader reader = new BufferedReader(new FileReader(knowledgeGraphHierarchy))) {
-			FileUtils.readAndAssertHeader(reader, "child\tparent");
-
-			String line;
-			while ((line = reader.readLine()) != null) {
-				String[] pair = line.split("\t");
-				graphBuilder.addChildParentLink(pair[0], pair[1]);
+		clustersWriter.newLine();
+		for (Node node : clusters) {
+			Float difference = differences[node.getIndex()];
+			clustersWriter.write(node.getCode());
+			clustersWriter.write("\t");
+			clustersWriter.write(difference.toString());
+			clustersWriter.write("\t");
+			clustersWriter.write(String.valueOf(knowledgeGraph.getLabel(node.getIndex())));
+			clustersWriter.write("\t");
+			RoaringBitmap clusterCodes = RoaringBitmap.and(node.getIndexAndDescendantIndexes(new RoaringBitmap()), allCodesUsed);
+			StringJoiner clusterCodesJoiner = new StringJoiner(",");
+			clusterCodes.forEach((int clusterCode) -> clusterCodesJoiner.add(codes.decode(clusterCode)));
+			clustersWriter.write(clusterCodesJoiner.toString());
+			if (significance != null) {
+				clustersWriter.write("\t");
+				clustersWriter.write(String.valueOf(significance.getPValues()[node.getIndex()]));
+				clustersWriter.write("\t");
+				clustersWriter.write(String.valueOf(significance.getQValues()[node.getIndex()]));
 			}
-		} catch (IOException e) {
-			throw new RuntimeException(e);
+			if (selectionFrequencies != null) {
+				clustersWriter.write("\t");
+				clustersWriter.write(String.valueOf(selectionFrequencies[node.getIndex()]));
+			}
+			clustersWriter.newLine();
 		}
-		return graphBuilder;
 	}
 
-	private Map<String, String> loadKnowledgeGraphLabels(String knowledgeGraphLabelsPath) {
-		Map<String, String> labels = new HashMap<>();
-		try (BufferedReader reader = new BufferedReader(new FileReader(knowledgeGraphLabelsPath))) {
-			FileUtils.readAndAssertHeader(reader, "code\tlabel");
+	private void writeClusterMap(OutputStream clusterMapOut, GraphBuilder knowledgeGraph, RoaringBitmap allCodesUsed, boolean[] chosenNodes,
+			RunMetrics metrics) throws IOException {
 
-			String line;
-			while ((line = reader.readLine()) != null) {
-				String[] pair = line.split("\t");
-				labels.put(pair[0], pair[1]);
+		ClusterMapWriter clusterMapWriter = new ClusterMapWriter(knowledgeGraph);
+		if (threads > 1) {
+			ForkJoinPool pool = metrics.newPool(threads);
+			try {
+				clusterMapWriter.write(clusterMapOut, allCodesUsed, chosenNodes, pool);
+			} finally {
+				pool.shutdown();
 			}
-		} catch (IOException e) {
-			throw new RuntimeException(e);
+		} else {
+			clusterMapWriter.write(clusterMapOut, allCodesUsed, chosenNodes, null);
 		}
-		return labels;
-
 	}
 
-	private Map<String, Set<String>> loadInstanceGraphs(String instanceData) {
-		Map<String, Set<String>> instanceGraphs = new HashMap<>();
-		try (BufferedReader reader = new BufferedReader(new FileReader(instanceData))) {
-			FileUtils.readAndAssertHeader(reader, "instance\tyear\tcode");
-
-			String line;
-			while ((line = reader.readLine()) != null) {
-				String[] cols = line.split("\t");
-				// instance	year	code
-				// 0		1		2
-				String instanceId = cols[0];
-//				String year = cols[1]; Not used yet
-				if (cols.length == 3) {// Some data may not be mapped
-					String code = cols[2];
-					instanceGraphs.computeIfAbsent(instanceId, id -> new HashSet<>()).add(code);
-				}
-			}
-		} catch (IOException e) {
-			throw new RuntimeException(e);
+	private List<Node> getNodesRankedByDifferenceAndGain(ClusterSelector clusterSelector, GraphBuilder knowledgeGraph, float[] differences, int maxClusters,
+			float minDiff) {
+		int[] chosenNodeIndexes = clusterSelector.select(differences, maxClusters, minDiff);
+		List<Node> bestNodes = new ArrayList<>();
+		for (int nodeIndex : chosenNodeIndexes) {
+			bestNodes.add(knowledgeGraph.getNode(nodeIndex));
 		}
-		return instanceGraphs;
-
+		return bestNodes;
 	}
 
 }
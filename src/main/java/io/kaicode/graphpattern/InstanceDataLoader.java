@@ -0,0 +1,211 @@
+package io.kaicode.graphpattern;
+
+import io.kaicode.graphpattern.domain.GraphBuilder;
+import io.kaicode.graphpattern.domain.Node;
+import io.kaicode.graphpattern.util.IdDictionary;
+import io.kaicode.graphpattern.util.MappedTsvReader;
+import org.roaringbitmap.RoaringBitmap;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.*;
+
+/**
+ * Loads instance cohorts and instance data, linking instances to the nodes of the knowledge graph.
+ */
+public class InstanceDataLoader {
+
+	/**
+	 * @param instanceIds instance ids of the cohort file are added to this dictionary
+	 * @return instances of each cohort, as instance ids from the dictionary, in order of first appearance
+	 */
+	public static Map<String, RoaringBitmap> loadCohorts(File file, IdDictionary instanceIds) {
+		try {
+			String header = MappedTsvReader.readHeader(file);
+			int columnCount = header.split("\t").length;
+			if (columnCount != 2) {
+				System.err.printf("Failed to read cohorts input file. Expected tab separated file with two columns. Got %s columns.", columnCount);
+				System.exit(1);
+			}
+
+			Map<String, RoaringBitmap> cohortInstanceMap = new LinkedHashMap<>();
+			IdDictionary cohorts = new IdDictionary();
+			List<RoaringBitmap> cohortInstances = new ArrayList<>();
+			MappedTsvReader.read(file, null, row -> {
+				int cohort = cohorts.getOrAdd(row, 1);
+				if (cohort == cohortInstances.size()) {
+					cohortInstances.add(new RoaringBitmap());
+				}
+				cohortInstances.get(cohort).add(instanceIds.getOrAdd(row, 0));
+			});
+			for (int cohort = 0; cohort < cohortInstances.size(); cohort++) {
+				cohortInstanceMap.put(cohorts.decode(cohort), cohortInstances.get(cohort));
+			}
+			return cohortInstanceMap;
+		} catch (IOException e) {
+			throw new RuntimeException("Failed to read cohort file.", e);
+		}
+	}
+
+	/**
+	 * Streams the instance data into the group A and group B instances of each node, in one pass without holding the rows.
+	 * When reading in parallel each chunk collects node membership on its own and is merged into the nodes afterwards.
+	 * Instances only in the instance data are given ids by each chunk and merged in file order, so ids are the same for any number of threads.
+	 * @param threads number of chunks to read in parallel, 1 to read on the calling thread
+	 * @param instanceIds instance ids from the cohort file, instances only in the instance data are added after these in order of first appearance
+	 * @param allInstances filled with every instance that has a row with a code, known to the knowledge graph or not
+	 * @param allCodesUsed filled with the index of every node that has instance data
+	 * @return number of rows read
+	 */
+	public static long loadInstanceData(File instanceData, GraphBuilder knowledgeGraph, IdDictionary instanceIds, RoaringBitmap groupBCohort, int threads,
+			RoaringBitmap allInstances, RoaringBitmap allCodesUsed) {
+
+		int cohortInstanceCount = instanceIds.size();
+		boolean direct = threads <= 1;
+		// Direct chunks are read one after another so can share their ids
+		IdDictionary directOtherInstanceIds = new IdDictionary();
+		try {
+			// instance	year	code
+			// 0		1		2
+			List<InstanceChunk> chunks = MappedTsvReader.read(instanceData, "instance\tyear\tcode", threads,
+					() -> new InstanceChunk(knowledgeGraph, instanceIds, direct ? directOtherInstanceIds : new IdDictionary(), groupBCohort, direct));
+			IdDictionary notFoundCodes = new IdDictionary();
+			long rows = 0;
+			for (InstanceChunk chunk : chunks) {
+				rows += chunk.rows;
+				// Chunks are merged in file order so the other instances are given ids in order of first appearance
+				int[] otherInstanceMap = new int[chunk.otherInstanceIds.size()];
+				boolean remap = false;
+				for (int i = 0; i < otherInstanceMap.length; i++) {
+					otherInstanceMap[i] = instanceIds.getOrAdd(chunk.otherInstanceIds, i);
+					remap |= otherInstanceMap[i] != cohortInstanceCount + i;
+				}
+				if (remap) {
+					chunk.remapOtherInstances(cohortInstanceCount, otherInstanceMap);
+				}
+				if (!direct) {
+					chunk.addToNodes();
+				}
+				allInstances.or(chunk.instances);
+				allCodesUsed.or(chunk.codesUsed);
+				for (int i = 0; i < chunk.notFoundCodes.size(); i++) {
+					int reported = notFoundCodes.size();
+					if (notFoundCodes.getOrAdd(chunk.notFoundCodes, i) == reported) {// Report only once per code
+						System.err.printf("Code %s not found in knowledge graph%n", chunk.notFoundCodes.decode(i));
+					}
+				}
+			}
+			return rows;
+		} catch (IOException e) {
+			throw new RuntimeException(e);
+		}
+	}
+
+	private static final class InstanceChunk implements MappedTsvReader.RowHandler {
+
+		private final GraphBuilder knowledgeGraph;
+		private final IdDictionary instanceIds;
+		// Instances not in any cohort, ids after those of the cohorts until remapped
+		private final IdDictionary otherInstanceIds;
+		private final RoaringBitmap groupBCohort;
+		private final boolean direct;
+		private RoaringBitmap instances = new RoaringBitmap();
+		private final RoaringBitmap codesUsed = new RoaringBitmap();
+		private final IdDictionary notFoundCodes = new IdDictionary();
+		private RoaringBitmap[] groupAInstances;
+		private RoaringBitmap[] groupBInstances;
+		private long rows;
+
+		/**
+		 * @param otherInstanceIds ids of instances not in any cohort, shared by direct chunks, one per chunk otherwise
+		 * @param direct add instances straight to the nodes, only when chunks are read one at a time
+		 */
+		private InstanceChunk(GraphBuilder knowledgeGraph, IdDictionary instanceIds, IdDictionary otherInstanceIds, RoaringBitmap groupBCohort,
+				boolean direct) {
+			this.knowledgeGraph = knowledgeGraph;
+			this.instanceIds = instanceIds;
+			this.otherInstanceIds = otherInstanceIds;
+			this.groupBCohort = groupBCohort;
+			this.direct = direct;
+			if (!direct) {
+				groupAInstances = new RoaringBitmap[knowledgeGraph.getNodeCount()];
+				groupBInstances = new RoaringBitmap[knowledgeGraph.getNodeCount()];
+			}
+		}
+
+		@Override
+		public void handle(MappedTsvReader.Row row) {
+			rows++;
+			// Year column not used yet
+			if (!row.isEmpty(2)) {// Some data may not be mapped
+				// Counted in its group even when none of its codes are in the knowledge graph
+				int instance = getInstance(row);
+				instances.add(instance);
+				int nodeIndex = knowledgeGraph.getNodeIndex(row, 2);
+				if (nodeIndex == -1) {
+					notFoundCodes.getOrAdd(row, 2);
+					return;
+				}
+				codesUsed.add(nodeIndex);
+				boolean groupB = groupBCohort.contains(instance);
+				if (direct) {
+					Node node = knowledgeGraph.getNode(nodeIndex);
+					if (groupB) {
+						node.addGroupBInstance(instance);
+					} else {
+						node.addGroupAInstance(instance);
+					}
+				} else {
+					RoaringBitmap[] groupInstances = groupB ? groupBInstances : groupAInstances;
+					if (groupInstances[nodeIndex] == null) {
+						groupInstances[nodeIndex] = new RoaringBitmap();
+					}
+					groupInstances[nodeIndex].add(instance);
+				}
+			}
+		}
+
+		private int getInstance(MappedTsvReader.Row row) {
+			int instance = instanceIds.get(row, 0);
+			if (instance == -1) {
+				instance = instanceIds.size() + otherInstanceIds.getOrAdd(row, 0);
+			}
+			return instance;
+		}
+
+		/**
+		 * Moves the instances not in any cohort to the ids they were given when the chunks were merged. They are only ever in group A.
+		 */
+		private void remapOtherInstances(int cohortInstanceCount, int[] otherInstanceMap) {
+			instances = remap(instances, cohortInstanceCount, otherInstanceMap);
+			if (!direct) {
+				for (int nodeIndex : codesUsed) {
+					if (groupAInstances[nodeIndex] != null) {
+						groupAInstances[nodeIndex] = remap(groupAInstances[nodeIndex], cohortInstanceCount, otherInstanceMap);
+					}
+				}
+			}
+		}
+
+		private static RoaringBitmap remap(RoaringBitmap bitmap, int cohortInstanceCount, int[] otherInstanceMap) {
+			if (bitmap.isEmpty() || bitmap.last() < cohortInstanceCount) {
+				return bitmap;
+			}
+			RoaringBitmap remapped = new RoaringBitmap();
+			bitmap.forEach((int instance) -> remapped.add(instance < cohortInstanceCount ? instance : otherInstanceMap[instance - cohortInstanceCount]));
+			return remapped;
+		}
+
+		private void addToNodes() {
+			for (int nodeIndex : codesUsed) {
+				Node node = knowledgeGraph.getNode(nodeIndex);
+				if (groupAInstances[nodeIndex] != null) {
+					node.addGroupAInstances(groupAInstances[nodeIndex]);
+				}
+				if (groupBInstances[nodeIndex] != null) {
+					node.addGroupBInstances(groupBInstances[nodeIndex]);
+				}
+			}
+		}
+	}
+}
@@ -0,0 +1,208 @@
+package io.kaicode.graphpattern;
+
+import io.kaicode.graphpattern.domain.GraphBuilder;
+import io.kaicode.graphpattern.domain.Node;
+import io.kaicode.graphpattern.util.IdDictionary;
+import io.kaicode.graphpattern.util.MappedTsvReader;
+
+import java.io.*;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * Loads the knowledge graph hierarchy and labels, either from the TSV files or from a compiled binary snapshot.
+ * <p>
+ * The snapshot holds the code dictionary, child-parent links, node depths and labels. It records the size and modification time
+ * of the TSV files it was compiled from and is only used while they are unchanged, otherwise the TSV files are loaded and the
+ * snapshot is written again.
+ */
+public class KnowledgeGraphLoader {
+
+	private static final int SNAPSHOT_MAGIC = 0x47504B47;// GPKG
+	private static final int SNAPSHOT_VERSION = 1;
+
+	// path-to-knowledge-graph path-to-knowledge-graph-labels path-to-snapshot
+	public static void main(String[] args) {
+		if (args.length != 3) {
+			System.out.println("Expecting 3 arguments: path-to-knowledge-graph path-to-knowledge-graph-labels path-to-snapshot");
+			System.exit(1);
+		}
+		File hierarchy = new File(args[0]);
+		File labels = new File(args[1]);
+		File snapshot = new File(args[2]);
+		GraphBuilder knowledgeGraph = loadTsv(hierarchy, labels);
+		writeSnapshot(knowledgeGraph, hierarchy, labels, snapshot);
+		System.out.printf("Snapshot of %s nodes written to %s%n", knowledgeGraph.getNodeCount(), snapshot);
+	}
+
+	/**
+	 * @param snapshot snapshot to load from if it is up to date, or write if not. Null to always load the TSV files.
+	 */
+	public static GraphBuilder load(File hierarchy, File labels, File snapshot) {
+		if (snapshot != null && snapshot.isFile()) {
+			GraphBuilder knowledgeGraph = readSnapshot(snapshot, hierarchy, labels);
+			if (knowledgeGraph != null) {
+				return knowledgeGraph;
+			}
+			System.out.printf("Knowledge graph snapshot %s is stale, loading from %s%n", snapshot, hierarchy);
+		}
+		GraphBuilder knowledgeGraph = loadTsv(hierarchy, labels);
+		if (snapshot != null) {
+			writeSnapshot(knowledgeGraph, hierarchy, labels, snapshot);
+		}
+		return knowledgeGraph;
+	}
+
+	public static GraphBuilder loadTsv(File hierarchy, File labels) {
+		GraphBuilder graphBuilder = new GraphBuilder();
+		try {
+			MappedTsvReader.read(hierarchy, "child\tparent", row -> {
+				int parent = graphBuilder.getOrAddNodeIndex(row, 1);
+				int child = graphBuilder.getOrAddNodeIndex(row, 0);
+				graphBuilder.addChildParentLink(child, parent);
+			});
+			// Labels of codes not in the knowledge graph are ignored
+			MappedTsvReader.read(labels, "code\tlabel", row -> {
+				int nodeIndex = graphBuilder.getNodeIndex(row, 0);
+				if (nodeIndex != -1) {
+					graphBuilder.setLabel(nodeIndex, row.getString(1));
+				}
+			});
+		} catch (IOException e) {
+			throw new RuntimeException(e);
+		}
+		return graphBuilder;
+	}
+
+	public static void writeSnapshot(GraphBuilder knowledgeGraph, File hierarchy, File labels, File snapshot) {
+		int nodeCount = knowledgeGraph.getNodeCount();
+		IdDictionary codes = knowledgeGraph.getCodes();
+		File tempFile = new File(snapshot.getPath() + ".tmp");
+		try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tempFile), 1 << 16))) {
+			out.writeInt(SNAPSHOT_MAGIC);
+			out.writeInt(SNAPSHOT_VERSION);
+			out.writeLong(hierarchy.length());
+			out.writeLong(hierarchy.lastModified());
+			out.writeLong(labels.length());
+			out.writeLong(labels.lastModified());
+			out.writeInt(nodeCount);
+
+			// Codes are copied as bytes straight from the dictionary
+			for (int nodeIndex = 0; nodeIndex < nodeCount; nodeIndex++) {
+				out.writeInt(codes.getLength(nodeIndex));
+			}
+			byte[] code = new byte[256];
+			for (int nodeIndex = 0; nodeIndex < nodeCount; nodeIndex++) {
+				int length = codes.getLength(nodeIndex);
+				if (code.length < length) {
+					code = new byte[length];
+				}
+				codes.copyBytes(nodeIndex, code, 0);
+				out.write(code, 0, length);
+			}
+
+			byte[][] labelBytes = new byte[nodeCount][];
+			int linkCount = 0;
+			for (int nodeIndex = 0; nodeIndex < nodeCount; nodeIndex++) {
+				String label = knowledgeGraph.getLabel(nodeIndex);
+				labelBytes[nodeIndex] = label != null ? label.getBytes(StandardCharsets.UTF_8) : null;
+				linkCount += knowledgeGraph.getNode(nodeIndex).getParents().size();
+			}
+			writeStrings(out, labelBytes);
+
+			out.writeInt(linkCount);
+			for (int nodeIndex = 0; nodeIndex < nodeCount; nodeIndex++) {
+				for (Node parent : knowledgeGraph.getNode(nodeIndex).getParents()) {
+					out.writeInt(nodeIndex);
+					out.writeInt(parent.getIndex());
+				}
+			}
+			for (int depth : knowledgeGraph.getNodeDepths()) {
+				out.writeInt(depth);
+			}
+		} catch (IOException e) {
+			throw new RuntimeException("Failed to write knowledge graph snapshot.", e);
+		}
+		try {
+			Files.move(tempFile.toPath(), snapshot.toPath(), StandardCopyOption.REPLACE_EXISTING);
+		} catch (IOException e) {
+			throw new RuntimeException("Failed to write knowledge graph snapshot.", e);
+		}
+	}
+
+	/**
+	 * @return the knowledge graph, or null if the snapshot is from another version or the TSV files have changed since it was written
+	 */
+	public static GraphBuilder readSnapshot(File snapshot, File hierarchy, File labels) {
+		try (FileChannel channel = FileChannel.open(snapshot.toPath(), StandardOpenOption.READ)) {
+			MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+			if (buffer.getInt() != SNAPSHOT_MAGIC || buffer.getInt() != SNAPSHOT_VERSION
+					|| buffer.getLong() != hierarchy.length() || buffer.getLong() != hierarchy.lastModified()
+					|| buffer.getLong() != labels.length() || buffer.getLong() != labels.lastModified()) {
+				return null;
+			}
+
+			GraphBuilder graphBuilder = new GraphBuilder();
+			int nodeCount = buffer.getInt();
+			int[] codeLengths = readInts(buffer, nodeCount);
+			byte[] code = new byte[256];
+			for (int nodeIndex = 0; nodeIndex < nodeCount; nodeIndex++) {
+				if (code.length < codeLengths[nodeIndex]) {
+					code = new byte[codeLengths[nodeIndex]];
+				}
+				buffer.get(code, 0, codeLengths[nodeIndex]);
+				if (graphBuilder.getOrAddNodeIndex(code, 0, codeLengths[nodeIndex]) != nodeIndex) {
+					throw new IllegalStateException("Duplicate code in snapshot.");
+				}
+			}
+			int[] labelLengths = readInts(buffer, nodeCount);
+			byte[] label = new byte[256];
+			for (int nodeIndex = 0; nodeIndex < nodeCount; nodeIndex++) {
+				int length = labelLengths[nodeIndex];
+				if (length >= 0) {
+					if (label.length < length) {
+						label = new byte[length];
+					}
+					buffer.get(label, 0, length);
+					graphBuilder.setLabel(nodeIndex, new String(label, 0, length, StandardCharsets.UTF_8));
+				}
+			}
+
+			int linkCount = buffer.getInt();
+			int[] links = readInts(buffer, linkCount * 2);
+			for (int i = 0; i < links.length; i += 2) {
+				graphBuilder.addChildParentLink(links[i], links[i + 1]);
+			}
+			graphBuilder.setNodeDepths(readInts(buffer, nodeCount));
+			return graphBuilder;
+		} catch (IOException | RuntimeException e) {
+			System.err.printf("Failed to read knowledge graph snapshot %s: %s%n", snapshot, e.getMessage());
+			return null;
+		}
+	}
+
+	/**
+	 * Writes the length of every string, -1 for null, followed by the bytes of every string.
+	 */
+	private static void writeStrings(DataOutputStream out, byte[][] strings) throws IOException {
+		for (byte[] string : strings) {
+			out.writeInt(string != null ? string.length : -1);
+		}
+		for (byte[] string : strings) {
+			if (string != null) {
+				out.write(string);
+			}
+		}
+	}
+
+	private static int[] readInts(MappedByteBuffer buffer, int count) {
+		int[] ints = new int[count];
+		buffer.asIntBuffer().get(ints);
+		buffer.position(buffer.position() + count * Integer.BYTES);
+		return ints;
+	}
+}
@@ -0,0 +1,183 @@
+package io.kaicode.graphpattern;
+
+import io.kaicode.graphpattern.clustering.ClusterSelector;
+import io.kaicode.graphpattern.clustering.CohortCountMatrix;
+import io.kaicode.graphpattern.clustering.SubtreeAggregator;
+import io.kaicode.graphpattern.domain.AncestorIndex;
+import io.kaicode.graphpattern.domain.GraphBuilder;
+import io.kaicode.graphpattern.domain.Node;
+import io.kaicode.graphpattern.util.IdDictionary;
+import org.roaringbitmap.RoaringBitmap;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.stream.IntStream;
+
+import static java.lang.String.format;
+
+/**
+ * Batch mode, every cohort in the cohorts file is analysed against the rest of the instances.
+ * Counts for all cohorts come from one pass over the knowledge graph into a CohortCountMatrix, then clusters are selected for
+ * each cohort in parallel. The output of each cohort is written to its own directory under output.
+ */
+public class OneVsRestClustering {
+
+	private final int threads;
+	private final String knowledgeGraphSnapshot;
+
+	// path-to-knowledge-graph path-to-knowledge-graph-labels path-to-instance-data path-to-cohorts min-difference max-clusters
+	public static void main(String[] args) {
+		if (args.length < 6) {
+			System.out.println("Expecting 6 arguments: path-to-knowledge-graph path-to-knowledge-graph-labels path-to-instance-data path-to-cohorts " +
+					"min-difference max-clusters");
+			System.out.println("Options, after the arguments: --threads=N --snapshot=path-to-knowledge-graph-snapshot");
+			System.exit(1);
+		}
+		float minDiff = Float.parseFloat(args[4]);
+		int maxClusters = Integer.parseInt(args[5]);
+		Map<String, String> options = GraphClustering.readOptions(args, 6);
+		int threads = Integer.parseInt(options.getOrDefault("threads", "1"));
+		new OneVsRestClustering(threads, options.get("snapshot")).run(args[0], args[1], args[2], args[3], minDiff, maxClusters);
+	}
+
+	/**
+	 * @param threads number of threads used to score nodes and select clusters, 1 to use the calling thread
+	 * @param knowledgeGraphSnapshot path of a compiled knowledge graph snapshot to load from, or create, null to always load the TSV files
+	 */
+	public OneVsRestClustering(int threads, String knowledgeGraphSnapshot) {
+		this.threads = threads;
+		this.knowledgeGraphSnapshot = knowledgeGraphSnapshot;
+	}
+
+	private void run(String knowledgeGraphHierarchy, String knowledgeGraphLabels, String instanceData, String instanceCohorts, float minDiff, int maxClusters) {
+		System.out.println("< Graph Pattern Analysis, One vs Rest >");
+		System.out.println();
+
+		GraphBuilder knowledgeGraph = KnowledgeGraphLoader.load(new File(knowledgeGraphHierarchy), new File(knowledgeGraphLabels),
+				knowledgeGraphSnapshot != null ? new File(knowledgeGraphSnapshot) : null);
+		AncestorIndex ancestorIndex = new AncestorIndex(knowledgeGraph);
+		knowledgeGraph.getNodeDepths();// Calculated up front so that cohorts can be selected in parallel
+
+		IdDictionary instanceIds = new IdDictionary();
+		Map<String, RoaringBitmap> cohortInstanceMap = InstanceDataLoader.loadCohorts(new File(instanceCohorts), instanceIds);
+		List<String> cohorts = new ArrayList<>(cohortInstanceMap.keySet());
+		List<String> cohortDirNames = getCohortDirNames(cohorts);
+
+		// Loaded without a group B, so group A of each node holds all of its instances
+		RoaringBitmap allInstances = new RoaringBitmap();
+		RoaringBitmap allCodesUsed = new RoaringBitmap();
+		InstanceDataLoader.loadInstanceData(new File(instanceData), knowledgeGraph, instanceIds, new RoaringBitmap(), threads, allInstances, allCodesUsed);
+
+		ForkJoinPool pool = threads > 1 ? new ForkJoinPool(threads) : null;
+		String[] summaries = new String[cohorts.size()];
+		try {
+			CohortCountMatrix countMatrix = new CohortCountMatrix(knowledgeGraph, Node::getGroupAInstances, new ArrayList<>(cohortInstanceMap.values()),
+					allInstances, new SubtreeAggregator(pool));
+			System.out.printf("Counted %s cohorts over %s nodes%n", cohorts.size(), knowledgeGraph.getNodeCount());
+
+			File outputDir = new File("output");
+			IntStream cohortIndexes = IntStream.range(0, cohorts.size());
+			if (pool == null) {
+				cohortIndexes.forEach(cohort -> summaries[cohort] = analyseCohort(cohorts.get(cohort), cohort, countMatrix, knowledgeGraph, ancestorIndex,
+						allCodesUsed, minDiff, maxClusters, new File(outputDir, cohortDirNames.get(cohort))));
+			} else {
+				pool.submit(() -> cohortIndexes.parallel().forEach(cohort -> summaries[cohort] = analyseCohort(cohorts.get(cohort), cohort, countMatrix,
+						knowledgeGraph, ancestorIndex, allCodesUsed, minDiff, maxClusters, new File(outputDir, cohortDirNames.get(cohort))))).get();
+			}
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new RuntimeException("Interrupted during cohort analysis.", e);
+		} catch (ExecutionException e) {
+			throw new RuntimeException("Failed to analyse cohorts.", e.getCause());
+		} finally {
+			if (pool != null) {
+				pool.shutdown();
+			}
+		}
+
+		System.out.println();
+		for (String summary : summaries) {
+			System.out.println(summary);
+		}
+		System.out.println();
+		System.out.println("Process Complete");
+	}
+
+	/**
+	 * Output directory name of each cohort, in cohort order. Characters other than letters, digits, '.', '_' and '-' become '_'
+	 * and names of only dots have their dots replaced too, so every directory is within output. Names that would be the same,
+	 * ignoring case, are given a numeric suffix after the first.
+	 */
+	static List<String> getCohortDirNames(List<String> cohorts) {
+		List<String> dirNames = new ArrayList<>();
+		Set<String> usedNames = new HashSet<>();
+		for (String cohortName : cohorts) {
+			String dirName = cohortName.replaceAll("[^A-Za-z0-9._-]", "_");
+			if (dirName.isEmpty() || dirName.chars().allMatch(c -> c == '.')) {
+				dirName = "_" + dirName.replace('.', '_');
+			}
+			String uniqueName = dirName;
+			for (int suffix = 2; !usedNames.add(uniqueName.toLowerCase(Locale.ROOT)); suffix++) {
+				uniqueName = dirName + "-" + suffix;
+			}
+			dirNames.add(uniqueName);
+		}
+		return dirNames;
+	}
+
+	/**
+	 * Selects clusters for one cohort against the rest and writes them with the cluster map.
+	 * @param cohortDir directory to write the output of the cohort to
+	 * @return summary line for the cohort
+	 */
+	private String analyseCohort(String cohortName, int cohort, CohortCountMatrix countMatrix, GraphBuilder knowledgeGraph, AncestorIndex ancestorIndex,
+			RoaringBitmap allCodesUsed, float minDiff, int maxClusters, File cohortDir) {
+
+		int groupBSize = countMatrix.getCohortSize(cohort);
+		int groupASize = countMatrix.getInstanceCount() - groupBSize;
+		if (groupBSize == 0) {
+			return format("Cohort %s has no instance data, skipped", cohortName);
+		}
+		if (groupASize == 0) {
+			return format("Cohort %s contains every instance, skipped", cohortName);
+		}
+		float[] differences = countMatrix.getOneVsRestCounts(cohort).calculateDifferences(groupASize, groupBSize);
+		int[] chosenNodeIndexes = new ClusterSelector(knowledgeGraph, ancestorIndex).select(differences, maxClusters, minDiff);
+
+		// Same as GraphClustering, where the cohort is the groupB-indicator
+		List<Node> clusters = new ArrayList<>();
+		boolean[] chosenNodes = new boolean[knowledgeGraph.getNodeCount()];
+		for (int nodeIndex : chosenNodeIndexes) {
+			Node node = knowledgeGraph.getNode(nodeIndex);
+			if (!node.getCode().equals(cohortName)) {
+				clusters.add(node);
+				chosenNodes[nodeIndex] = true;
+			}
+		}
+
+		if (!cohortDir.isDirectory() && !cohortDir.mkdirs()) {
+			throw new RuntimeException(format("Failed to create output directory %s", cohortDir));
+		}
+		try (BufferedWriter clustersWriter = new BufferedWriter(new FileWriter(new File(cohortDir, "clusters.txt")));
+			 OutputStream clusterMapOut = new FileOutputStream(new File(cohortDir, "instance-code-cluster-map.txt"))) {
+			GraphClustering.writeClusters(clustersWriter, knowledgeGraph, clusters, differences, allCodesUsed);
+			// Cohorts are already written in parallel
+			new ClusterMapWriter(knowledgeGraph).write(clusterMapOut, allCodesUsed, chosenNodes, null);
+		} catch (IOException e) {
+			throw new RuntimeException(format("Failed to write output files for cohort %s.", cohortName), e);
+		}
+		return format("Cohort %s: %s of %s instances, %s clusters written to %s", cohortName, groupBSize, countMatrix.getInstanceCount(), clusters.size(), cohortDir);
+	}
+}
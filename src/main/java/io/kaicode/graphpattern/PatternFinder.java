@@ -1,39 +1,117 @@
 package io.kaicode.graphpattern;
 
 import io.kaicode.graphpattern.domain.*;
+import org.roaringbitmap.RoaringBitmap;
 
 import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
 import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
 import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+import java.util.stream.Stream;
 
 public class PatternFinder {
 
 	public static final Comparator<Pattern> PATTERN_COMPARATOR = Comparator.comparing(Pattern::getCoverageTimesAccuracy).reversed();
 	private final Graph knowledgeGraph;
+	private final int threads;
+	// Dense id of each node seen in a pattern, patterns are keyed by their sorted node ids
+	private final Map<Node, Integer> nodeIds = new ConcurrentHashMap<>();
+	private final AtomicInteger nextNodeId = new AtomicInteger();
 	private boolean debug = false;
 
 	public PatternFinder(Graph knowledgeGraph) {
+		this(knowledgeGraph, 1);
+	}
+
+	/**
+	 * @param threads number of threads used to count patterns, 1 to use the calling thread
+	 */
+	public PatternFinder(Graph knowledgeGraph, int threads) {
 		this.knowledgeGraph = knowledgeGraph;
+		this.threads = threads;
 	}
 
-	private Map<Integer, Pattern> collectRawPatternsWithCounts(List<Graph> groupGraphs) {
-		Map<Integer, Pattern> rawPatterns = new HashMap<>();
-		for (Graph groupGraph : groupGraphs) {
-			Pattern pattern = new Pattern(groupGraph.getLinks());
-			rawPatterns.computeIfAbsent(pattern.hashCode(), (i) -> pattern).incrementCount();
+	/**
+	 * @param groupLinks links of each instance of the group
+	 */
+	private Map<Pattern, Pattern> collectRawPatternsWithCounts(Stream<Set<Node>> groupLinks) {
+		Map<Pattern, LongAdder> patternCounts = new ConcurrentHashMap<>();
+		if (threads <= 1) {
+			groupLinks.forEach(links -> countPattern(links, patternCounts));
+		} else {
+			ForkJoinPool pool = new ForkJoinPool(threads);
+			try {
+				pool.submit(() -> groupLinks.parallel().forEach(links -> countPattern(links, patternCounts))).get();
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				throw new RuntimeException("Interrupted while counting patterns.", e);
+			} catch (ExecutionException e) {
+				throw new RuntimeException("Failed to count patterns.", e.getCause());
+			} finally {
+				pool.shutdown();
+			}
 		}
+		Map<Pattern, Pattern> rawPatterns = new HashMap<>();
+		patternCounts.forEach((pattern, count) -> {
+			pattern.setCount(count.intValue());
+			rawPatterns.put(pattern, pattern);
+		});
 		return rawPatterns;
 	}
 
+	private void countPattern(Set<Node> links, Map<Pattern, LongAdder> patternCounts) {
+		int[] linkIds = new int[links.size()];
+		int i = 0;
+		for (Node link : links) {
+			linkIds[i++] = nodeIds.computeIfAbsent(link, node -> nextNodeId.getAndIncrement());
+		}
+		Arrays.sort(linkIds);
+		patternCounts.computeIfAbsent(new Pattern(links, linkIds), pattern -> new LongAdder()).increment();
+	}
+
 	public PatternSets differentiateGroupB(List<Graph> groupAGraphs, List<Graph> groupBGraphs) {
 		System.out.println("Differentiating groups...");
-		Map<Integer, Pattern> groupBPatterns = collectRawPatternsWithCounts(groupBGraphs);
-		Map<Integer, Pattern> groupAPatterns = collectRawPatternsWithCounts(groupAGraphs);
+		Map<Pattern, Pattern> groupBPatterns = collectRawPatternsWithCounts(groupBGraphs.stream().map(Graph::getLinks));
+		Map<Pattern, Pattern> groupAPatterns = collectRawPatternsWithCounts(groupAGraphs.stream().map(Graph::getLinks));
+		return differentiateGroupB(groupAPatterns, groupBPatterns, groupBGraphs.size());
+	}
+
+	/**
+	 * Same as differentiating instance graphs, the links of each instance are its codes read straight from the matrix
+	 * so instances are only on the heap while their pattern is counted.
+	 * @param knowledgeGraph graph the node indexes of the matrix belong to
+	 * @param groupB instances of group B, every other instance with codes is in group A
+	 */
+	public PatternSets differentiateGroupB(InstanceCodeMatrix matrix, GraphBuilder knowledgeGraph, RoaringBitmap groupB) {
+		System.out.println("Differentiating groups...");
+		RoaringBitmap instances = matrix.getInstances();
+		RoaringBitmap groupBInstances = RoaringBitmap.and(instances, groupB);
+		Map<Pattern, Pattern> groupBPatterns = collectRawPatternsWithCounts(getLinks(matrix, knowledgeGraph, groupBInstances));
+		Map<Pattern, Pattern> groupAPatterns = collectRawPatternsWithCounts(getLinks(matrix, knowledgeGraph, RoaringBitmap.andNot(instances, groupB)));
+		return differentiateGroupB(groupAPatterns, groupBPatterns, groupBInstances.getCardinality());
+	}
 
+	private Stream<Set<Node>> getLinks(InstanceCodeMatrix matrix, GraphBuilder knowledgeGraph, RoaringBitmap group) {
+		return IntStream.range(0, matrix.getInstanceCount()).filter(group::contains).mapToObj(instance -> {
+			long from = matrix.getFirstPosition(instance);
+			long to = matrix.getFirstPosition(instance + 1);
+			Set<Node> links = new HashSet<>();
+			for (long position = from; position < to; position++) {
+				links.add(knowledgeGraph.getNode(matrix.getNodeIndex(position)));
+			}
+			return links;
+		});
+	}
+
+	private PatternSets differentiateGroupB(Map<Pattern, Pattern> groupAPatterns, Map<Pattern, Pattern> groupBPatterns, int groupBSize) {
 		for (Pattern groupBPattern : groupBPatterns.values()) {
-			Pattern matchingGroupAPattern = groupAPatterns.get(groupBPattern.hashCode());
+			Pattern matchingGroupAPattern = groupAPatterns.get(groupBPattern);
 			int aCount = matchingGroupAPattern != null ? matchingGroupAPattern.getCount() : 0;
-			groupBPattern.setCoverage(groupBPattern.getCount() / (float) groupBGraphs.size());
+			groupBPattern.setCoverage(groupBPattern.getCount() / (float) groupBSize);
 			groupBPattern.setAccuracy(groupBPattern.getCount() / (float) (aCount + groupBPattern.getCount()));
 		}
 
@@ -49,13 +127,23 @@ public class PatternFinder {
 
 		System.out.println();
 		System.out.println("Merging groups");
-		Set<Pattern> mergedPatterns = new HashSet<>();
-		for (Pattern pattern : groupBPatterns.stream().sorted(Comparator.comparing(p -> p.getNodes().size() * -1)).collect(Collectors.toList())) {
-			if (pattern.getAccuracy() == 1f && !mergedPatterns.contains(pattern)) {
-				for (Pattern otherPattern : groupBPatterns) {
-
-					if (!otherPattern.equals(pattern) && otherPattern.getAccuracy() == 1f && !mergedPatterns.contains(otherPattern)
-							&& pattern.getAllNodes().containsAll(otherPattern.getAllNodes())) {
+		// Only patterns with full accuracy take part, the index finds the ones a pattern contains without comparing every pair
+		RoaringBitmap accuratePatterns = new RoaringBitmap();
+		for (int position = 0; position < groupBPatterns.size(); position++) {
+			if (groupBPatterns.get(position).getAccuracy() == 1f) {
+				accuratePatterns.add(position);
+			}
+		}
+		PatternSubsetIndex subsetIndex = new PatternSubsetIndex(groupBPatterns, accuratePatterns);
+		boolean[] merged = new boolean[groupBPatterns.size()];
+		List<Integer> largestFirst = IntStream.range(0, groupBPatterns.size()).boxed()
+				.sorted(Comparator.comparing(position -> groupBPatterns.get(position).getNodes().size() * -1)).collect(Collectors.toList());
+		for (int position : largestFirst) {
+			Pattern pattern = groupBPatterns.get(position);
+			if (pattern.getAccuracy() == 1f && !merged[position]) {
+				for (int otherPosition : subsetIndex.getSubsets(pattern.getNodeIds())) {
+					Pattern otherPattern = groupBPatterns.get(otherPosition);
+					if (otherPosition != position && !merged[otherPosition]) {
 
 						if (debug) System.out.println(pattern.hashCode() + " takes " + otherPattern.hashCode());
 
@@ -74,12 +162,19 @@ public class PatternFinder {
 						pattern.subsume(otherPattern);
 						if (debug) System.out.println("Coverage now " + pattern.getCoverage());
 						if (debug) System.out.println();
-						mergedPatterns.add(otherPattern);
+						merged[otherPosition] = true;
 					}
 				}
 			}
 		}
-		groupBPatterns.removeAll(mergedPatterns);
+		List<Pattern> remainingPatterns = new ArrayList<>();
+		for (int position = 0; position < groupBPatterns.size(); position++) {
+			if (!merged[position]) {
+				remainingPatterns.add(groupBPatterns.get(position));
+			}
+		}
+		groupBPatterns.clear();
+		groupBPatterns.addAll(remainingPatterns);
 		groupBPatterns.sort(PATTERN_COMPARATOR);
 		return groupBPatterns;
 	}
@@ -0,0 +1,143 @@
+package io.kaicode.graphpattern;
+
+import io.kaicode.graphpattern.clustering.ClusterSelector;
+import io.kaicode.graphpattern.clustering.WindowedSubtreeCounts;
+import io.kaicode.graphpattern.domain.AncestorIndex;
+import io.kaicode.graphpattern.domain.GraphBuilder;
+import io.kaicode.graphpattern.domain.Node;
+import io.kaicode.graphpattern.domain.TimedInstanceStore;
+import io.kaicode.graphpattern.util.IdDictionary;
+import org.roaringbitmap.RoaringBitmap;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+import static java.lang.String.format;
+
+/**
+ * Time window mode, group B is analysed against the rest using only the rows within a range of years.
+ * The range can slide through the years, each window is counted from the previous one by adding the years that enter and removing
+ * the years that leave. The output of each window is written to its own directory under output.
+ */
+public class TimeWindowClustering {
+
+	private final String knowledgeGraphSnapshot;
+
+	// path-to-knowledge-graph path-to-knowledge-graph-labels path-to-instance-data path-to-cohorts groupB-indicator min-difference max-clusters
+	public static void main(String[] args) {
+		if (args.length < 7) {
+			System.out.println("Expecting 7 arguments: path-to-knowledge-graph path-to-knowledge-graph-labels path-to-instance-data path-to-cohorts groupB-indicator " +
+					"min-difference max-clusters");
+			System.out.println("Options, after the arguments: --from=first-year --to=last-year --window=years --step=years " +
+					"--snapshot=path-to-knowledge-graph-snapshot");
+			System.out.println("Without --window the range from first to last year is analysed as one window");
+			System.exit(1);
+		}
+		float minDiff = Float.parseFloat(args[5]);
+		int maxClusters = Integer.parseInt(args[6]);
+		Map<String, String> options = GraphClustering.readOptions(args, 7);
+		new TimeWindowClustering(options.get("snapshot")).run(args[0], args[1], args[2], args[3], args[4], minDiff, maxClusters,
+				options.get("from"), options.get("to"), options.get("window"), Integer.parseInt(options.getOrDefault("step", "1")));
+	}
+
+	/**
+	 * @param knowledgeGraphSnapshot path of a compiled knowledge graph snapshot to load from, or create, null to always load the TSV files
+	 */
+	public TimeWindowClustering(String knowledgeGraphSnapshot) {
+		this.knowledgeGraphSnapshot = knowledgeGraphSnapshot;
+	}
+
+	private void run(String knowledgeGraphHierarchy, String knowledgeGraphLabels, String instanceData, String instanceCohorts, String groupBIndicator,
+			float minDiff, int maxClusters, String from, String to, String window, int step) {
+
+		System.out.println("< Graph Pattern Analysis, Time Windows >");
+		System.out.println();
+
+		GraphBuilder knowledgeGraph = KnowledgeGraphLoader.load(new File(knowledgeGraphHierarchy), new File(knowledgeGraphLabels),
+				knowledgeGraphSnapshot != null ? new File(knowledgeGraphSnapshot) : null);
+		AncestorIndex ancestorIndex = new AncestorIndex(knowledgeGraph);
+
+		IdDictionary instanceIds = new IdDictionary();
+		Map<String, RoaringBitmap> cohortInstanceMap = InstanceDataLoader.loadCohorts(new File(instanceCohorts), instanceIds);
+		RoaringBitmap groupBCohort = cohortInstanceMap.get(groupBIndicator);
+		if (groupBCohort == null) {
+			throw new RuntimeException("GroupB indicator is not present in the cohorts file");
+		}
+		TimedInstanceStore store = TimedInstanceStore.load(new File(instanceData), knowledgeGraph, instanceIds);
+		int[] years = store.getYears();
+		if (years.length == 0) {
+			throw new RuntimeException("Instance data has no rows with a year");
+		}
+		int firstYear = from != null ? Integer.parseInt(from) : years[0];
+		int lastYear = to != null ? Integer.parseInt(to) : years[years.length - 1];
+		int windowYears = window != null ? Integer.parseInt(window) : lastYear - firstYear + 1;
+		System.out.printf("Loaded %s rows from %s to %s%n", store.getRowCount(), years[0], years[years.length - 1]);
+
+		WindowedSubtreeCounts windowedCounts = new WindowedSubtreeCounts(store, ancestorIndex, groupBCohort);
+		ClusterSelector clusterSelector = new ClusterSelector(knowledgeGraph, ancestorIndex);
+		ClusterMapWriter clusterMapWriter = new ClusterMapWriter(knowledgeGraph);
+		File outputDir = new File("output");
+		List<String> summaries = new ArrayList<>();
+		for (int windowStart = firstYear; windowStart + windowYears - 1 <= lastYear; windowStart += Math.max(1, step)) {
+			int windowEnd = windowStart + windowYears - 1;
+			windowedCounts.setWindow(windowStart, windowEnd);
+			summaries.add(analyseWindow(windowedCounts, clusterSelector, clusterMapWriter, knowledgeGraph, groupBIndicator, minDiff, maxClusters, outputDir));
+		}
+
+		System.out.println();
+		for (String summary : summaries) {
+			System.out.println(summary);
+		}
+		System.out.println();
+		System.out.println("Process Complete");
+	}
+
+	/**
+	 * Selects clusters for the current window and writes them with the cluster map.
+	 * @return summary line for the window
+	 */
+	private String analyseWindow(WindowedSubtreeCounts windowedCounts, ClusterSelector clusterSelector, ClusterMapWriter clusterMapWriter,
+			GraphBuilder knowledgeGraph, String groupBIndicator, float minDiff, int maxClusters, File outputDir) {
+
+		String windowName = format("%s-%s", windowedCounts.getFromYear(), windowedCounts.getToYear());
+		int groupASize = windowedCounts.getGroupASize();
+		int groupBSize = windowedCounts.getGroupBSize();
+		if (groupASize == 0 || groupBSize == 0) {
+			return format("Window %s has %s group A and %s group B instances, skipped", windowName, groupASize, groupBSize);
+		}
+		float[] differences = windowedCounts.getDifferences();
+		RoaringBitmap codesUsed = windowedCounts.getCodesUsed();
+
+		// Same as GraphClustering, the groupB-indicator is not a cluster
+		List<Node> clusters = new ArrayList<>();
+		boolean[] chosenNodes = new boolean[knowledgeGraph.getNodeCount()];
+		for (int nodeIndex : clusterSelector.select(differences, maxClusters, minDiff)) {
+			Node node = knowledgeGraph.getNode(nodeIndex);
+			if (!node.getCode().equals(groupBIndicator)) {
+				clusters.add(node);
+				chosenNodes[nodeIndex] = true;
+			}
+		}
+
+		File windowDir = new File(outputDir, windowName);
+		if (!windowDir.isDirectory() && !windowDir.mkdirs()) {
+			throw new RuntimeException(format("Failed to create output directory %s", windowDir));
+		}
+		try (BufferedWriter clustersWriter = new BufferedWriter(new FileWriter(new File(windowDir, "clusters.txt")));
+			 OutputStream clusterMapOut = new FileOutputStream(new File(windowDir, "instance-code-cluster-map.txt"))) {
+			GraphClustering.writeClusters(clustersWriter, knowledgeGraph, clusters, differences, codesUsed);
+			clusterMapWriter.write(clusterMapOut, codesUsed, chosenNodes, null);
+		} catch (IOException e) {
+			throw new RuntimeException(format("Failed to write output files for window %s.", windowName), e);
+		}
+		return format("Window %s: %s group B of %s instances, %s clusters written to %s", windowName, groupBSize, groupASize + groupBSize, clusters.size(),
+				windowDir);
+	}
+}
@@ -0,0 +1,149 @@
+package io.kaicode.graphpattern.clustering;
+
+import io.kaicode.graphpattern.domain.AncestorIndex;
+import io.kaicode.graphpattern.domain.GraphBuilder;
+import org.roaringbitmap.RoaringBitmap;
+import org.roaringbitmap.RoaringBitmapWriter;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.SplittableRandom;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.stream.IntStream;
+
+/**
+ * How often each node is chosen as a cluster when the instances are resampled.
+ * Each replicate draws group A and group B with replacement, keeping their sizes, then scores every node and runs the greedy
+ * selection again. An instance drawn k times is held in the first k of a set of bitmaps, so the resampled count of a node is the sum of
+ * a few andCardinality calls against its subtree, without building weighted counts.
+ * <p>
+ * The knowledge graph and subtree index are shared by every thread. Each chunk of replicates keeps its own count buffers and selector.
+ * The random numbers of each replicate come from the seed and the replicate number alone, so results are the same for any number of threads,
+ * as long as the instance ids are too, which InstanceDataLoader gives in file order for any number of threads.
+ */
+public class BootstrapStability {
+
+	private final SubtreeInstanceIndex subtreeInstanceIndex;
+	private final GraphBuilder knowledgeGraph;
+	private final AncestorIndex ancestorIndex;
+	private final int replicates;
+	private final long seed;
+
+	public BootstrapStability(SubtreeInstanceIndex subtreeInstanceIndex, GraphBuilder knowledgeGraph, AncestorIndex ancestorIndex, int replicates, long seed) {
+		this.subtreeInstanceIndex = subtreeInstanceIndex;
+		this.knowledgeGraph = knowledgeGraph;
+		this.ancestorIndex = ancestorIndex;
+		this.replicates = replicates;
+		this.seed = seed;
+		knowledgeGraph.getNodeDepths();// Calculated up front so that replicates only read them
+	}
+
+	/**
+	 * @param groupB instances of group B, group A is every other instance with instance data
+	 * @param pool pool to run replicates in parallel, or null to run them on the calling thread
+	 * @return fraction of replicates that chose each node, indexed by node index
+	 */
+	public float[] getSelectionFrequencies(RoaringBitmap groupB, int maxClusters, float minDiff, ForkJoinPool pool) {
+		RoaringBitmap allInstances = subtreeInstanceIndex.getAllInstances();
+		int[] groupBInstances = RoaringBitmap.and(groupB, allInstances).toArray();
+		int[] groupAInstances = RoaringBitmap.andNot(allInstances, groupB).toArray();
+
+		int[] selectedCounts;
+		if (pool == null) {
+			selectedCounts = runReplicates(0, replicates, groupAInstances, groupBInstances, maxClusters, minDiff);
+		} else {
+			int chunkCount = Math.min(replicates, pool.getParallelism() * 4);
+			try {
+				selectedCounts = pool.submit(() -> IntStream.range(0, chunkCount).parallel()
+						.mapToObj(chunk -> runReplicates(chunk * replicates / chunkCount, (chunk + 1) * replicates / chunkCount, groupAInstances,
+								groupBInstances, maxClusters, minDiff))
+						.reduce((counts, otherCounts) -> {
+							for (int i = 0; i < counts.length; i++) {
+								counts[i] += otherCounts[i];
+							}
+							return counts;
+						}).orElseGet(() -> new int[subtreeInstanceIndex.getNodeCount()])).get();
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				throw new RuntimeException("Interrupted during bootstrap.", e);
+			} catch (ExecutionException e) {
+				throw new RuntimeException("Failed to run bootstrap.", e.getCause());
+			}
+		}
+
+		float[] frequencies = new float[selectedCounts.length];
+		for (int nodeIndex = 0; nodeIndex < frequencies.length; nodeIndex++) {
+			frequencies[nodeIndex] = selectedCounts[nodeIndex] / (float) replicates;
+		}
+		return frequencies;
+	}
+
+	/**
+	 * @return number of replicates in the range that chose each node
+	 */
+	private int[] runReplicates(int from, int to, int[] groupAInstances, int[] groupBInstances, int maxClusters, float minDiff) {
+		int nodeCount = subtreeInstanceIndex.getNodeCount();
+		int[] selectedCounts = new int[nodeCount];
+		int[] groupACounts = new int[nodeCount];
+		int[] groupBCounts = new int[nodeCount];
+		float[] differences = new float[nodeCount];
+		int[] multiplicities = new int[Math.max(groupAInstances.length, groupBInstances.length)];
+		SubtreeCounts subtreeCounts = new SubtreeCounts(groupACounts, groupBCounts);
+		ClusterSelector clusterSelector = new ClusterSelector(knowledgeGraph, ancestorIndex);
+		for (int replicate = from; replicate < to; replicate++) {
+			SplittableRandom random = new SplittableRandom(seed ^ (replicate * 0x9E3779B97F4A7C15L));
+			List<RoaringBitmap> groupALevels = resample(groupAInstances, random, multiplicities);
+			List<RoaringBitmap> groupBLevels = resample(groupBInstances, random, multiplicities);
+			for (int nodeIndex = 0; nodeIndex < nodeCount; nodeIndex++) {
+				RoaringBitmap subtree = subtreeInstanceIndex.getSubtreeInstances(nodeIndex);
+				groupACounts[nodeIndex] = count(subtree, groupALevels);
+				groupBCounts[nodeIndex] = count(subtree, groupBLevels);
+			}
+			subtreeCounts.calculateDifferences(groupAInstances.length, groupBInstances.length, differences);
+			for (int nodeIndex : clusterSelector.select(differences, maxClusters, minDiff)) {
+				selectedCounts[nodeIndex]++;
+			}
+		}
+		return selectedCounts;
+	}
+
+	/**
+	 * Draws as many instances as the group has, with replacement.
+	 * @return bitmaps where the kth holds the instances drawn at least k times
+	 */
+	private static List<RoaringBitmap> resample(int[] groupInstances, SplittableRandom random, int[] multiplicities) {
+		int size = groupInstances.length;
+		Arrays.fill(multiplicities, 0, size, 0);
+		for (int i = 0; i < size; i++) {
+			multiplicities[random.nextInt(size)]++;
+		}
+		// Instances are sorted, so each level is written in order
+		List<RoaringBitmapWriter<RoaringBitmap>> writers = new ArrayList<>();
+		for (int i = 0; i < size; i++) {
+			for (int level = 0; level < multiplicities[i]; level++) {
+				if (level == writers.size()) {
+					writers.add(RoaringBitmapWriter.writer().get());
+				}
+				writers.get(level).add(groupInstances[i]);
+			}
+		}
+		List<RoaringBitmap> levels = new ArrayList<>(writers.size());
+		for (RoaringBitmapWriter<RoaringBitmap> writer : writers) {
+			levels.add(writer.get());
+		}
+		return levels;
+	}
+
+	private static int count(RoaringBitmap subtree, List<RoaringBitmap> levels) {
+		if (subtree.isEmpty()) {
+			return 0;
+		}
+		int count = 0;
+		for (RoaringBitmap level : levels) {
+			count += RoaringBitmap.andCardinality(subtree, level);
+		}
+		return count;
+	}
+}
@@ -0,0 +1,200 @@
+package io.kaicode.graphpattern.clustering;
+
+import io.kaicode.graphpattern.domain.AncestorIndex;
+import io.kaicode.graphpattern.domain.GraphBuilder;
+import io.kaicode.graphpattern.domain.Node;
+
+import java.util.Arrays;
+
+/**
+ * Greedy selection of the most differentiating nodes.
+ * The node with the highest difference is taken first, the deeper node wins a tie. Once a node is chosen the difference
+ * of its descendants, and of their ancestors, is cleared and nodes that subsume or are subsumed by a chosen node are skipped.
+ * <p>
+ * Candidates are held in a binary heap with lazy invalidation. Clearing a positive difference does not touch the heap,
+ * the stale entry is detected when it reaches the top and is re-queued with its current difference. Clearing a negative
+ * difference raises it so a new entry is queued straight away and the old one is dropped when it surfaces.
+ */
+public class ClusterSelector {
+
+	private final GraphBuilder knowledgeGraph;
+	private final AncestorIndex ancestorIndex;
+	private final int[] depths;
+	private long candidatesEvaluated;
+
+	public ClusterSelector(GraphBuilder knowledgeGraph, AncestorIndex ancestorIndex) {
+		this.knowledgeGraph = knowledgeGraph;
+		this.ancestorIndex = ancestorIndex;
+		this.depths = knowledgeGraph.getNodeDepths();
+	}
+
+	/**
+	 * @param differences difference of each node by node index, Float.NaN for nodes that are not candidates. Not modified.
+	 * @return chosen node indexes in the order they were chosen
+	 */
+	public int[] select(float[] differences, int maxClusters, float minDiff) {
+		float[] scores = differences.clone();
+		ScoreHeap heap = new ScoreHeap(scores.length);
+		for (int nodeIndex = 0; nodeIndex < scores.length; nodeIndex++) {
+			if (!Float.isNaN(scores[nodeIndex])) {
+				heap.push(nodeIndex, scores[nodeIndex]);
+			}
+		}
+
+		boolean[] subsumed = new boolean[scores.length];
+		boolean[] descendantsCleared = new boolean[scores.length];
+		int[] chosen = new int[Math.min(maxClusters, heap.size())];
+		int chosenCount = 0;
+		while (chosenCount < chosen.length && !heap.isEmpty()) {
+			int nodeIndex = heap.peekNode();
+			float queuedScore = heap.peekScore();
+			heap.pop();
+			candidatesEvaluated++;
+			if (queuedScore != scores[nodeIndex]) {
+				// Cleared since it was queued
+				if (queuedScore > scores[nodeIndex]) {
+					heap.push(nodeIndex, scores[nodeIndex]);
+				}
+				continue;
+			}
+			if (queuedScore < minDiff) {
+				break;
+			}
+			if (!subsumed[nodeIndex]) {
+				chosen[chosenCount++] = nodeIndex;
+				for (int i = 0; i < ancestorIndex.getAncestorCount(nodeIndex); i++) {
+					subsumed[ancestorIndex.getAncestor(nodeIndex, i)] = true;
+				}
+				clearDescendants(nodeIndex, scores, subsumed, descendantsCleared, heap);
+			}
+		}
+		return Arrays.copyOf(chosen, chosenCount);
+	}
+
+	/**
+	 * @return number of candidates taken from the queue by every select call on this selector
+	 */
+	public long getCandidatesEvaluated() {
+		return candidatesEvaluated;
+	}
+
+	private void clearDescendants(int nodeIndex, float[] scores, boolean[] subsumed, boolean[] descendantsCleared, ScoreHeap heap) {
+		int[] stack = new int[16];
+		int stackSize = 0;
+		stack[stackSize++] = nodeIndex;
+		descendantsCleared[nodeIndex] = true;
+		while (stackSize > 0) {
+			int descendant = stack[--stackSize];
+			subsumed[descendant] = true;
+			clear(descendant, scores, heap);
+			for (int i = 0; i < ancestorIndex.getAncestorCount(descendant); i++) {
+				clear(ancestorIndex.getAncestor(descendant, i), scores, heap);
+			}
+			for (Node child : knowledgeGraph.getNode(descendant).getChildren()) {
+				int childIndex = child.getIndex();
+				// Descendants of a node that has already been cleared are already cleared
+				if (!descendantsCleared[childIndex]) {
+					descendantsCleared[childIndex] = true;
+					if (stackSize == stack.length) {
+						stack = Arrays.copyOf(stack, stackSize * 2);
+					}
+					stack[stackSize++] = childIndex;
+				}
+			}
+		}
+	}
+
+	private static void clear(int nodeIndex, float[] scores, ScoreHeap heap) {
+		float score = scores[nodeIndex];
+		if (!Float.isNaN(score) && score != 0) {
+			scores[nodeIndex] = 0;
+			if (score < 0) {
+				heap.push(nodeIndex, 0);
+			}
+		}
+	}
+
+	/**
+	 * Binary max-heap of node indexes keyed by score, then depth, then lowest node index for a stable order.
+	 */
+	private class ScoreHeap {
+
+		private int[] nodes;
+		private float[] scores;
+		private int size;
+
+		ScoreHeap(int initialCapacity) {
+			nodes = new int[Math.max(initialCapacity, 1)];
+			scores = new float[nodes.length];
+		}
+
+		void push(int nodeIndex, float score) {
+			if (size == nodes.length) {
+				nodes = Arrays.copyOf(nodes, size * 2);
+				scores = Arrays.copyOf(scores, size * 2);
+			}
+			int position = size++;
+			while (position > 0) {
+				int parent = (position - 1) >>> 1;
+				if (!before(nodeIndex, score, nodes[parent], scores[parent])) {
+					break;
+				}
+				nodes[position] = nodes[parent];
+				scores[position] = scores[parent];
+				position = parent;
+			}
+			nodes[position] = nodeIndex;
+			scores[position] = score;
+		}
+
+		int peekNode() {
+			return nodes[0];
+		}
+
+		float peekScore() {
+			return scores[0];
+		}
+
+		void pop() {
+			size--;
+			int nodeIndex = nodes[size];
+			float score = scores[size];
+			int position = 0;
+			while (true) {
+				int child = position * 2 + 1;
+				if (child >= size) {
+					break;
+				}
+				if (child + 1 < size && before(nodes[child + 1], scores[child + 1], nodes[child], scores[child])) {
+					child++;
+				}
+				if (!before(nodes[child], scores[child], nodeIndex, score)) {
+					break;
+				}
+				nodes[position] = nodes[child];
+				scores[position] = scores[child];
+				position = child;
+			}
+			nodes[position] = nodeIndex;
+			scores[position] = score;
+		}
+
+		int size() {
+			return size;
+		}
+
+		boolean isEmpty() {
+			return size == 0;
+		}
+
+		private boolean before(int nodeA, float scoreA, int nodeB, float scoreB) {
+			if (scoreA != scoreB) {
+				return scoreA > scoreB;
+			}
+			if (depths[nodeA] != depths[nodeB]) {
+				return depths[nodeA] > depths[nodeB];
+			}
+			return nodeA < nodeB;
+		}
+	}
+}
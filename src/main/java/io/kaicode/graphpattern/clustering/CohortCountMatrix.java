@@ -0,0 +1,93 @@
+package io.kaicode.graphpattern.clustering;
+
+import io.kaicode.graphpattern.domain.GraphBuilder;
+import io.kaicode.graphpattern.domain.Node;
+import org.roaringbitmap.RoaringBitmap;
+
+import java.util.List;
+import java.util.function.Function;
+
+import static java.lang.String.format;
+
+/**
+ * Distinct instance counts of every cohort in the subtree of every node, held as a node × cohort matrix.
+ * Filled in a single bottom-up pass over the knowledge graph, each subtree is intersected with every cohort while it is in hand.
+ * Any cohort can then be scored against the rest of the instances without another pass.
+ */
+public class CohortCountMatrix {
+
+	private final int cohortCount;
+	// Node major, the counts of one node are next to each other
+	private final int[] counts;
+	private final int[] subtreeSizes;
+	private final int[] cohortSizes;
+	private final int instanceCount;
+
+	/**
+	 * @param membership instances of each node, every instance regardless of cohort
+	 * @param cohorts instances of each cohort
+	 * @param allInstances every instance with instance data
+	 */
+	public CohortCountMatrix(GraphBuilder knowledgeGraph, Function<Node, RoaringBitmap> membership, List<RoaringBitmap> cohorts, RoaringBitmap allInstances,
+			SubtreeAggregator aggregator) {
+
+		int nodeCount = knowledgeGraph.getNodeCount();
+		cohortCount = cohorts.size();
+		if ((long) nodeCount * cohortCount > Integer.MAX_VALUE) {
+			throw new IllegalArgumentException(format("Too many cohorts for one count matrix, %s nodes × %s cohorts.", nodeCount, cohortCount));
+		}
+		instanceCount = allInstances.getCardinality();
+		cohortSizes = new int[cohortCount];
+		for (int cohort = 0; cohort < cohortCount; cohort++) {
+			cohortSizes[cohort] = RoaringBitmap.andCardinality(cohorts.get(cohort), allInstances);
+		}
+
+		RoaringBitmap[] cohortBitmaps = cohorts.toArray(new RoaringBitmap[0]);
+		counts = new int[nodeCount * cohortCount];
+		subtreeSizes = new int[nodeCount];
+		aggregator.aggregate(knowledgeGraph, membership, (nodeIndex, subtreeInstances) -> {
+			int subtreeSize = subtreeInstances.getCardinality();
+			subtreeSizes[nodeIndex] = subtreeSize;
+			if (subtreeSize > 0) {
+				int row = nodeIndex * cohortCount;
+				for (int cohort = 0; cohort < cohortCount; cohort++) {
+					counts[row + cohort] = RoaringBitmap.andCardinality(subtreeInstances, cohortBitmaps[cohort]);
+				}
+			}
+		});
+	}
+
+	public int getCount(int nodeIndex, int cohort) {
+		return counts[nodeIndex * cohortCount + cohort];
+	}
+
+	public int getCohortCount() {
+		return cohortCount;
+	}
+
+	/**
+	 * @return number of instances of the cohort that have instance data
+	 */
+	public int getCohortSize(int cohort) {
+		return cohortSizes[cohort];
+	}
+
+	public int getInstanceCount() {
+		return instanceCount;
+	}
+
+	/**
+	 * @return counts with the cohort as group B and every other instance as group A
+	 */
+	public SubtreeCounts getOneVsRestCounts(int cohort) {
+		int nodeCount = subtreeSizes.length;
+		int[] groupACounts = new int[nodeCount];
+		int[] groupBCounts = new int[nodeCount];
+		for (int nodeIndex = 0; nodeIndex < nodeCount; nodeIndex++) {
+			int groupBCount = counts[nodeIndex * cohortCount + cohort];
+			groupBCounts[nodeIndex] = groupBCount;
+			groupACounts[nodeIndex] = subtreeSizes[nodeIndex] - groupBCount;
+		}
+		return new SubtreeCounts(groupACounts, groupBCounts);
+	}
+}
@@ -0,0 +1,182 @@
+package io.kaicode.graphpattern.clustering;
+
+import org.roaringbitmap.IntIterator;
+import org.roaringbitmap.RoaringBitmap;
+
+import java.io.*;
+import java.nio.IntBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.function.Supplier;
+
+import static java.lang.String.format;
+
+/**
+ * Cohort scores kept for reuse, keyed by the version of the input data and a hash of the group B membership.
+ * Each entry also keeps the group B it was computed for, compared on every hit, so a hash collision is a miss rather than the scores of another cohort.
+ * Held in memory with least recently used eviction once the entry limit is reached, and optionally written to a directory
+ * so that they outlive the process. Entries on disk are read back when not in memory.
+ * <p>
+ * Safe for concurrent use. Two threads that miss on the same key at once will both compute the scores.
+ */
+public class CohortScoreCache {
+
+	private static final int FILE_MAGIC = 0x47505343;// GPSC
+	private static final int FILE_VERSION = 2;
+
+	private final Map<String, Entry> entries;
+	private final File directory;
+
+	/**
+	 * @param maxEntries number of entries held in memory
+	 * @param directory directory for the disk tier, or null to only hold entries in memory
+	 */
+	public CohortScoreCache(int maxEntries, File directory) {
+		entries = new LinkedHashMap<>(16, 0.75f, true) {
+			@Override
+			protected boolean removeEldestEntry(Map.Entry<String, Entry> eldest) {
+				return size() > maxEntries;
+			}
+		};
+		this.directory = directory;
+		if (directory != null && !directory.isDirectory() && !directory.mkdirs()) {
+			throw new RuntimeException(format("Failed to create cache directory %s", directory));
+		}
+	}
+
+	/**
+	 * @return fingerprint of the size and modification time of the input files, changes when any of them is replaced
+	 */
+	public static long getDataVersion(File... inputFiles) {
+		long version = inputFiles.length;
+		for (File inputFile : inputFiles) {
+			version = mix(version ^ inputFile.length());
+			version = mix(version ^ inputFile.lastModified());
+		}
+		return version;
+	}
+
+	/**
+	 * @return 64-bit hash of the instances in the group
+	 */
+	public static long getMembershipHash(RoaringBitmap group) {
+		long hash = group.getLongCardinality();
+		IntIterator instances = group.getIntIterator();
+		while (instances.hasNext()) {
+			hash = mix(hash ^ instances.next());
+		}
+		return hash;
+	}
+
+	/**
+	 * @param scores computes the scores on a miss
+	 */
+	public CohortScores getOrCompute(long dataVersion, RoaringBitmap groupB, Supplier<CohortScores> scores) {
+		return getOrCompute(format("%016x-%016x", dataVersion, getMembershipHash(groupB)), groupB, scores);
+	}
+
+	CohortScores getOrCompute(String key, RoaringBitmap groupB, Supplier<CohortScores> scores) {
+		Entry entry;
+		synchronized (entries) {
+			entry = entries.get(key);
+		}
+		if (entry == null || !entry.groupB.equals(groupB)) {
+			File file = directory != null ? new File(directory, key + ".scores") : null;
+			entry = file != null && file.isFile() ? read(file) : null;
+			if (entry == null || !entry.groupB.equals(groupB)) {
+				entry = new Entry(groupB.clone(), scores.get());
+				if (file != null) {
+					write(entry, file);
+				}
+			}
+			synchronized (entries) {
+				entries.put(key, entry);
+			}
+		}
+		return entry.scores;
+	}
+
+	public int size() {
+		synchronized (entries) {
+			return entries.size();
+		}
+	}
+
+	private void write(Entry entry, File file) {
+		CohortScores cohortScores = entry.scores;
+		SubtreeCounts subtreeCounts = cohortScores.getSubtreeCounts();
+		int nodeCount = subtreeCounts.getNodeCount();
+		File tempFile = new File(file.getPath() + "." + Thread.currentThread().getId() + ".tmp");
+		try {
+			try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tempFile), 1 << 16))) {
+				out.writeInt(FILE_MAGIC);
+				out.writeInt(FILE_VERSION);
+				out.writeInt(entry.groupB.serializedSizeInBytes());
+				entry.groupB.serialize(out);
+				out.writeInt(cohortScores.getGroupASize());
+				out.writeInt(cohortScores.getGroupBSize());
+				out.writeInt(nodeCount);
+				for (int nodeIndex = 0; nodeIndex < nodeCount; nodeIndex++) {
+					out.writeInt(subtreeCounts.getGroupACount(nodeIndex));
+				}
+				for (int nodeIndex = 0; nodeIndex < nodeCount; nodeIndex++) {
+					out.writeInt(subtreeCounts.getGroupBCount(nodeIndex));
+				}
+			}
+			Files.move(tempFile.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING);
+		} catch (IOException e) {
+			// The cache is only an optimisation, carry on without it
+			System.err.printf("Failed to write cached scores %s: %s%n", file, e.getMessage());
+			tempFile.delete();
+		}
+	}
+
+	/**
+	 * @return the group B and scores, or null if the file is from another version or can not be read
+	 */
+	private Entry read(File file) {
+		try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+			MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+			if (buffer.getInt() != FILE_MAGIC || buffer.getInt() != FILE_VERSION) {
+				return null;
+			}
+			int groupBBytes = buffer.getInt();
+			RoaringBitmap groupB = new RoaringBitmap();
+			groupB.deserialize(buffer.slice().limit(groupBBytes));
+			buffer.position(buffer.position() + groupBBytes);
+			int groupASize = buffer.getInt();
+			int groupBSize = buffer.getInt();
+			int nodeCount = buffer.getInt();
+			IntBuffer counts = buffer.asIntBuffer();
+			int[] groupACounts = new int[nodeCount];
+			int[] groupBCounts = new int[nodeCount];
+			counts.get(groupACounts);
+			counts.get(groupBCounts);
+			return new Entry(groupB, new CohortScores(new SubtreeCounts(groupACounts, groupBCounts), groupASize, groupBSize));
+		} catch (IOException | RuntimeException e) {
+			System.err.printf("Failed to read cached scores %s: %s%n", file, e.getMessage());
+			return null;
+		}
+	}
+
+	private static final class Entry {
+
+		private final RoaringBitmap groupB;
+		private final CohortScores scores;
+
+		private Entry(RoaringBitmap groupB, CohortScores scores) {
+			this.groupB = groupB;
+			this.scores = scores;
+		}
+	}
+
+	private static long mix(long value) {
+		value *= 0x9E3779B97F4A7C15L;
+		return value ^ (value >>> 29);
+	}
+}
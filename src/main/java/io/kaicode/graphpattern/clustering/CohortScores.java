@@ -0,0 +1,39 @@
+package io.kaicode.graphpattern.clustering;
+
+/**
+ * Subtree counts and differences of every node for one group B against group A. Everything cluster selection needs,
+ * so a new selection with other thresholds does not need the counts to be aggregated again.
+ */
+public class CohortScores {
+
+	private final SubtreeCounts subtreeCounts;
+	private final int groupASize;
+	private final int groupBSize;
+	private final float[] differences;
+
+	public CohortScores(SubtreeCounts subtreeCounts, int groupASize, int groupBSize) {
+		this.subtreeCounts = subtreeCounts;
+		this.groupASize = groupASize;
+		this.groupBSize = groupBSize;
+		differences = subtreeCounts.calculateDifferences(groupASize, groupBSize);
+	}
+
+	public SubtreeCounts getSubtreeCounts() {
+		return subtreeCounts;
+	}
+
+	public int getGroupASize() {
+		return groupASize;
+	}
+
+	public int getGroupBSize() {
+		return groupBSize;
+	}
+
+	/**
+	 * @return differences indexed by node index, shared so must not be modified
+	 */
+	public float[] getDifferences() {
+		return differences;
+	}
+}
@@ -0,0 +1,235 @@
+package io.kaicode.graphpattern.clustering;
+
+import io.kaicode.graphpattern.domain.GraphBuilder;
+import io.kaicode.graphpattern.domain.Node;
+import org.roaringbitmap.FastAggregation;
+import org.roaringbitmap.RoaringBitmap;
+
+import java.util.Arrays;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.stream.IntStream;
+
+/**
+ * Instances of each code as if every instance also had the ancestors, up to a number of levels, of its enrichment codes.
+ * Only the codes of each instance are held, with an index of the ancestors within the levels above each enrichment code,
+ * so enriched sets are never built. Whether an instance has a code is answered from its own codes and their ancestors, and the
+ * instances of a group are counted against every code in one pass over the group.
+ * <p>
+ * Safe for concurrent reads.
+ */
+public class EnrichedCodeInstances {
+
+	private final RoaringBitmap[] codeInstances;
+	private final int codeCount;
+	// Codes of each instance, compressed sparse rows
+	private final int[] instanceOffsets;
+	private final int[] instanceCodes;
+	// Ancestors within the levels above each enrichment code, sorted
+	private final int[] ancestorOffsets;
+	private final int[] ancestors;
+	// Enrichment codes within the levels below each code, sorted
+	private final int[] sourceOffsets;
+	private final int[] sources;
+
+	/**
+	 * @param codeInstances instances of each code, indexed by node index, may contain nulls
+	 * @param enrichmentCodes codes whose instances are counted towards their ancestors
+	 * @param levels number of levels up the hierarchy that an enrichment code reaches, 0 for no enrichment
+	 */
+	public EnrichedCodeInstances(GraphBuilder knowledgeGraph, RoaringBitmap[] codeInstances, RoaringBitmap enrichmentCodes, int levels) {
+		this.codeInstances = codeInstances;
+		codeCount = codeInstances.length;
+
+		// Transpose to the codes of each instance
+		int instanceCount = 0;
+		for (RoaringBitmap instances : codeInstances) {
+			if (instances != null && !instances.isEmpty()) {
+				instanceCount = Math.max(instanceCount, instances.last() + 1);
+			}
+		}
+		instanceOffsets = new int[instanceCount + 1];
+		for (RoaringBitmap instances : codeInstances) {
+			if (instances != null) {
+				instances.forEach((int instance) -> instanceOffsets[instance + 1]++);
+			}
+		}
+		for (int instance = 0; instance < instanceCount; instance++) {
+			instanceOffsets[instance + 1] += instanceOffsets[instance];
+		}
+		instanceCodes = new int[instanceOffsets[instanceCount]];
+		int[] fill = Arrays.copyOf(instanceOffsets, instanceCount);
+		for (int code = 0; code < codeCount; code++) {
+			if (codeInstances[code] != null) {
+				int instanceCode = code;
+				codeInstances[code].forEach((int instance) -> instanceCodes[fill[instance]++] = instanceCode);
+			}
+		}
+
+		// Breadth first up the parents from each enrichment code, collecting source and ancestor pairs
+		long[] pairs = new long[1024];
+		int pairCount = 0;
+		int[] stamps = new int[knowledgeGraph.getNodeCount()];
+		int[] queue = new int[16];
+		int stamp = 0;
+		for (int source : enrichmentCodes) {
+			if (source >= codeCount || codeInstances[source] == null) {
+				continue;
+			}
+			stamp++;
+			stamps[source] = stamp;
+			queue[0] = source;
+			int levelStart = 0;
+			int size = 1;
+			for (int level = 0; level < levels && levelStart < size; level++) {
+				int levelEnd = size;
+				for (int i = levelStart; i < levelEnd; i++) {
+					for (Node parent : knowledgeGraph.getNode(queue[i]).getParents()) {
+						int parentIndex = parent.getIndex();
+						if (stamps[parentIndex] != stamp) {
+							stamps[parentIndex] = stamp;
+							if (size == queue.length) {
+								queue = Arrays.copyOf(queue, size * 2);
+							}
+							queue[size++] = parentIndex;
+						}
+					}
+				}
+				levelStart = levelEnd;
+			}
+			for (int i = 1; i < size; i++) {
+				if (queue[i] < codeCount) {
+					if (pairCount == pairs.length) {
+						pairs = Arrays.copyOf(pairs, pairCount * 2);
+					}
+					pairs[pairCount++] = ((long) source << 32) | queue[i];
+				}
+			}
+		}
+		pairs = Arrays.copyOf(pairs, pairCount);
+		Arrays.sort(pairs);
+		ancestorOffsets = new int[codeCount + 1];
+		ancestors = new int[pairCount];
+		toRows(pairs, ancestorOffsets, ancestors);
+
+		// Same pairs the other way round
+		for (int i = 0; i < pairCount; i++) {
+			pairs[i] = (pairs[i] << 32) | (pairs[i] >>> 32);
+		}
+		Arrays.sort(pairs);
+		sourceOffsets = new int[codeCount + 1];
+		sources = new int[pairCount];
+		toRows(pairs, sourceOffsets, sources);
+	}
+
+	/**
+	 * @param pairs sorted, row in the high int and value in the low int
+	 */
+	private static void toRows(long[] pairs, int[] offsets, int[] values) {
+		for (int i = 0; i < pairs.length; i++) {
+			offsets[(int) (pairs[i] >>> 32) + 1]++;
+			values[i] = (int) pairs[i];
+		}
+		for (int row = 0; row < offsets.length - 1; row++) {
+			offsets[row + 1] += offsets[row];
+		}
+	}
+
+	public int getCodeCount() {
+		return codeCount;
+	}
+
+	/**
+	 * @return true if the instance has the code, or an enrichment code within the levels below it
+	 */
+	public boolean contains(int instance, int code) {
+		if (instance >= instanceOffsets.length - 1) {
+			return false;
+		}
+		for (int i = instanceOffsets[instance]; i < instanceOffsets[instance + 1]; i++) {
+			int instanceCode = instanceCodes[i];
+			if (instanceCode == code
+					|| Arrays.binarySearch(ancestors, ancestorOffsets[instanceCode], ancestorOffsets[instanceCode + 1], code) >= 0) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * Counts each instance of the group once against each of its codes and each ancestor they enrich.
+	 * @param pool pool to count chunks of the group in parallel, or null to count on the calling thread
+	 * @return number of instances of the group that have each code once enriched, indexed by code
+	 */
+	public int[] countAll(RoaringBitmap group, ForkJoinPool pool) {
+		int[] groupInstances = group.toArray();
+		if (pool == null) {
+			return countChunk(groupInstances, 0, groupInstances.length);
+		}
+		int chunkSize = Math.max(1024, groupInstances.length / (pool.getParallelism() * 4) + 1);
+		int chunkCount = (groupInstances.length + chunkSize - 1) / chunkSize;
+		try {
+			return pool.submit(() -> IntStream.range(0, chunkCount).parallel()
+					.mapToObj(chunk -> countChunk(groupInstances, chunk * chunkSize, Math.min(groupInstances.length, (chunk + 1) * chunkSize)))
+					.reduce((counts, otherCounts) -> {
+						for (int code = 0; code < codeCount; code++) {
+							counts[code] += otherCounts[code];
+						}
+						return counts;
+					}).orElseGet(() -> new int[codeCount])).get();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new RuntimeException("Interrupted while counting enriched codes.", e);
+		} catch (ExecutionException e) {
+			throw new RuntimeException("Failed to count enriched codes.", e.getCause());
+		}
+	}
+
+	private int[] countChunk(int[] groupInstances, int from, int to) {
+		int[] counts = new int[codeCount];
+		int[] stamps = new int[codeCount];
+		int instanceLimit = instanceOffsets.length - 1;
+		for (int g = from; g < to; g++) {
+			int instance = groupInstances[g];
+			if (instance >= instanceLimit) {
+				continue;
+			}
+			int stamp = g + 1;
+			for (int i = instanceOffsets[instance]; i < instanceOffsets[instance + 1]; i++) {
+				int instanceCode = instanceCodes[i];
+				if (stamps[instanceCode] != stamp) {
+					stamps[instanceCode] = stamp;
+					counts[instanceCode]++;
+				}
+				for (int a = ancestorOffsets[instanceCode]; a < ancestorOffsets[instanceCode + 1]; a++) {
+					int ancestor = ancestors[a];
+					if (stamps[ancestor] != stamp) {
+						stamps[ancestor] = stamp;
+						counts[ancestor]++;
+					}
+				}
+			}
+		}
+		return counts;
+	}
+
+	/**
+	 * @return instances of the code once enriched, built on each call
+	 */
+	public RoaringBitmap getInstances(int code) {
+		int from = sourceOffsets[code];
+		int to = sourceOffsets[code + 1];
+		RoaringBitmap[] bitmaps = new RoaringBitmap[to - from + 1];
+		int size = 0;
+		if (codeInstances[code] != null) {
+			bitmaps[size++] = codeInstances[code];
+		}
+		for (int i = from; i < to; i++) {
+			bitmaps[size++] = codeInstances[sources[i]];
+		}
+		if (size == 0) {
+			return new RoaringBitmap();
+		}
+		return size == 1 ? bitmaps[0].clone() : FastAggregation.or(Arrays.copyOf(bitmaps, size));
+	}
+}
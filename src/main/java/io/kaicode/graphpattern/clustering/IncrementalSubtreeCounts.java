@@ -0,0 +1,254 @@
+package io.kaicode.graphpattern.clustering;
+
+import io.kaicode.graphpattern.domain.AncestorIndex;
+import io.kaicode.graphpattern.domain.GraphBuilder;
+import io.kaicode.graphpattern.domain.Node;
+import io.kaicode.graphpattern.util.IdDictionary;
+import io.kaicode.graphpattern.util.MappedTsvReader;
+import org.roaringbitmap.RoaringBitmap;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Arrays;
+
+/**
+ * Subtree counts and differences that are kept up to date as instance rows are appended, without aggregating the whole graph again.
+ * <p>
+ * The codes of each instance are kept, so when an instance gains a code the ancestors it already reached are known.
+ * Only the new code and the ancestors the instance did not reach before are counted, and only those nodes are scored again.
+ * The cost of an update follows the number of rows and the history of the instances in it, not the size of the data set.
+ * A new instance changes the size of its group and with it the difference of every node, so that triggers one pass over the
+ * count arrays to score every node.
+ * <p>
+ * Nodes of the knowledge graph also get the new instances added to their group A or group B instances, as the full load does.
+ * Not thread safe.
+ */
+public class IncrementalSubtreeCounts {
+
+	private final GraphBuilder knowledgeGraph;
+	private final AncestorIndex ancestorIndex;
+	private final IdDictionary instanceIds;
+	private final RoaringBitmap groupB;
+	private final RoaringBitmap allInstances = new RoaringBitmap();
+	private final RoaringBitmap allCodesUsed = new RoaringBitmap();
+	private final IdDictionary notFoundCodes = new IdDictionary();
+
+	private final int[] groupACounts;
+	private final int[] groupBCounts;
+	private final float[] differences;
+	private int groupBSize;
+	private int scoredGroupASize = -1;
+	private int scoredGroupBSize = -1;
+
+	// Node indexes linked to each instance
+	private int[][] instanceNodes = new int[1024][];
+	private int[] instanceNodeCounts = new int[1024];
+
+	private final int[] reachedStamps;
+	private int stamp;
+
+	/**
+	 * @param instanceIds instance ids of the cohorts, new instances are added to this dictionary
+	 * @param groupB instances of group B, every other instance is in group A
+	 */
+	public IncrementalSubtreeCounts(GraphBuilder knowledgeGraph, AncestorIndex ancestorIndex, IdDictionary instanceIds, RoaringBitmap groupB) {
+		this.knowledgeGraph = knowledgeGraph;
+		this.ancestorIndex = ancestorIndex;
+		this.instanceIds = instanceIds;
+		this.groupB = groupB;
+		int nodeCount = knowledgeGraph.getNodeCount();
+		groupACounts = new int[nodeCount];
+		groupBCounts = new int[nodeCount];
+		differences = new float[nodeCount];
+		Arrays.fill(differences, Float.NaN);
+		reachedStamps = new int[nodeCount];
+	}
+
+	/**
+	 * Adds rows from a file with the same layout as the instance data, the first load can be the full instance data.
+	 * @return index of every node that was scored again, every node with instances if a group size changed
+	 */
+	public RoaringBitmap addRows(File rows) {
+		LongArrayBuilder links = new LongArrayBuilder();
+		try {
+			// instance	year	code
+			// 0		1		2
+			MappedTsvReader.read(rows, "instance\tyear\tcode", row -> {
+				// Year column not used yet
+				if (!row.isEmpty(2)) {// Some data may not be mapped
+					int nodeIndex = knowledgeGraph.getNodeIndex(row, 2);
+					if (nodeIndex != -1) {
+						links.add(instanceIds.getOrAdd(row, 0), nodeIndex);
+					} else {
+						int reported = notFoundCodes.size();
+						if (notFoundCodes.getOrAdd(row, 2) == reported) {// Report only once per code
+							System.err.printf("Code %s not found in knowledge graph%n", row.getString(2));
+						}
+					}
+				}
+			});
+		} catch (IOException e) {
+			throw new RuntimeException(e);
+		}
+		return addLinks(links.toSortedArray());
+	}
+
+	/**
+	 * Adds a single row.
+	 * @return index of every node that was scored again, every node with instances if a group size changed
+	 */
+	public RoaringBitmap addRow(String instance, String code) {
+		Node node = knowledgeGraph.getNode(code);
+		if (node == null) {
+			System.err.printf("Code %s not found in knowledge graph%n", code);
+			return new RoaringBitmap();
+		}
+		LongArrayBuilder links = new LongArrayBuilder();
+		links.add(instanceIds.getOrAdd(instance), node.getIndex());
+		return addLinks(links.toSortedArray());
+	}
+
+	/**
+	 * @param links instance in the high int and node index in the low int, sorted so that the links of an instance are together
+	 */
+	private RoaringBitmap addLinks(long[] links) {
+		RoaringBitmap touchedNodes = new RoaringBitmap();
+		int start = 0;
+		while (start < links.length) {
+			int instance = (int) (links[start] >>> 32);
+			int end = start;
+			while (end < links.length && (int) (links[end] >>> 32) == instance) {
+				end++;
+			}
+			addInstanceLinks(instance, links, start, end, touchedNodes);
+			start = end;
+		}
+
+		int groupASize = allInstances.getCardinality() - groupBSize;
+		if (groupASize != scoredGroupASize || groupBSize != scoredGroupBSize) {
+			scoredGroupASize = groupASize;
+			scoredGroupBSize = groupBSize;
+			touchedNodes = new RoaringBitmap();
+			for (int nodeIndex = 0; nodeIndex < differences.length; nodeIndex++) {
+				if (groupACounts[nodeIndex] != 0 || groupBCounts[nodeIndex] != 0) {
+					touchedNodes.add(nodeIndex);
+				}
+			}
+		}
+		SubtreeCounts subtreeCounts = new SubtreeCounts(groupACounts, groupBCounts);
+		touchedNodes.forEach((int nodeIndex) -> differences[nodeIndex] = subtreeCounts.calculateDifference(nodeIndex, groupASize, groupBSize));
+		return touchedNodes;
+	}
+
+	private void addInstanceLinks(int instance, long[] links, int start, int end, RoaringBitmap touchedNodes) {
+		boolean inGroupB = groupB.contains(instance);
+		if (allInstances.checkedAdd(instance) && inGroupB) {
+			groupBSize++;
+		}
+		int[] counts = inGroupB ? groupBCounts : groupACounts;
+
+		// Mark what the instance already reaches
+		stamp++;
+		int[] nodes = getInstanceNodes(instance);
+		int nodeCount = instanceNodeCounts[instance];
+		for (int i = 0; i < nodeCount; i++) {
+			reachedStamps[nodes[i]] = stamp;
+			ancestorIndex.forEachAncestor(nodes[i], ancestor -> reachedStamps[ancestor] = stamp);
+		}
+
+		for (int i = start; i < end; i++) {
+			int nodeIndex = (int) links[i];
+			Node node = knowledgeGraph.getNode(nodeIndex);
+			RoaringBitmap nodeInstances = inGroupB ? node.getGroupBInstances() : node.getGroupAInstances();
+			if (nodeInstances.contains(instance)) {
+				continue;// Already linked
+			}
+			if (inGroupB) {
+				node.addGroupBInstance(instance);
+			} else {
+				node.addGroupAInstance(instance);
+			}
+			allCodesUsed.add(nodeIndex);
+			addInstanceNode(instance, nodeIndex);
+
+			countIfNotReached(nodeIndex, counts, touchedNodes);
+			int ancestorCount = ancestorIndex.getAncestorCount(nodeIndex);
+			for (int a = 0; a < ancestorCount; a++) {
+				countIfNotReached(ancestorIndex.getAncestor(nodeIndex, a), counts, touchedNodes);
+			}
+		}
+	}
+
+	private void countIfNotReached(int nodeIndex, int[] counts, RoaringBitmap touchedNodes) {
+		if (reachedStamps[nodeIndex] != stamp) {
+			reachedStamps[nodeIndex] = stamp;
+			counts[nodeIndex]++;
+			touchedNodes.add(nodeIndex);
+		}
+	}
+
+	private int[] getInstanceNodes(int instance) {
+		if (instance >= instanceNodes.length) {
+			int length = Math.max(instanceNodes.length * 2, instance + 1);
+			instanceNodes = Arrays.copyOf(instanceNodes, length);
+			instanceNodeCounts = Arrays.copyOf(instanceNodeCounts, length);
+		}
+		if (instanceNodes[instance] == null) {
+			instanceNodes[instance] = new int[4];
+		}
+		return instanceNodes[instance];
+	}
+
+	private void addInstanceNode(int instance, int nodeIndex) {
+		int[] nodes = instanceNodes[instance];
+		int count = instanceNodeCounts[instance];
+		if (count == nodes.length) {
+			nodes = Arrays.copyOf(nodes, count * 2);
+			instanceNodes[instance] = nodes;
+		}
+		nodes[count] = nodeIndex;
+		instanceNodeCounts[instance] = count + 1;
+	}
+
+	public SubtreeCounts getSubtreeCounts() {
+		return new SubtreeCounts(groupACounts, groupBCounts);
+	}
+
+	/**
+	 * @return differences indexed by node index, updated in place by later rows so must not be modified
+	 */
+	public float[] getDifferences() {
+		return differences;
+	}
+
+	public int getGroupASize() {
+		return allInstances.getCardinality() - groupBSize;
+	}
+
+	public int getGroupBSize() {
+		return groupBSize;
+	}
+
+	public RoaringBitmap getAllCodesUsed() {
+		return allCodesUsed;
+	}
+
+	private static final class LongArrayBuilder {
+
+		private long[] values = new long[1024];
+		private int size;
+
+		private void add(int instance, int nodeIndex) {
+			if (size == values.length) {
+				values = Arrays.copyOf(values, size * 2);
+			}
+			values[size++] = ((long) instance << 32) | nodeIndex;
+		}
+
+		private long[] toSortedArray() {
+			long[] sorted = Arrays.copyOf(values, size);
+			Arrays.sort(sorted);
+			return sorted;
+		}
+	}
+}
@@ -0,0 +1,165 @@
+package io.kaicode.graphpattern.clustering;
+
+import org.roaringbitmap.RoaringBitmap;
+
+import java.util.Arrays;
+import java.util.SplittableRandom;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.stream.IntStream;
+
+/**
+ * Empirical significance of the difference of every node, by shuffling the cohort labels.
+ * Each permutation draws a random group B of the same size from all instances and counts it against the subtree of each node,
+ * one andCardinality per node. For a fixed subtree size the difference only grows with the group B count,
+ * so a permutation is at least as extreme as the observed data when its group B count is at least the observed count.
+ * <p>
+ * The test is one sided, for nodes that group B is over represented in, as those are the ones chosen as clusters.
+ * The random numbers of each permutation come from the seed and the permutation number alone, so results are the same for any
+ * number of threads, as long as the instance ids are too, which InstanceDataLoader gives in file order for any number of threads.
+ * q-values are Benjamini-Hochberg adjusted over every node with instances in its subtree.
+ */
+public class PermutationSignificance {
+
+	private final SubtreeInstanceIndex subtreeInstanceIndex;
+	private final int permutations;
+	private final long seed;
+
+	/**
+	 * @param permutations number of random relabellings, the smallest p-value possible is 1 / (permutations + 1)
+	 */
+	public PermutationSignificance(SubtreeInstanceIndex subtreeInstanceIndex, int permutations, long seed) {
+		this.subtreeInstanceIndex = subtreeInstanceIndex;
+		this.permutations = permutations;
+		this.seed = seed;
+	}
+
+	/**
+	 * @param groupB instances of group B, instances without instance data are not counted
+	 * @param pool pool to run permutations in parallel, or null to run them on the calling thread
+	 */
+	public Result test(RoaringBitmap groupB, ForkJoinPool pool) {
+		RoaringBitmap allInstances = subtreeInstanceIndex.getAllInstances();
+		int groupBSize = RoaringBitmap.andCardinality(groupB, allInstances);
+		SubtreeCounts observed = subtreeInstanceIndex.count(groupB, pool);
+		int nodeCount = observed.getNodeCount();
+
+		// Without group B instances every permutation is as extreme, so only the rest need counting
+		int[] testedNodes = IntStream.range(0, nodeCount).filter(nodeIndex -> observed.getGroupBCount(nodeIndex) > 0).toArray();
+		int[] observedCounts = Arrays.stream(testedNodes).map(observed::getGroupBCount).toArray();
+		int[] allInstanceArray = allInstances.toArray();
+
+		int[] extremeCounts;
+		if (pool == null) {
+			extremeCounts = permute(0, permutations, testedNodes, observedCounts, allInstanceArray, groupBSize);
+		} else {
+			int chunkCount = Math.min(permutations, pool.getParallelism() * 4);
+			try {
+				extremeCounts = pool.submit(() -> IntStream.range(0, chunkCount).parallel()
+						.mapToObj(chunk -> permute(chunk * permutations / chunkCount, (chunk + 1) * permutations / chunkCount, testedNodes, observedCounts,
+								allInstanceArray, groupBSize))
+						.reduce((counts, otherCounts) -> {
+							for (int i = 0; i < counts.length; i++) {
+								counts[i] += otherCounts[i];
+							}
+							return counts;
+						}).orElseGet(() -> new int[testedNodes.length])).get();
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				throw new RuntimeException("Interrupted during permutation test.", e);
+			} catch (ExecutionException e) {
+				throw new RuntimeException("Failed to run permutation test.", e.getCause());
+			}
+		}
+
+		float[] pValues = new float[nodeCount];
+		for (int nodeIndex = 0; nodeIndex < nodeCount; nodeIndex++) {
+			boolean hasInstances = observed.getGroupACount(nodeIndex) > 0 || observed.getGroupBCount(nodeIndex) > 0;
+			pValues[nodeIndex] = hasInstances ? 1 : Float.NaN;
+		}
+		for (int i = 0; i < testedNodes.length; i++) {
+			pValues[testedNodes[i]] = (extremeCounts[i] + 1) / (float) (permutations + 1);
+		}
+		return new Result(pValues, adjust(pValues));
+	}
+
+	/**
+	 * @return for each tested node, the number of permutations in the range with a group B count at least the observed count
+	 */
+	private int[] permute(int from, int to, int[] testedNodes, int[] observedCounts, int[] allInstanceArray, int groupBSize) {
+		int[] extremeCounts = new int[testedNodes.length];
+		int[] instances = allInstanceArray.clone();
+		// Draw the smaller of group B and group A, the other is what remains
+		boolean drawGroupA = groupBSize > instances.length / 2;
+		int drawSize = drawGroupA ? instances.length - groupBSize : groupBSize;
+		int[] swaps = new int[drawSize];
+		for (int permutation = from; permutation < to; permutation++) {
+			// Partial Fisher-Yates shuffle, undone afterwards so that each permutation starts from the same order
+			SplittableRandom random = new SplittableRandom(seed ^ (permutation * 0x9E3779B97F4A7C15L));
+			for (int i = 0; i < drawSize; i++) {
+				int j = i + random.nextInt(instances.length - i);
+				swaps[i] = j;
+				int swap = instances[i];
+				instances[i] = instances[j];
+				instances[j] = swap;
+			}
+			RoaringBitmap drawn = RoaringBitmap.bitmapOfUnordered(Arrays.copyOf(instances, drawSize));
+			for (int i = drawSize - 1; i >= 0; i--) {
+				int j = swaps[i];
+				int swap = instances[i];
+				instances[i] = instances[j];
+				instances[j] = swap;
+			}
+			RoaringBitmap permutedGroupB = drawGroupA ? RoaringBitmap.andNot(subtreeInstanceIndex.getAllInstances(), drawn) : drawn;
+
+			for (int i = 0; i < testedNodes.length; i++) {
+				if (RoaringBitmap.andCardinality(subtreeInstanceIndex.getSubtreeInstances(testedNodes[i]), permutedGroupB) >= observedCounts[i]) {
+					extremeCounts[i]++;
+				}
+			}
+		}
+		return extremeCounts;
+	}
+
+	/**
+	 * Benjamini-Hochberg adjustment over every p-value that is not NaN.
+	 */
+	static float[] adjust(float[] pValues) {
+		Integer[] order = IntStream.range(0, pValues.length).filter(nodeIndex -> !Float.isNaN(pValues[nodeIndex])).boxed().toArray(Integer[]::new);
+		Arrays.sort(order, (a, b) -> Float.compare(pValues[a], pValues[b]));
+		float[] qValues = new float[pValues.length];
+		Arrays.fill(qValues, Float.NaN);
+		double minimum = 1;
+		for (int rank = order.length; rank > 0; rank--) {
+			int nodeIndex = order[rank - 1];
+			minimum = Math.min(minimum, pValues[nodeIndex] * (double) order.length / rank);
+			qValues[nodeIndex] = (float) minimum;
+		}
+		return qValues;
+	}
+
+	public static class Result {
+
+		private final float[] pValues;
+		private final float[] qValues;
+
+		private Result(float[] pValues, float[] qValues) {
+			this.pValues = pValues;
+			this.qValues = qValues;
+		}
+
+		/**
+		 * @return p-value of each node by node index, Float.NaN for nodes without instances in their subtree
+		 */
+		public float[] getPValues() {
+			return pValues;
+		}
+
+		/**
+		 * @return false discovery rate adjusted p-value of each node by node index, Float.NaN for nodes without instances in their subtree
+		 */
+		public float[] getQValues() {
+			return qValues;
+		}
+	}
+}
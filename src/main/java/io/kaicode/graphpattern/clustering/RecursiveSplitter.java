@@ -0,0 +1,174 @@
+package io.kaicode.graphpattern.clustering;
+
+import org.roaringbitmap.RoaringBitmap;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+
+import static java.lang.String.format;
+
+/**
+ * Splits two groups of instances recursively by the codes that most differentiate group B from group A, like a decision tree.
+ * A split is an AND of the instances of the code for the instances with it and an ANDNOT for the rest,
+ * and every candidate code is scored from one counting pass over the instances of the split, done in parallel chunks.
+ * <p>
+ * The score of a code is its coverage of group B minus its coverage of group A, within the instances of the split.
+ * At each split the best codes, up to the branching factor, each divide the instances into those with and without the code,
+ * and both sides are split again until the maximum depth, until group B is too small or until group A is empty.
+ */
+public class RecursiveSplitter {
+
+	private final int maxDepth;
+	private final int branching;
+	private final int minGroupBSize;
+	private final int threads;
+
+	/**
+	 * @param maxDepth number of splits along a path
+	 * @param branching number of codes that split the instances at each level
+	 * @param minGroupBSize group B instances needed to split any further
+	 * @param threads number of threads used to count candidate codes, 1 to use the calling thread
+	 * @throws IllegalArgumentException if the depth, branching or threads are less than 1
+	 */
+	public RecursiveSplitter(int maxDepth, int branching, int minGroupBSize, int threads) {
+		if (maxDepth < 1 || branching < 1 || threads < 1) {
+			throw new IllegalArgumentException(format("Depth, branching and threads must be at least 1, not %s, %s and %s.", maxDepth, branching, threads));
+		}
+		this.maxDepth = maxDepth;
+		this.branching = branching;
+		this.minGroupBSize = minGroupBSize;
+		this.threads = threads;
+	}
+
+	/**
+	 * @param codeInstances instances of each code, counted without building the enriched instances of every candidate
+	 * @param excludedCodes codes never used to split, such as the group B indicator
+	 * @return splits of the top level
+	 */
+	public List<Split> split(EnrichedCodeInstances codeInstances, RoaringBitmap groupA, RoaringBitmap groupB, RoaringBitmap excludedCodes) {
+		ForkJoinPool pool = threads > 1 ? new ForkJoinPool(threads) : null;
+		try {
+			return split(codeInstances, groupA, groupB, excludedCodes.clone(), 0, pool);
+		} finally {
+			if (pool != null) {
+				pool.shutdown();
+			}
+		}
+	}
+
+	private List<Split> split(EnrichedCodeInstances codeInstances, RoaringBitmap groupA, RoaringBitmap groupB, RoaringBitmap pathCodes, int depth, ForkJoinPool pool) {
+		// Nothing left to differentiate once group A is empty
+		if (depth == maxDepth || groupA.isEmpty() || groupB.getCardinality() < Math.max(1, minGroupBSize)) {
+			return Collections.emptyList();
+		}
+		List<Split> splits = new ArrayList<>();
+		for (int code : getBestCodes(codeInstances, groupA, groupB, pathCodes, pool)) {
+			RoaringBitmap instances = codeInstances.getInstances(code);
+			RoaringBitmap withCodeGroupA = RoaringBitmap.and(groupA, instances);
+			RoaringBitmap withCodeGroupB = RoaringBitmap.and(groupB, instances);
+			float score = withCodeGroupB.getCardinality() / (float) groupB.getCardinality() - withCodeGroupA.getCardinality() / (float) groupA.getCardinality();
+			Split split = new Split(code, score, withCodeGroupA, withCodeGroupB, RoaringBitmap.andNot(groupA, instances), RoaringBitmap.andNot(groupB, instances));
+			pathCodes.add(code);
+			split.withCodeSplits = split(codeInstances, split.withCodeGroupA, split.withCodeGroupB, pathCodes, depth + 1, pool);
+			split.withoutCodeSplits = split(codeInstances, split.withoutCodeGroupA, split.withoutCodeGroupB, pathCodes, depth + 1, pool);
+			pathCodes.remove(code);
+			splits.add(split);
+		}
+		return splits;
+	}
+
+	/**
+	 * @return codes with a positive score, best first, ties broken by lowest code id
+	 */
+	private int[] getBestCodes(EnrichedCodeInstances codeInstances, RoaringBitmap groupA, RoaringBitmap groupB, RoaringBitmap pathCodes, ForkJoinPool pool) {
+		int groupASize = groupA.getCardinality();
+		int groupBSize = groupB.getCardinality();
+		int[] groupACounts = codeInstances.countAll(groupA, pool);
+		int[] groupBCounts = codeInstances.countAll(groupB, pool);
+		float[] scores = new float[codeInstances.getCodeCount()];
+		for (int code = 0; code < scores.length; code++) {
+			if (groupBCounts[code] > 0 && !pathCodes.contains(code)) {
+				scores[code] = groupBCounts[code] / (float) groupBSize - (groupASize > 0 ? groupACounts[code] / (float) groupASize : 0);
+			}
+		}
+
+		// Keep the best, in a small sorted array
+		int[] best = new int[branching];
+		int bestCount = 0;
+		for (int code = 0; code < scores.length; code++) {
+			if (scores[code] > 0 && (bestCount < branching || scores[code] > scores[best[bestCount - 1]])) {
+				int position = Math.min(bestCount, branching - 1);
+				while (position > 0 && scores[best[position - 1]] < scores[code]) {
+					best[position] = best[position - 1];
+					position--;
+				}
+				best[position] = code;
+				bestCount = Math.min(bestCount + 1, branching);
+			}
+		}
+		return Arrays.copyOf(best, bestCount);
+	}
+
+	public static class Split {
+
+		private final int code;
+		private final float score;
+		private final RoaringBitmap withCodeGroupA;
+		private final RoaringBitmap withCodeGroupB;
+		private final RoaringBitmap withoutCodeGroupA;
+		private final RoaringBitmap withoutCodeGroupB;
+		private List<Split> withCodeSplits;
+		private List<Split> withoutCodeSplits;
+
+		private Split(int code, float score, RoaringBitmap withCodeGroupA, RoaringBitmap withCodeGroupB, RoaringBitmap withoutCodeGroupA,
+				RoaringBitmap withoutCodeGroupB) {
+			this.code = code;
+			this.score = score;
+			this.withCodeGroupA = withCodeGroupA;
+			this.withCodeGroupB = withCodeGroupB;
+			this.withoutCodeGroupA = withoutCodeGroupA;
+			this.withoutCodeGroupB = withoutCodeGroupB;
+		}
+
+		public int getCode() {
+			return code;
+		}
+
+		public float getScore() {
+			return score;
+		}
+
+		public RoaringBitmap getWithCodeGroupA() {
+			return withCodeGroupA;
+		}
+
+		public RoaringBitmap getWithCodeGroupB() {
+			return withCodeGroupB;
+		}
+
+		public RoaringBitmap getWithoutCodeGroupA() {
+			return withoutCodeGroupA;
+		}
+
+		public RoaringBitmap getWithoutCodeGroupB() {
+			return withoutCodeGroupB;
+		}
+
+		/**
+		 * @return splits of the instances that have the code
+		 */
+		public List<Split> getWithCodeSplits() {
+			return withCodeSplits;
+		}
+
+		/**
+		 * @return splits of the instances that do not have the code
+		 */
+		public List<Split> getWithoutCodeSplits() {
+			return withoutCodeSplits;
+		}
+	}
+}
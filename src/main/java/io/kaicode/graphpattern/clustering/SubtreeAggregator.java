@@ -0,0 +1,293 @@
+package io.kaicode.graphpattern.clustering;
+
+import io.kaicode.graphpattern.domain.AncestorIndex;
+import io.kaicode.graphpattern.domain.GraphBuilder;
+import io.kaicode.graphpattern.domain.InstanceCodeMatrix;
+import io.kaicode.graphpattern.domain.Node;
+import org.roaringbitmap.FastAggregation;
+import org.roaringbitmap.RoaringBitmap;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.function.Function;
+import java.util.stream.IntStream;
+
+/**
+ * Counts distinct instances for every node and its descendants in a single bottom-up pass over the knowledge graph.
+ * Each node's subtree membership is the union of its own membership and that of its children, so instances reachable
+ * through more than one parent in the DAG are only counted once. Subtree bitmaps are released as soon as all parents
+ * of a node have consumed them.
+ * <p>
+ * When constructed with a ForkJoinPool nodes are processed level by level, by height above the leaves.
+ * All nodes in a level only depend on lower levels so each level is split across the pool.
+ * Counts are exact so the result is identical to the serial pass.
+ */
+public class SubtreeAggregator {
+
+	private static final RoaringBitmap EMPTY = new RoaringBitmap();
+
+	private final ForkJoinPool pool;
+
+	public SubtreeAggregator() {
+		this(null);
+	}
+
+	/**
+	 * @param pool pool to aggregate in parallel, or null to aggregate on the calling thread
+	 */
+	public SubtreeAggregator(ForkJoinPool pool) {
+		this.pool = pool;
+	}
+
+	/**
+	 * Handed the subtree instances of each node during aggregation. The bitmap is released afterwards so must not be kept or modified.
+	 * Called from several threads at once when aggregating in parallel.
+	 */
+	public interface SubtreeVisitor {
+		void visit(int nodeIndex, RoaringBitmap subtreeInstances);
+	}
+
+	public SubtreeCounts aggregate(GraphBuilder knowledgeGraph) {
+		int[] groupACounts = new int[knowledgeGraph.getNodeCount()];
+		int[] groupBCounts = new int[knowledgeGraph.getNodeCount()];
+		int[] order = knowledgeGraph.getNodeIndexesChildrenFirst();
+		int[][] levels = pool != null ? getLevels(knowledgeGraph, order) : null;
+		aggregate(knowledgeGraph, order, levels, Node::getGroupAInstances, (nodeIndex, subtreeInstances) -> groupACounts[nodeIndex] = subtreeInstances.getCardinality());
+		aggregate(knowledgeGraph, order, levels, Node::getGroupBInstances, (nodeIndex, subtreeInstances) -> groupBCounts[nodeIndex] = subtreeInstances.getCardinality());
+		return new SubtreeCounts(groupACounts, groupBCounts);
+	}
+
+	/**
+	 * Counts straight from the codes of each instance in the matrix rather than from node membership, so instances are never held on the heap.
+	 * Each instance is counted once against its codes and their ancestors. Chunks of instances are counted across the pool and summed
+	 * pairwise as they finish, so only the counts of the chunks in progress are held at once.
+	 * @param groupB instances of group B, every other instance with codes is in group A
+	 */
+	public SubtreeCounts aggregate(InstanceCodeMatrix matrix, AncestorIndex ancestorIndex, RoaringBitmap groupB) {
+		int instanceCount = matrix.getInstanceCount();
+		if (pool == null) {
+			int[][] counts = countInstances(matrix, ancestorIndex, groupB, 0, instanceCount);
+			return new SubtreeCounts(counts[0], counts[1]);
+		}
+		int chunkSize = Math.max(1024, instanceCount / (pool.getParallelism() * 4) + 1);
+		int chunkCount = (instanceCount + chunkSize - 1) / chunkSize;
+		int nodeCount = ancestorIndex.getNodeCount();
+		int[][] counts = callInPool(() -> IntStream.range(0, chunkCount).parallel()
+				.mapToObj(chunk -> countInstances(matrix, ancestorIndex, groupB, chunk * chunkSize, Math.min(instanceCount, (chunk + 1) * chunkSize)))
+				.reduce((chunkCounts, otherChunkCounts) -> {
+					for (int nodeIndex = 0; nodeIndex < nodeCount; nodeIndex++) {
+						chunkCounts[0][nodeIndex] += otherChunkCounts[0][nodeIndex];
+						chunkCounts[1][nodeIndex] += otherChunkCounts[1][nodeIndex];
+					}
+					return chunkCounts;
+				}).orElseGet(() -> new int[][] {new int[nodeCount], new int[nodeCount]}));
+		return new SubtreeCounts(counts[0], counts[1]);
+	}
+
+	private int[][] countInstances(InstanceCodeMatrix matrix, AncestorIndex ancestorIndex, RoaringBitmap groupB, int from, int to) {
+		int nodeCount = ancestorIndex.getNodeCount();
+		int[] groupACounts = new int[nodeCount];
+		int[] groupBCounts = new int[nodeCount];
+		int[] stamps = new int[nodeCount];
+		long end = matrix.getFirstPosition(from);
+		for (int instance = from; instance < to; instance++) {
+			long start = end;
+			end = matrix.getFirstPosition(instance + 1);
+			int[] counts = groupB.contains(instance) ? groupBCounts : groupACounts;
+			int stamp = instance + 1;
+			for (long position = start; position < end; position++) {
+				int nodeIndex = matrix.getNodeIndex(position);
+				if (stamps[nodeIndex] != stamp) {
+					stamps[nodeIndex] = stamp;
+					counts[nodeIndex]++;
+				}
+				int ancestorCount = ancestorIndex.getAncestorCount(nodeIndex);
+				for (int a = 0; a < ancestorCount; a++) {
+					int ancestor = ancestorIndex.getAncestor(nodeIndex, a);
+					if (stamps[ancestor] != stamp) {
+						stamps[ancestor] = stamp;
+						counts[ancestor]++;
+					}
+				}
+			}
+		}
+		return new int[][] {groupACounts, groupBCounts};
+	}
+
+	/**
+	 * Single bottom-up pass that hands the subtree instances of every node to the visitor, children before parents.
+	 */
+	public void aggregate(GraphBuilder knowledgeGraph, Function<Node, RoaringBitmap> membership, SubtreeVisitor visitor) {
+		int[] order = knowledgeGraph.getNodeIndexesChildrenFirst();
+		aggregate(knowledgeGraph, order, pool != null ? getLevels(knowledgeGraph, order) : null, membership, visitor);
+	}
+
+	private void aggregate(GraphBuilder knowledgeGraph, int[] order, int[][] levels, Function<Node, RoaringBitmap> membership, SubtreeVisitor visitor) {
+		if (pool == null) {
+			aggregateSerially(knowledgeGraph, order, membership, visitor);
+		} else {
+			aggregateInParallel(knowledgeGraph, levels, membership, visitor);
+		}
+	}
+
+	/**
+	 * Subtree instances of every node, kept rather than released so that they can be counted against any cohort later.
+	 * Bitmaps are shared between nodes that have a single contributor so must not be modified.
+	 */
+	public RoaringBitmap[] aggregateSubtrees(GraphBuilder knowledgeGraph, Function<Node, RoaringBitmap> membership) {
+		int[] order = knowledgeGraph.getNodeIndexesChildrenFirst();
+		RoaringBitmap[] subtreeInstances = new RoaringBitmap[order.length];
+		if (pool == null) {
+			List<RoaringBitmap> toMerge = new ArrayList<>();
+			for (int nodeIndex : order) {
+				subtreeInstances[nodeIndex] = aggregateNode(knowledgeGraph.getNode(nodeIndex), membership, subtreeInstances, toMerge);
+			}
+		} else {
+			for (int[] levelNodes : getLevels(knowledgeGraph, order)) {
+				runInPool(() -> IntStream.range(0, levelNodes.length).parallel().forEach(i -> {
+					int nodeIndex = levelNodes[i];
+					subtreeInstances[nodeIndex] = aggregateNode(knowledgeGraph.getNode(nodeIndex), membership, subtreeInstances, new ArrayList<>());
+				}));
+			}
+		}
+		return subtreeInstances;
+	}
+
+	private void aggregateSerially(GraphBuilder knowledgeGraph, int[] order, Function<Node, RoaringBitmap> membership, SubtreeVisitor visitor) {
+		int nodeCount = order.length;
+		int[] pendingParents = new int[nodeCount];
+		RoaringBitmap[] subtreeInstances = new RoaringBitmap[nodeCount];
+		List<RoaringBitmap> toMerge = new ArrayList<>();
+		for (int nodeIndex : order) {
+			Node node = knowledgeGraph.getNode(nodeIndex);
+			pendingParents[nodeIndex] = node.getParents().size();
+
+			RoaringBitmap aggregate = aggregateNode(node, membership, subtreeInstances, toMerge);
+			for (Node child : node.getChildren()) {
+				if (--pendingParents[child.getIndex()] == 0) {
+					subtreeInstances[child.getIndex()] = null;
+				}
+			}
+			visitor.visit(nodeIndex, aggregate);
+			if (pendingParents[nodeIndex] > 0) {
+				subtreeInstances[nodeIndex] = aggregate;
+			}
+		}
+	}
+
+	private void aggregateInParallel(GraphBuilder knowledgeGraph, int[][] levels, Function<Node, RoaringBitmap> membership, SubtreeVisitor visitor) {
+		int nodeCount = knowledgeGraph.getNodeCount();
+		RoaringBitmap[] subtreeInstances = new RoaringBitmap[nodeCount];
+
+		// Height of the highest parent of each node, the subtree bitmap is released once that level is complete
+		int[] levelOfNode = new int[nodeCount];
+		for (int level = 0; level < levels.length; level++) {
+			for (int nodeIndex : levels[level]) {
+				levelOfNode[nodeIndex] = level;
+			}
+		}
+		List<List<Integer>> releaseAfterLevel = new ArrayList<>();
+		for (int level = 0; level < levels.length; level++) {
+			releaseAfterLevel.add(new ArrayList<>());
+		}
+		for (int nodeIndex = 0; nodeIndex < nodeCount; nodeIndex++) {
+			int lastConsumer = -1;
+			for (Node parent : knowledgeGraph.getNode(nodeIndex).getParents()) {
+				lastConsumer = Math.max(lastConsumer, levelOfNode[parent.getIndex()]);
+			}
+			if (lastConsumer != -1) {
+				releaseAfterLevel.get(lastConsumer).add(nodeIndex);
+			}
+		}
+
+		for (int level = 0; level < levels.length; level++) {
+			int[] levelNodes = levels[level];
+			runInPool(() -> IntStream.range(0, levelNodes.length).parallel().forEach(i -> {
+				int nodeIndex = levelNodes[i];
+				Node node = knowledgeGraph.getNode(nodeIndex);
+				RoaringBitmap aggregate = aggregateNode(node, membership, subtreeInstances, new ArrayList<>());
+				visitor.visit(nodeIndex, aggregate);
+				if (!node.getParents().isEmpty()) {
+					subtreeInstances[nodeIndex] = aggregate;
+				}
+			}));
+			for (Integer consumed : releaseAfterLevel.get(level)) {
+				subtreeInstances[consumed] = null;
+			}
+		}
+	}
+
+	private RoaringBitmap aggregateNode(Node node, Function<Node, RoaringBitmap> membership, RoaringBitmap[] subtreeInstances, List<RoaringBitmap> toMerge) {
+		toMerge.clear();
+		RoaringBitmap own = membership.apply(node);
+		if (!own.isEmpty()) {
+			toMerge.add(own);
+		}
+		for (Node child : node.getChildren()) {
+			RoaringBitmap childInstances = subtreeInstances[child.getIndex()];
+			if (!childInstances.isEmpty()) {
+				toMerge.add(childInstances);
+			}
+		}
+
+		if (toMerge.isEmpty()) {
+			return EMPTY;
+		} else if (toMerge.size() == 1) {
+			// Bitmaps are never modified once aggregated so can be shared with the single contributor
+			return toMerge.get(0);
+		} else {
+			return FastAggregation.or(toMerge.iterator());
+		}
+	}
+
+	/**
+	 * Groups nodes by height above the leaves. Leaves are level 0, every other node is one level above its highest child.
+	 */
+	private int[][] getLevels(GraphBuilder knowledgeGraph, int[] childrenFirst) {
+		int[] heights = new int[childrenFirst.length];
+		int levelCount = 0;
+		for (int nodeIndex : childrenFirst) {
+			int height = 0;
+			for (Node child : knowledgeGraph.getNode(nodeIndex).getChildren()) {
+				height = Math.max(height, heights[child.getIndex()] + 1);
+			}
+			heights[nodeIndex] = height;
+			levelCount = Math.max(levelCount, height + 1);
+		}
+		int[] levelSizes = new int[levelCount];
+		for (int height : heights) {
+			levelSizes[height]++;
+		}
+		int[][] levels = new int[levelCount][];
+		for (int level = 0; level < levelCount; level++) {
+			levels[level] = new int[levelSizes[level]];
+			levelSizes[level] = 0;
+		}
+		for (int nodeIndex : childrenFirst) {
+			int height = heights[nodeIndex];
+			levels[height][levelSizes[height]++] = nodeIndex;
+		}
+		return levels;
+	}
+
+	private void runInPool(Runnable task) {
+		callInPool(() -> {
+			task.run();
+			return null;
+		});
+	}
+
+	private <T> T callInPool(Callable<T> task) {
+		try {
+			return pool.submit(task).get();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new RuntimeException("Interrupted during aggregation.", e);
+		} catch (ExecutionException e) {
+			throw new RuntimeException("Failed to aggregate subtree counts.", e.getCause());
+		}
+	}
+}
@@ -0,0 +1,56 @@
+package io.kaicode.graphpattern.clustering;
+
+/**
+ * Distinct group A and group B instance counts for each knowledge graph node and all of its descendants, indexed by node index.
+ */
+public class SubtreeCounts {
+
+	private final int[] groupACounts;
+	private final int[] groupBCounts;
+
+	public SubtreeCounts(int[] groupACounts, int[] groupBCounts) {
+		this.groupACounts = groupACounts;
+		this.groupBCounts = groupBCounts;
+	}
+
+	public int getGroupACount(int nodeIndex) {
+		return groupACounts[nodeIndex];
+	}
+
+	public int getGroupBCount(int nodeIndex) {
+		return groupBCounts[nodeIndex];
+	}
+
+	public int getNodeCount() {
+		return groupACounts.length;
+	}
+
+	/**
+	 * Difference between the group B and group A coverage of each node.
+	 * @return differences indexed by node index, Float.NaN for nodes without instances in their subtree
+	 */
+	public float[] calculateDifferences(int groupASize, int groupBSize) {
+		return calculateDifferences(groupASize, groupBSize, new float[groupACounts.length]);
+	}
+
+	/**
+	 * @param differences filled with the differences, so that it can be reused
+	 */
+	public float[] calculateDifferences(int groupASize, int groupBSize, float[] differences) {
+		for (int nodeIndex = 0; nodeIndex < differences.length; nodeIndex++) {
+			differences[nodeIndex] = calculateDifference(nodeIndex, groupASize, groupBSize);
+		}
+		return differences;
+	}
+
+	public float calculateDifference(int nodeIndex, int groupASize, int groupBSize) {
+		int groupACount = groupACounts[nodeIndex];
+		int groupBCount = groupBCounts[nodeIndex];
+		if (groupACount == 0 && groupBCount == 0) {
+			return Float.NaN;
+		}
+		float aStrength = groupACount / (float) groupASize;
+		float bStrength = groupBCount / (float) groupBSize;
+		return bStrength - aStrength;
+	}
+}
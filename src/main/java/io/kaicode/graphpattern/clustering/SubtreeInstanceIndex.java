@@ -0,0 +1,82 @@
+package io.kaicode.graphpattern.clustering;
+
+import org.roaringbitmap.RoaringBitmap;
+
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.function.IntConsumer;
+import java.util.stream.IntStream;
+
+/**
+ * Distinct instances in the subtree of every node, independent of any cohort.
+ * Counts for a cohort against the rest are taken from the kept subtree bitmaps without another pass over the knowledge graph,
+ * so the index can be built once and shared. Read only once built, safe for concurrent use.
+ */
+public class SubtreeInstanceIndex {
+
+	private final RoaringBitmap[] subtreeInstances;
+	private final int[] subtreeSizes;
+	private final RoaringBitmap allInstances;
+
+	/**
+	 * @param subtreeInstances subtree instances by node index, see SubtreeAggregator.aggregateSubtrees
+	 * @param allInstances every instance with instance data
+	 */
+	public SubtreeInstanceIndex(RoaringBitmap[] subtreeInstances, RoaringBitmap allInstances) {
+		this.subtreeInstances = subtreeInstances;
+		this.allInstances = allInstances;
+		subtreeSizes = new int[subtreeInstances.length];
+		for (int nodeIndex = 0; nodeIndex < subtreeInstances.length; nodeIndex++) {
+			subtreeSizes[nodeIndex] = subtreeInstances[nodeIndex].getCardinality();
+		}
+	}
+
+	/**
+	 * Counts group B, and group A as every other instance, in the subtree of every node.
+	 * @param groupB instances of group B, instances without instance data are not counted
+	 * @param pool pool to count in parallel, or null to count on the calling thread
+	 */
+	public SubtreeCounts count(RoaringBitmap groupB, ForkJoinPool pool) {
+		int nodeCount = subtreeInstances.length;
+		int[] groupACounts = new int[nodeCount];
+		int[] groupBCounts = new int[nodeCount];
+		IntConsumer counter = nodeIndex -> {
+			int subtreeSize = subtreeSizes[nodeIndex];
+			int groupBCount = subtreeSize == 0 ? 0 : RoaringBitmap.andCardinality(subtreeInstances[nodeIndex], groupB);
+			groupBCounts[nodeIndex] = groupBCount;
+			groupACounts[nodeIndex] = subtreeSize - groupBCount;
+		};
+		if (pool == null) {
+			IntStream.range(0, nodeCount).forEach(counter);
+		} else {
+			try {
+				pool.submit(() -> IntStream.range(0, nodeCount).parallel().forEach(counter)).get();
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				throw new RuntimeException("Interrupted while counting.", e);
+			} catch (ExecutionException e) {
+				throw new RuntimeException("Failed to count subtree instances.", e.getCause());
+			}
+		}
+		return new SubtreeCounts(groupACounts, groupBCounts);
+	}
+
+	/**
+	 * @return every instance with instance data
+	 */
+	public RoaringBitmap getAllInstances() {
+		return allInstances;
+	}
+
+	public int getInstanceCount() {
+		return allInstances.getCardinality();
+	}
+
+	public RoaringBitmap getSubtreeInstances(int nodeIndex) {
+		return subtreeInstances[nodeIndex];
+	}
+
+	public int getNodeCount() {
+		return subtreeInstances.length;
+	}
+}
@@ -0,0 +1,192 @@
+package io.kaicode.graphpattern.clustering;
+
+import io.kaicode.graphpattern.domain.AncestorIndex;
+import io.kaicode.graphpattern.domain.TimedInstanceStore;
+import org.roaringbitmap.RoaringBitmap;
+
+/**
+ * Subtree counts of the instances that have rows within a range of years, kept up to date as the range moves.
+ * <p>
+ * Moving the window only touches the instances with rows in the years that enter or leave it. For each of those the nodes
+ * it reached before, its codes and their ancestors within the old range, are compared with the nodes it reaches now and only
+ * the nodes that differ are counted up or down. Sliding a window one year costs the rows of two years, not the whole window.
+ * <p>
+ * Not thread safe.
+ */
+public class WindowedSubtreeCounts {
+
+	private final TimedInstanceStore store;
+	private final AncestorIndex ancestorIndex;
+	private final RoaringBitmap groupB;
+
+	private final int[] groupACounts;
+	private final int[] groupBCounts;
+	// Rows within the window of each code
+	private final int[] codeRowCounts;
+	private int groupASize;
+	private int groupBSize;
+
+	private final int[] oldStamps;
+	private final int[] newStamps;
+	private int stamp;
+
+	// Empty until the first window is set
+	private int fromYear = 0;
+	private int toYear = -1;
+
+	/**
+	 * @param groupB instances of group B, every other instance is in group A
+	 */
+	public WindowedSubtreeCounts(TimedInstanceStore store, AncestorIndex ancestorIndex, RoaringBitmap groupB) {
+		this.store = store;
+		this.ancestorIndex = ancestorIndex;
+		this.groupB = groupB;
+		int nodeCount = ancestorIndex.getNodeCount();
+		groupACounts = new int[nodeCount];
+		groupBCounts = new int[nodeCount];
+		codeRowCounts = new int[nodeCount];
+		oldStamps = new int[nodeCount];
+		newStamps = new int[nodeCount];
+	}
+
+	/**
+	 * Moves the window, counting only the instances with rows in years that enter or leave it.
+	 * @param fromYear first year of the window, inclusive
+	 * @param toYear last year of the window, inclusive
+	 */
+	public void setWindow(int fromYear, int toYear) {
+		int oldFromYear = this.fromYear;
+		int oldToYear = this.toYear;
+		this.fromYear = fromYear;
+		this.toYear = toYear;
+
+		// Years in only one of the two windows
+		RoaringBitmap changedInstances;
+		if (oldFromYear > oldToYear || fromYear > toYear || oldToYear < fromYear || toYear < oldFromYear) {
+			changedInstances = RoaringBitmap.or(store.getInstances(oldFromYear, oldToYear), store.getInstances(fromYear, toYear));
+		} else {
+			changedInstances = RoaringBitmap.or(store.getInstances(Math.min(oldFromYear, fromYear), Math.max(oldFromYear, fromYear) - 1),
+					store.getInstances(Math.min(oldToYear, toYear) + 1, Math.max(oldToYear, toYear)));
+		}
+		changedInstances.forEach((int instance) -> update(instance, oldFromYear, oldToYear));
+	}
+
+	private void update(int instance, int oldFromYear, int oldToYear) {
+		stamp++;
+		int firstRow = store.getFirstRow(instance);
+		int endRow = store.getFirstRow(instance + 1);
+		boolean wasInWindow = false;
+		boolean isInWindow = false;
+		for (int row = firstRow; row < endRow; row++) {
+			int year = store.getYear(row);
+			boolean inOld = year >= oldFromYear && year <= oldToYear;
+			boolean inNew = year >= fromYear && year <= toYear;
+			wasInWindow |= inOld;
+			isInWindow |= inNew;
+			// Codes not in the knowledge graph only put the instance in the window
+			int nodeIndex = store.getNodeIndex(row);
+			if (nodeIndex == -1) {
+				continue;
+			}
+			if (inOld) {
+				mark(nodeIndex, oldStamps);
+			}
+			if (inNew) {
+				mark(nodeIndex, newStamps);
+			}
+			if (inOld != inNew) {
+				codeRowCounts[nodeIndex] += inNew ? 1 : -1;
+			}
+		}
+		if (!wasInWindow && !isInWindow) {
+			return;
+		}
+
+		boolean inGroupB = groupB.contains(instance);
+		int[] counts = inGroupB ? groupBCounts : groupACounts;
+		if (wasInWindow != isInWindow) {
+			int change = isInWindow ? 1 : -1;
+			if (inGroupB) {
+				groupBSize += change;
+			} else {
+				groupASize += change;
+			}
+		}
+		// Each marked node is visited once, its stamp is cleared when counted
+		for (int row = firstRow; row < endRow; row++) {
+			int year = store.getYear(row);
+			int nodeIndex = store.getNodeIndex(row);
+			if (nodeIndex != -1 && ((year >= oldFromYear && year <= oldToYear) || (year >= fromYear && year <= toYear))) {
+				count(nodeIndex, counts);
+				int ancestorCount = ancestorIndex.getAncestorCount(nodeIndex);
+				for (int a = 0; a < ancestorCount; a++) {
+					count(ancestorIndex.getAncestor(nodeIndex, a), counts);
+				}
+			}
+		}
+	}
+
+	private void mark(int nodeIndex, int[] stamps) {
+		stamps[nodeIndex] = stamp;
+		ancestorIndex.forEachAncestor(nodeIndex, ancestor -> stamps[ancestor] = stamp);
+	}
+
+	private void count(int nodeIndex, int[] counts) {
+		boolean reachedBefore = oldStamps[nodeIndex] == stamp;
+		boolean reachedNow = newStamps[nodeIndex] == stamp;
+		if (reachedBefore != reachedNow) {
+			counts[nodeIndex] += reachedNow ? 1 : -1;
+		}
+		oldStamps[nodeIndex] = 0;
+		newStamps[nodeIndex] = 0;
+	}
+
+	/**
+	 * @return copy of the counts of the current window
+	 */
+	public SubtreeCounts getSubtreeCounts() {
+		return new SubtreeCounts(groupACounts.clone(), groupBCounts.clone());
+	}
+
+	/**
+	 * @return differences of the current window indexed by node index, Float.NaN for nodes without instances in the window
+	 */
+	public float[] getDifferences() {
+		return new SubtreeCounts(groupACounts, groupBCounts).calculateDifferences(groupASize, groupBSize);
+	}
+
+	/**
+	 * @return instances with rows in the window that are not in group B
+	 */
+	public int getGroupASize() {
+		return groupASize;
+	}
+
+	/**
+	 * @return instances of group B with rows in the window
+	 */
+	public int getGroupBSize() {
+		return groupBSize;
+	}
+
+	/**
+	 * @return index of every node with rows in the window
+	 */
+	public RoaringBitmap getCodesUsed() {
+		RoaringBitmap codesUsed = new RoaringBitmap();
+		for (int nodeIndex = 0; nodeIndex < codeRowCounts.length; nodeIndex++) {
+			if (codeRowCounts[nodeIndex] > 0) {
+				codesUsed.add(nodeIndex);
+			}
+		}
+		return codesUsed;
+	}
+
+	public int getFromYear() {
+		return fromYear;
+	}
+
+	public int getToYear() {
+		return toYear;
+	}
+}
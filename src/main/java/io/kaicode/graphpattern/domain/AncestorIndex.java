@@ -0,0 +1,103 @@
+package io.kaicode.graphpattern.domain;
+
+import java.util.Arrays;
+import java.util.function.IntConsumer;
+
+/**
+ * Transitive closure of the knowledge graph parent relationship, compiled once from a GraphBuilder.
+ * The ancestors of every node are held as a sorted slice of one shared int array (compressed sparse rows),
+ * so ancestor lookups and subsumption checks do not allocate. Nodes with multiple parents hold the
+ * de-duplicated union of the ancestors reached through each parent.
+ */
+public class AncestorIndex {
+
+	private final int[] offsets;
+	private final int[] ancestors;
+
+	public AncestorIndex(GraphBuilder knowledgeGraph) {
+		int nodeCount = knowledgeGraph.getNodeCount();
+		int[] childrenFirst = knowledgeGraph.getNodeIndexesChildrenFirst();
+
+		// Build rows parents first so that every parent row is complete before it is copied into its children
+		int[][] rows = new int[nodeCount][];
+		int[] seenStamp = new int[nodeCount];
+		Arrays.fill(seenStamp, -1);
+		int[] buffer = new int[16];
+		long total = 0;
+		for (int i = childrenFirst.length - 1; i >= 0; i--) {
+			int nodeIndex = childrenFirst[i];
+			int size = 0;
+			for (Node parent : knowledgeGraph.getNode(nodeIndex).getParents()) {
+				int parentIndex = parent.getIndex();
+				int[] parentRow = rows[parentIndex];
+				if (buffer.length < size + parentRow.length + 1) {
+					buffer = Arrays.copyOf(buffer, Math.max(buffer.length * 2, size + parentRow.length + 1));
+				}
+				if (seenStamp[parentIndex] != nodeIndex) {
+					seenStamp[parentIndex] = nodeIndex;
+					buffer[size++] = parentIndex;
+				}
+				for (int ancestorIndex : parentRow) {
+					if (seenStamp[ancestorIndex] != nodeIndex) {
+						seenStamp[ancestorIndex] = nodeIndex;
+						buffer[size++] = ancestorIndex;
+					}
+				}
+			}
+			int[] row = Arrays.copyOf(buffer, size);
+			Arrays.sort(row);
+			rows[nodeIndex] = row;
+			total += size;
+		}
+		if (total > Integer.MAX_VALUE) {
+			throw new IllegalStateException("Ancestor closure is too large to index, " + total + " entries.");
+		}
+
+		offsets = new int[nodeCount + 1];
+		ancestors = new int[(int) total];
+		for (int nodeIndex = 0; nodeIndex < nodeCount; nodeIndex++) {
+			int[] row = rows[nodeIndex];
+			System.arraycopy(row, 0, ancestors, offsets[nodeIndex], row.length);
+			offsets[nodeIndex + 1] = offsets[nodeIndex] + row.length;
+		}
+	}
+
+	/**
+	 * @return true if the first node is a strict ancestor of the second
+	 */
+	public boolean isAncestor(int ancestorIndex, int nodeIndex) {
+		return Arrays.binarySearch(ancestors, offsets[nodeIndex], offsets[nodeIndex + 1], ancestorIndex) >= 0;
+	}
+
+	public boolean isAncestorOrSelf(int ancestorIndex, int nodeIndex) {
+		return ancestorIndex == nodeIndex || isAncestor(ancestorIndex, nodeIndex);
+	}
+
+	/**
+	 * @return true if either node is an ancestor of the other
+	 */
+	public boolean isSubsumption(int nodeIndexA, int nodeIndexB) {
+		return isAncestor(nodeIndexA, nodeIndexB) || isAncestor(nodeIndexB, nodeIndexA);
+	}
+
+	public int getAncestorCount(int nodeIndex) {
+		return offsets[nodeIndex + 1] - offsets[nodeIndex];
+	}
+
+	/**
+	 * @param position from 0 to getAncestorCount - 1, ancestors are in ascending node index order
+	 */
+	public int getAncestor(int nodeIndex, int position) {
+		return ancestors[offsets[nodeIndex] + position];
+	}
+
+	public void forEachAncestor(int nodeIndex, IntConsumer consumer) {
+		for (int i = offsets[nodeIndex]; i < offsets[nodeIndex + 1]; i++) {
+			consumer.accept(ancestors[i]);
+		}
+	}
+
+	public int getNodeCount() {
+		return offsets.length - 1;
+	}
+}
@@ -1,32 +1,136 @@
 package io.kaicode.graphpattern.domain;
 
-import java.util.HashMap;
-import java.util.HashSet;
-import java.util.Map;
-import java.util.Set;
+import io.kaicode.graphpattern.util.IdDictionary;
+import io.kaicode.graphpattern.util.MappedTsvReader;
 
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+
+/**
+ * Builds the knowledge graph. Codes are dictionary encoded, the id of each code is the index of its node.
+ */
 public class GraphBuilder {
 
-	private final Map<String, Node> allNodes = new HashMap<>();
+	private static final byte[] ROOT_CODE = "138875005".getBytes(StandardCharsets.UTF_8);
+
+	private final IdDictionary codes = new IdDictionary();
+	private final List<Node> nodesByIndex = new ArrayList<>();
+	private int rootCodeIndex = -1;
 	private Node rootNode = null;
+	private String[] labels = new String[0];
+	private int[] nodeDepths;
 
 	public void addChildParentLink(String child, String parent) {
-		Node parentNode = allNodes.computeIfAbsent(parent, id -> new Node(parent));
-		Node childNode = allNodes.computeIfAbsent(child, id -> new Node(child));
-		parentNode.addChild(childNode);
+		int parentIndex = getOrAddNodeIndex(parent);
+		int childIndex = getOrAddNodeIndex(child);
+		addChildParentLink(childIndex, parentIndex);
+	}
 
-		if (parent.equals("138875005")) {// Keep root for debug browsing
+	public void addChildParentLink(int childIndex, int parentIndex) {
+		Node parentNode = nodesByIndex.get(parentIndex);
+		parentNode.addChild(nodesByIndex.get(childIndex));
+		nodeDepths = null;
+
+		if (parentIndex == rootCodeIndex) {// Keep root for debug browsing
 			rootNode = parentNode;
 		}
 	}
 
+	public int getOrAddNodeIndex(String code) {
+		return createNodeIfNew(codes.getOrAdd(code));
+	}
+
+	/**
+	 * Encode the code in a column of a row without creating a String.
+	 */
+	public int getOrAddNodeIndex(MappedTsvReader.Row row, int column) {
+		return createNodeIfNew(codes.getOrAdd(row, column));
+	}
+
+	public int getOrAddNodeIndex(byte[] code, int start, int length) {
+		return createNodeIfNew(codes.getOrAdd(code, start, length));
+	}
+
+	private int createNodeIfNew(int index) {
+		if (index == nodesByIndex.size()) {
+			nodesByIndex.add(new Node(codes, index));
+			if (rootCodeIndex == -1 && codes.get(ROOT_CODE, 0, ROOT_CODE.length) == index) {
+				rootCodeIndex = index;
+			}
+		}
+		return index;
+	}
+
 	public Node getNode(String code) {
-		return allNodes.get(code);
+		int index = codes.get(code);
+		return index != -1 ? nodesByIndex.get(index) : null;
+	}
+
+	/**
+	 * @return index of the node with the code in a column of a row, or -1 if not in the knowledge graph
+	 */
+	public int getNodeIndex(MappedTsvReader.Row row, int column) {
+		return codes.get(row, column);
+	}
+
+	public IdDictionary getCodes() {
+		return codes;
+	}
+
+	public void setLabel(int index, String label) {
+		if (labels.length <= index) {
+			labels = Arrays.copyOf(labels, Math.max(index + 1, nodesByIndex.size()));
+		}
+		labels[index] = label;
+	}
+
+	/**
+	 * @return display label of the node, or null if the node has no label
+	 */
+	public String getLabel(int index) {
+		return index < labels.length ? labels[index] : null;
+	}
+
+	public Node getNode(int index) {
+		return nodesByIndex.get(index);
+	}
+
+	public int getNodeCount() {
+		return nodesByIndex.size();
+	}
+
+	/**
+	 * Orders all nodes so that every node comes after all of its descendants (reverse topological order).
+	 * @return node indexes, children first
+	 */
+	public int[] getNodeIndexesChildrenFirst() {
+		int nodeCount = nodesByIndex.size();
+		int[] pendingChildren = new int[nodeCount];
+		int[] order = new int[nodeCount];
+		int added = 0;
+		for (Node node : nodesByIndex) {
+			pendingChildren[node.getIndex()] = node.getChildren().size();
+			if (pendingChildren[node.getIndex()] == 0) {
+				order[added++] = node.getIndex();
+			}
+		}
+		// The order array doubles as the work queue
+		for (int i = 0; i < added; i++) {
+			for (Node parent : nodesByIndex.get(order[i]).getParents()) {
+				if (--pendingChildren[parent.getIndex()] == 0) {
+					order[added++] = parent.getIndex();
+				}
+			}
+		}
+		if (added != nodeCount) {
+			throw new IllegalStateException(String.format("Knowledge graph contains a cycle, %s nodes could not be ordered.", nodeCount - added));
+		}
+		return order;
 	}
 
 	public Set<String> getAncestors(String code, int upwardLevelLimit) {
 		Set<String> ancestors = new HashSet<>();
-		Node node = allNodes.get(code);
+		Node node = getNode(code);
 		if (node != null) {
 			collectAncestors(node, ancestors, upwardLevelLimit);
 		}
@@ -37,6 +141,47 @@ public class GraphBuilder {
 		return rootNode;
 	}
 
+	/**
+	 * Depth of each node is the length of the longest path from the root node.
+	 * Nodes outside of the root node hierarchy have depth 0. If no root node is set every node without parents is treated as a root.
+	 * @return depths indexed by node index, shared so must not be modified
+	 */
+	public int[] getNodeDepths() {
+		if (nodeDepths == null) {
+			nodeDepths = calculateNodeDepths();
+		}
+		return nodeDepths;
+	}
+
+	/**
+	 * Set depths that were calculated before, for example when loading a snapshot. Cleared when another link is added.
+	 */
+	public void setNodeDepths(int[] nodeDepths) {
+		if (nodeDepths.length != nodesByIndex.size()) {
+			throw new IllegalArgumentException("Expected a depth for each node.");
+		}
+		this.nodeDepths = nodeDepths;
+	}
+
+	private int[] calculateNodeDepths() {
+		int[] childrenFirst = getNodeIndexesChildrenFirst();
+		int[] depths = new int[childrenFirst.length];
+		boolean[] withinRoot = new boolean[childrenFirst.length];
+		for (int i = childrenFirst.length - 1; i >= 0; i--) {
+			Node node = nodesByIndex.get(childrenFirst[i]);
+			if (node == rootNode || (rootNode == null && node.getParents().isEmpty())) {
+				withinRoot[node.getIndex()] = true;
+			}
+			for (Node parent : node.getParents()) {
+				if (withinRoot[parent.getIndex()]) {
+					withinRoot[node.getIndex()] = true;
+					depths[node.getIndex()] = Math.max(depths[node.getIndex()], depths[parent.getIndex()] + 1);
+				}
+			}
+		}
+		return depths;
+	}
+
 	private void collectAncestors(Node node, Set<String> ancestors, int upwardLevelLimit) {
 		if (upwardLevelLimit > 0) {
 			Set<Node> parents = node.getParents();
@@ -0,0 +1,345 @@
+package io.kaicode.graphpattern.domain;
+
+import io.kaicode.graphpattern.util.IdDictionary;
+import io.kaicode.graphpattern.util.MappedTsvReader;
+import org.roaringbitmap.RoaringBitmap;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+
+import static java.lang.String.format;
+
+/**
+ * Codes of every instance as compressed sparse rows in a memory mapped file, an offset per instance into one array of node indexes
+ * that are sorted and distinct within each instance. Only the header, the codes used and the instances are held on the heap,
+ * the operating system pages the rows in as they are read and out again when memory is short, so the instance data can be
+ * several times larger than the heap.
+ * <p>
+ * The file is built from the instance data and reused for as long as the data version in its header matches.
+ * Instance ids are the same as those given by InstanceDataLoader, the instances of the cohorts first and then the other instances
+ * in order of first appearance.
+ * <p>
+ * Read only once loaded, safe for concurrent use.
+ */
+public class InstanceCodeMatrix {
+
+	private static final int FILE_MAGIC = 0x4750434D;// GPCM
+	private static final int FILE_VERSION = 2;
+	// magic, version, data version, cohort instance count, instance count, code count, max code count, codes used bytes, instances bytes, unused
+	private static final int HEADER_BYTES = 48;
+	// Segments of 1GB get past the 2GB limit of a single mapping. Offsets and codes are aligned to their size so never cross a segment.
+	private static final int SEGMENT_SHIFT = 30;
+	private static final long SEGMENT_MASK = (1L << SEGMENT_SHIFT) - 1;
+
+	private final MappedByteBuffer[] segments;
+	private final long dataVersion;
+	private final int cohortInstanceCount;
+	private final int instanceCount;
+	private final long codeCount;
+	private final int maxCodeCount;
+	private final RoaringBitmap codesUsed;
+	private final RoaringBitmap instances;
+	private final long offsetsPosition;
+	private final long codesPosition;
+	private long rowsRead;
+
+	private InstanceCodeMatrix(MappedByteBuffer[] segments, long dataVersion, int cohortInstanceCount, int instanceCount, long codeCount, int maxCodeCount,
+			RoaringBitmap codesUsed, RoaringBitmap instances, long offsetsPosition) {
+		this.segments = segments;
+		this.dataVersion = dataVersion;
+		this.cohortInstanceCount = cohortInstanceCount;
+		this.instanceCount = instanceCount;
+		this.codeCount = codeCount;
+		this.maxCodeCount = maxCodeCount;
+		this.codesUsed = codesUsed;
+		this.instances = instances;
+		this.offsetsPosition = offsetsPosition;
+		codesPosition = offsetsPosition + (instanceCount + 1L) * Long.BYTES;
+	}
+
+	/**
+	 * Opens the matrix file, building it first when it is missing or was built from other data.
+	 * Rows without a code are left out, codes that are not in the knowledge graph are left out but their instances are kept.
+	 * @param instanceIds instance ids of the cohorts, not changed, instances only in the instance data are given the ids after these
+	 * @param dataVersion version of the knowledge graph, instance data and cohorts, see CohortScoreCache.getDataVersion
+	 */
+	public static InstanceCodeMatrix load(File instanceData, GraphBuilder knowledgeGraph, IdDictionary instanceIds, File matrixFile, long dataVersion) {
+		if (matrixFile.isFile()) {
+			InstanceCodeMatrix matrix = open(matrixFile);
+			if (matrix != null && matrix.dataVersion == dataVersion && matrix.cohortInstanceCount == instanceIds.size()) {
+				return matrix;
+			}
+			System.out.printf("Instance code matrix %s is out of date, rebuilding%n", matrixFile);
+		}
+		long rowsRead = build(instanceData, knowledgeGraph, instanceIds, matrixFile, dataVersion);
+		InstanceCodeMatrix matrix = open(matrixFile);
+		if (matrix == null) {
+			throw new RuntimeException(format("Failed to open instance code matrix %s after building it.", matrixFile));
+		}
+		matrix.rowsRead = rowsRead;
+		return matrix;
+	}
+
+	/**
+	 * @return the matrix, or null if the file is from another version or can not be read
+	 */
+	public static InstanceCodeMatrix open(File matrixFile) {
+		try (FileChannel channel = FileChannel.open(matrixFile.toPath(), StandardOpenOption.READ)) {
+			MappedByteBuffer[] segments = map(channel, FileChannel.MapMode.READ_ONLY, channel.size());
+			ByteBuffer header = segments[0];
+			if (header.getInt(0) != FILE_MAGIC || header.getInt(4) != FILE_VERSION) {
+				return null;
+			}
+			int codesUsedBytes = header.getInt(36);
+			int instancesBytes = header.getInt(40);
+			RoaringBitmap codesUsed = new RoaringBitmap();
+			codesUsed.deserialize(header.duplicate().position(HEADER_BYTES).limit(HEADER_BYTES + codesUsedBytes).slice());
+			RoaringBitmap instances = new RoaringBitmap();
+			instances.deserialize(header.duplicate().position(HEADER_BYTES + codesUsedBytes).limit(HEADER_BYTES + codesUsedBytes + instancesBytes).slice());
+			return new InstanceCodeMatrix(segments, header.getLong(8), header.getInt(16), header.getInt(20), header.getLong(24), header.getInt(32),
+					codesUsed, instances, getOffsetsPosition(codesUsedBytes + instancesBytes));
+		} catch (IOException | RuntimeException e) {
+			System.err.printf("Failed to read instance code matrix %s: %s%n", matrixFile, e.getMessage());
+			return null;
+		}
+	}
+
+	/**
+	 * Two passes over the instance data, the first counts the rows of each instance and the second writes each row into the slice
+	 * of its instance. Slices are then sorted and compacted in place, duplicate codes leave unused space at the end of the file.
+	 * Only the instance ids and an offset per instance are held on the heap.
+	 * @return number of rows read from the instance data
+	 */
+	private static long build(File instanceData, GraphBuilder knowledgeGraph, IdDictionary instanceIds, File matrixFile, long dataVersion) {
+		System.out.printf("Building instance code matrix %s%n", matrixFile);
+		IdDictionary otherInstanceIds = new IdDictionary();
+		IdDictionary notFoundCodes = new IdDictionary();
+		RoaringBitmap codesUsed = new RoaringBitmap();
+		RoaringBitmap instances = new RoaringBitmap();
+		long[][] offsets = {new long[Math.max(1024, instanceIds.size() + 1)]};
+		long[] rowsRead = new long[1];
+		File tempFile = new File(matrixFile.getPath() + ".tmp");
+		try {
+			// instance	year	code
+			// 0		1		2
+			MappedTsvReader.read(instanceData, "instance\tyear\tcode", row -> {
+				rowsRead[0]++;
+				if (row.isEmpty(2)) {// Some data may not be mapped
+					return;
+				}
+				// Has an id and is one of the instances even when none of its codes are in the knowledge graph
+				int instance = instanceIds.get(row, 0);
+				if (instance == -1) {
+					instance = instanceIds.size() + otherInstanceIds.getOrAdd(row, 0);
+				}
+				instances.add(instance);
+				if (instance + 1 >= offsets[0].length) {
+					offsets[0] = Arrays.copyOf(offsets[0], offsets[0].length * 2);
+				}
+				int nodeIndex = knowledgeGraph.getNodeIndex(row, 2);
+				if (nodeIndex == -1) {
+					int reported = notFoundCodes.size();
+					if (notFoundCodes.getOrAdd(row, 2) == reported) {// Report only once per code
+						System.err.printf("Code %s not found in knowledge graph%n", row.getString(2));
+					}
+					return;
+				}
+				// Counted one place along, turned into start offsets below
+				offsets[0][instance + 1]++;
+				codesUsed.add(nodeIndex);
+			});
+			int instanceCount = instanceIds.size() + otherInstanceIds.size();
+			long[] instanceOffsets = Arrays.copyOf(offsets[0], instanceCount + 1);
+			for (int instance = 0; instance < instanceCount; instance++) {
+				instanceOffsets[instance + 1] += instanceOffsets[instance];
+			}
+			long rowCount = instanceOffsets[instanceCount];
+
+			codesUsed.runOptimize();
+			instances.runOptimize();
+			int codesUsedBytes = codesUsed.serializedSizeInBytes();
+			int instancesBytes = instances.serializedSizeInBytes();
+			long offsetsPosition = getOffsetsPosition(codesUsedBytes + instancesBytes);
+			long codesPosition = offsetsPosition + (instanceCount + 1L) * Long.BYTES;
+			try (RandomAccessFile file = new RandomAccessFile(tempFile, "rw")) {
+				file.setLength(0);
+				file.setLength(codesPosition + rowCount * Integer.BYTES);
+				MappedByteBuffer[] segments = map(file.getChannel(), FileChannel.MapMode.READ_WRITE, file.length());
+
+				long[] fill = Arrays.copyOf(instanceOffsets, instanceCount);
+				MappedTsvReader.read(instanceData, "instance\tyear\tcode", row -> {
+					if (row.isEmpty(2)) {
+						return;
+					}
+					int nodeIndex = knowledgeGraph.getNodeIndex(row, 2);
+					if (nodeIndex == -1) {
+						return;
+					}
+					int instance = instanceIds.get(row, 0);
+					if (instance == -1) {
+						instance = instanceIds.size() + otherInstanceIds.get(row, 0);
+					}
+					putInt(segments, codesPosition + fill[instance]++ * Integer.BYTES, nodeIndex);
+				});
+
+				// Sort each slice, dropping duplicate codes, and move it down to follow the previous one
+				int[] codes = new int[16];
+				int maxCodeCount = 0;
+				long position = 0;
+				for (int instance = 0; instance < instanceCount; instance++) {
+					long from = instanceOffsets[instance];
+					int size = (int) (instanceOffsets[instance + 1] - from);
+					if (size > codes.length) {
+						codes = new int[Math.max(size, codes.length * 2)];
+					}
+					for (int i = 0; i < size; i++) {
+						codes[i] = getInt(segments, codesPosition + (from + i) * Integer.BYTES);
+					}
+					Arrays.sort(codes, 0, size);
+					instanceOffsets[instance] = position;
+					int distinct = 0;
+					for (int i = 0; i < size; i++) {
+						if (i == 0 || codes[i] != codes[i - 1]) {
+							putInt(segments, codesPosition + position++ * Integer.BYTES, codes[i]);
+							distinct++;
+						}
+					}
+					maxCodeCount = Math.max(maxCodeCount, distinct);
+				}
+				instanceOffsets[instanceCount] = position;
+				for (int instance = 0; instance <= instanceCount; instance++) {
+					putLong(segments, offsetsPosition + (long) instance * Long.BYTES, instanceOffsets[instance]);
+				}
+
+				ByteBuffer header = segments[0];
+				codesUsed.serialize(header.duplicate().position(HEADER_BYTES).limit(HEADER_BYTES + codesUsedBytes).slice());
+				instances.serialize(header.duplicate().position(HEADER_BYTES + codesUsedBytes).limit(HEADER_BYTES + codesUsedBytes + instancesBytes).slice());
+				header.putLong(8, dataVersion);
+				header.putInt(16, instanceIds.size());
+				header.putInt(20, instanceCount);
+				header.putLong(24, position);
+				header.putInt(32, maxCodeCount);
+				header.putInt(36, codesUsedBytes);
+				header.putInt(40, instancesBytes);
+				header.putInt(4, FILE_VERSION);
+				header.putInt(0, FILE_MAGIC);
+				for (MappedByteBuffer segment : segments) {
+					segment.force();
+				}
+			}
+			Files.move(tempFile.toPath(), matrixFile.toPath(), StandardCopyOption.REPLACE_EXISTING);
+			return rowsRead[0];
+		} catch (IOException e) {
+			tempFile.delete();
+			throw new RuntimeException(format("Failed to build instance code matrix %s.", matrixFile), e);
+		}
+	}
+
+	/**
+	 * @param bitmapBytes bytes of the bitmaps between the header and the offsets
+	 */
+	private static long getOffsetsPosition(int bitmapBytes) {
+		// Aligned for the longs that follow
+		return (HEADER_BYTES + bitmapBytes + Long.BYTES - 1) & -Long.BYTES;
+	}
+
+	private static MappedByteBuffer[] map(FileChannel channel, FileChannel.MapMode mode, long size) throws IOException {
+		MappedByteBuffer[] segments = new MappedByteBuffer[(int) ((size + SEGMENT_MASK) >>> SEGMENT_SHIFT)];
+		for (int i = 0; i < segments.length; i++) {
+			long start = (long) i << SEGMENT_SHIFT;
+			segments[i] = channel.map(mode, start, Math.min(SEGMENT_MASK + 1, size - start));
+		}
+		return segments;
+	}
+
+	private static int getInt(MappedByteBuffer[] segments, long position) {
+		return segments[(int) (position >>> SEGMENT_SHIFT)].getInt((int) (position & SEGMENT_MASK));
+	}
+
+	private static void putInt(MappedByteBuffer[] segments, long position, int value) {
+		segments[(int) (position >>> SEGMENT_SHIFT)].putInt((int) (position & SEGMENT_MASK), value);
+	}
+
+	private static void putLong(MappedByteBuffer[] segments, long position, long value) {
+		segments[(int) (position >>> SEGMENT_SHIFT)].putLong((int) (position & SEGMENT_MASK), value);
+	}
+
+	/**
+	 * @return number of instances, instances of the cohorts without codes included
+	 */
+	public int getInstanceCount() {
+		return instanceCount;
+	}
+
+	/**
+	 * @return number of codes over all instances
+	 */
+	public long getCodeCount() {
+		return codeCount;
+	}
+
+	/**
+	 * @return most codes of any one instance
+	 */
+	public int getMaxCodeCount() {
+		return maxCodeCount;
+	}
+
+	/**
+	 * @return rows read from the instance data to build the file, 0 if an existing file was opened
+	 */
+	public long getRowsRead() {
+		return rowsRead;
+	}
+
+	/**
+	 * @return position of the first code of the instance, its codes end at the first position of the next instance
+	 */
+	public long getFirstPosition(int instance) {
+		long position = offsetsPosition + (long) instance * Long.BYTES;
+		return segments[(int) (position >>> SEGMENT_SHIFT)].getLong((int) (position & SEGMENT_MASK));
+	}
+
+	/**
+	 * @return node index of the code at the position
+	 */
+	public int getNodeIndex(long position) {
+		return getInt(segments, codesPosition + position * Integer.BYTES);
+	}
+
+	/**
+	 * Copies the codes of the instance, sorted.
+	 * @param codes filled from the start, must have room for getMaxCodeCount codes
+	 * @return number of codes copied
+	 */
+	public int getCodes(int instance, int[] codes) {
+		long from = getFirstPosition(instance);
+		int size = (int) (getFirstPosition(instance + 1) - from);
+		for (int i = 0; i < size; i++) {
+			codes[i] = getNodeIndex(from + i);
+		}
+		return size;
+	}
+
+	/**
+	 * @return every instance with a row that has a code, known to the knowledge graph or not, the same as InstanceDataLoader
+	 */
+	public RoaringBitmap getInstances() {
+		return instances.clone();
+	}
+
+	/**
+	 * @return index of every node that is the code of an instance
+	 */
+	public RoaringBitmap getCodesUsed() {
+		return codesUsed.clone();
+	}
+}
@@ -1,5 +1,8 @@
 package io.kaicode.graphpattern.domain;
 
+import io.kaicode.graphpattern.util.IdDictionary;
+import org.roaringbitmap.RoaringBitmap;
+
 import java.util.Collections;
 import java.util.HashSet;
 import java.util.Objects;
@@ -8,21 +11,36 @@ import java.util.Set;
 public class Node {
 
 	private final String code;
+	private final IdDictionary codes;
+	private final int index;
 	private final Set<Node> parents;
 	private final Set<Node> children;
 	private Set<Node> links;
-	private final Set<String> groupAInstanceIds;
-	private final Set<String> groupBInstanceIds;
-	private float groupDifferenceWithSubtypes = -2;
-	private float groupDifferenceWithSubtypesBackup = 0;
+	private final RoaringBitmap groupAInstances;
+	private final RoaringBitmap groupBInstances;
 	private int depth;
 
 	public Node(String code) {
+		this(code, null, -1);
+	}
+
+	/**
+	 * Node of a dictionary encoded graph, the code is only decoded when requested.
+	 * @param codes dictionary of the graph the node belongs to
+	 * @param index id of the node's code within the dictionary
+	 */
+	public Node(IdDictionary codes, int index) {
+		this(null, codes, index);
+	}
+
+	private Node(String code, IdDictionary codes, int index) {
 		this.code = code;
+		this.codes = codes;
+		this.index = index;
 		parents = new HashSet<>();
 		children = new HashSet<>();
-		groupAInstanceIds = new HashSet<>();
-		groupBInstanceIds = new HashSet<>();
+		groupAInstances = new RoaringBitmap();
+		groupBInstances = new RoaringBitmap();
 	}
 
 	public Node addChild(Node childNode) {
@@ -33,7 +51,7 @@ public class Node {
 
 	public Node getOrAddChild(String id) {
 		for (Node child : getChildren()) {
-			if (child.code.equals(id)) {
+			if (child.getCode().equals(id)) {
 				return child;
 			}
 		}
@@ -47,16 +65,42 @@ public class Node {
 		links.add(linkedNode);
 	}
 
-	public void addGroupAInstance(String id) {
-		groupAInstanceIds.add(id);
+	/**
+	 * @param instanceOrdinal dense int ordinal of the instance, assigned at load time
+	 */
+	public void addGroupAInstance(int instanceOrdinal) {
+		groupAInstances.add(instanceOrdinal);
+	}
+
+	/**
+	 * @param instanceOrdinal dense int ordinal of the instance, assigned at load time
+	 */
+	public void addGroupBInstance(int instanceOrdinal) {
+		groupBInstances.add(instanceOrdinal);
+	}
+
+	public void addGroupAInstances(RoaringBitmap instanceOrdinals) {
+		groupAInstances.or(instanceOrdinals);
+	}
+
+	public void addGroupBInstances(RoaringBitmap instanceOrdinals) {
+		groupBInstances.or(instanceOrdinals);
 	}
 
-	public void addGroupBInstance(String id) {
-		groupBInstanceIds.add(id);
+	public RoaringBitmap getGroupAInstances() {
+		return groupAInstances;
+	}
+
+	public RoaringBitmap getGroupBInstances() {
+		return groupBInstances;
 	}
 
 	public String getCode() {
-		return code;
+		return code != null ? code : codes.decode(index);
+	}
+
+	public int getIndex() {
+		return index;
 	}
 
 	public Set<Node> getLinks() {
@@ -84,66 +128,20 @@ public class Node {
 	}
 
 	public Set<String> getCodeAndDescendantCodes(Set<String> codes) {
-		codes.add(code);
+		codes.add(getCode());
 		for (Node child : children) {
 			child.getCodeAndDescendantCodes(codes);
 		}
 		return codes;
 	}
 
-	public void calculateGroupDifferenceWithSubtypes(int groupASize, int groupBSize, boolean forceZero) {
-		if (forceZero) {
-			groupDifferenceWithSubtypes = 0;
-		} else if (groupDifferenceWithSubtypes == -2) {
-			// Count unique patients for this concept and all descendants, in each group
-			int conceptAndDescendantsInstanceCountInGroupA = getAggregateGroupACount();
-			int conceptAndDescendantsInstanceCountInGroupB = getAggregateGroupBCount();
-
-			float aStrength = conceptAndDescendantsInstanceCountInGroupA / (float) groupASize;
-			float bStrength = conceptAndDescendantsInstanceCountInGroupB / (float) groupBSize;
-			this.groupDifferenceWithSubtypes = bStrength - aStrength;
-			if (this.groupDifferenceWithSubtypesBackup == 0) {
-				this.groupDifferenceWithSubtypesBackup = groupDifferenceWithSubtypes;
+	public RoaringBitmap getIndexAndDescendantIndexes(RoaringBitmap indexes) {
+		if (indexes.checkedAdd(index)) {
+			for (Node child : children) {
+				child.getIndexAndDescendantIndexes(indexes);
 			}
 		}
-	}
-
-	public Float getGroupDifferenceWithSubtypes() {
-		return groupDifferenceWithSubtypes;
-	}
-
-	public float getGroupDifferenceWithSubtypesBackup() {
-		return groupDifferenceWithSubtypesBackup;
-	}
-
-	private int getAggregateGroupACount() {
-		Set<String> instanceIds = new HashSet<>(groupAInstanceIds);
-		for (Node child : children) {
-			child.collectGroupAInstances(instanceIds);
-		}
-		return instanceIds.size();
-	}
-
-	private void collectGroupAInstances(Set<String> instanceIds) {
-		instanceIds.addAll(groupAInstanceIds);
-		for (Node child : children) {
-			child.collectGroupAInstances(instanceIds);
-		}
-	}
-
-	private int getAggregateGroupBCount() {
-		Set<String> instanceIds = new HashSet<>(groupBInstanceIds);
-		for (Node child : children) {
-			child.collectGroupBInstances(instanceIds);
-		}
-		return instanceIds.size();
-	}
-
-	private void collectGroupBInstances(Set<String> instanceIds) {
-		instanceIds.addAll(groupBInstanceIds);
-		for (Node child : children) {
-			child.collectGroupBInstances(instanceIds);
-		}
+		return indexes;
 	}
 
 	/**
@@ -165,7 +163,7 @@ public class Node {
 
 	@Override
 	public String toString() {
-		return code + " diff:" + groupDifferenceWithSubtypesBackup;
+		return getCode();
 	}
 
 	@Override
@@ -173,11 +171,15 @@ public class Node {
 		if (this == o) return true;
 		if (o == null || getClass() != o.getClass()) return false;
 		Node node = (Node) o;
+		if (codes != null || node.codes != null) {
+			// Dictionary encoded nodes are equal within the same graph only
+			return codes == node.codes && index == node.index;
+		}
 		return code.equals(node.code);
 	}
 
 	@Override
 	public int hashCode() {
-		return Objects.hash(code);
+		return codes != null ? index : Objects.hash(code);
 	}
 }
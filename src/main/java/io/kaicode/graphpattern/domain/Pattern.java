@@ -7,25 +7,50 @@ public class Pattern {
 	private final Set<Node> nodes;
 	private final Set<Node> optionalNodes;
 	private Set<Node> allNodes;
-	private final int hash;
-	private Set<Integer> subsumed;
+	private final int[] nodeIds;
+	private final long key;
+	private Set<Long> subsumed;
 	private int count;
 	private float coverage;
 	private float accuracy;
 
-	public Pattern(Set<Node> nodes) {
+	/**
+	 * @param nodeIds ids of the nodes, sorted, the canonical form of the pattern used for equality
+	 */
+	public Pattern(Set<Node> nodes, int[] nodeIds) {
 		this.nodes = nodes;
 		this.allNodes = nodes;
 		this.optionalNodes = new HashSet<>();
+		this.nodeIds = nodeIds;
 		subsumed = new HashSet<>();
-		hash = Objects.hash(nodes);// Precompute hashcode for faster comparison
+		key = createKey(nodeIds);// Precompute key for faster comparison
 		count = 0;
 	}
 
+	/**
+	 * @return 64-bit hash of the sorted node ids
+	 */
+	public static long createKey(int[] nodeIds) {
+		long key = nodeIds.length;
+		for (int nodeId : nodeIds) {
+			key = mix(key ^ nodeId);
+		}
+		return key;
+	}
+
+	private static long mix(long value) {
+		value *= 0x9E3779B97F4A7C15L;
+		return value ^ (value >>> 29);
+	}
+
 	public void incrementCount() {
 		count++;
 	}
 
+	public void setCount(int count) {
+		this.count = count;
+	}
+
 	public float getCoverageTimesAccuracy() {
 		return coverage * accuracy;
 	}
@@ -44,7 +69,7 @@ public class Pattern {
 	public void subsume(Pattern otherPattern) {
 		this.coverage += otherPattern.getCoverage();
 		this.count += otherPattern.getCount();
-		this.subsumed.add(otherPattern.hash);
+		this.subsumed.add(otherPattern.key);
 	}
 
 	public Set<Node> getNodes() {
@@ -80,14 +105,22 @@ public class Pattern {
 		return accuracy;
 	}
 
-	public Set<Integer> getSubsumed() {
+	public int[] getNodeIds() {
+		return nodeIds;
+	}
+
+	public long getKey() {
+		return key;
+	}
+
+	public Set<Long> getSubsumed() {
 		return subsumed;
 	}
 
 	@Override
 	public String toString() {
 		return "Pattern{" +
-				"hash=" + hash +
+				"key=" + Long.toHexString(key) +
 				", subsumed=" + subsumed +
 				", count=" + count +
 				", coverage=" + coverage +
@@ -112,11 +145,11 @@ public class Pattern {
 		if (this == o) return true;
 		if (o == null || getClass() != o.getClass()) return false;
 		Pattern pattern = (Pattern) o;
-		return hash == pattern.hash;
+		return key == pattern.key && Arrays.equals(nodeIds, pattern.nodeIds);
 	}
 
 	@Override
 	public int hashCode() {
-		return hash;
+		return (int) (key ^ (key >>> 32));
 	}
 }
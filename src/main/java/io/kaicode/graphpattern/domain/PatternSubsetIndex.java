@@ -0,0 +1,85 @@
+package io.kaicode.graphpattern.domain;
+
+import org.roaringbitmap.RoaringBitmap;
+
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Set-trie over the sorted node ids of patterns, finds every indexed pattern whose nodes are a subset of a query pattern.
+ * A search only follows branches labelled with nodes of the query, so the work follows the number of matching prefixes
+ * rather than the number of patterns.
+ */
+public class PatternSubsetIndex {
+
+	private final TrieNode root = new TrieNode();
+
+	/**
+	 * @param patterns patterns to index, results are positions in this list
+	 * @param include positions of the patterns to index, others are left out
+	 */
+	public PatternSubsetIndex(List<Pattern> patterns, RoaringBitmap include) {
+		include.forEach((int position) -> {
+			TrieNode trieNode = root;
+			for (int nodeId : patterns.get(position).getNodeIds()) {
+				trieNode = trieNode.getOrAddChild(nodeId);
+			}
+			trieNode.patterns.add(position);
+		});
+	}
+
+	/**
+	 * @param nodeIds sorted node ids of the query pattern
+	 * @return positions of the indexed patterns with nodes that are all in the query, including a pattern equal to the query
+	 */
+	public RoaringBitmap getSubsets(int[] nodeIds) {
+		RoaringBitmap subsets = new RoaringBitmap();
+		subsets.or(root.patterns);// Patterns without nodes
+		collectSubsets(root, nodeIds, 0, subsets);
+		return subsets;
+	}
+
+	private void collectSubsets(TrieNode trieNode, int[] nodeIds, int from, RoaringBitmap subsets) {
+		for (int i = from; i < nodeIds.length && trieNode.childCount > 0; i++) {
+			TrieNode child = trieNode.getChild(nodeIds[i]);
+			if (child != null) {
+				subsets.or(child.patterns);
+				collectSubsets(child, nodeIds, i + 1, subsets);
+			}
+		}
+	}
+
+	private static final class TrieNode {
+
+		// Sorted by label for binary search
+		private int[] labels = new int[0];
+		private TrieNode[] children = new TrieNode[0];
+		private int childCount;
+		private final RoaringBitmap patterns = new RoaringBitmap();
+
+		private TrieNode getChild(int label) {
+			int position = Arrays.binarySearch(labels, 0, childCount, label);
+			return position >= 0 ? children[position] : null;
+		}
+
+		private TrieNode getOrAddChild(int label) {
+			int position = Arrays.binarySearch(labels, 0, childCount, label);
+			if (position >= 0) {
+				return children[position];
+			}
+			int insertAt = -position - 1;
+			if (childCount == labels.length) {
+				int length = Math.max(2, childCount * 2);
+				labels = Arrays.copyOf(labels, length);
+				children = Arrays.copyOf(children, length);
+			}
+			System.arraycopy(labels, insertAt, labels, insertAt + 1, childCount - insertAt);
+			System.arraycopy(children, insertAt, children, insertAt + 1, childCount - insertAt);
+			TrieNode child = new TrieNode();
+			labels[insertAt] = label;
+			children[insertAt] = child;
+			childCount++;
+			return child;
+		}
+	}
+}
@@ -0,0 +1,167 @@
+package io.kaicode.graphpattern.domain;
+
+import io.kaicode.graphpattern.util.IdDictionary;
+import io.kaicode.graphpattern.util.MappedTsvReader;
+import org.roaringbitmap.RoaringBitmap;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Arrays;
+
+/**
+ * Instance data rows with their year, held as columns of instance, year and node index, sorted by instance then year then node index.
+ * The rows of an instance are one slice, in time order, found through an offset array.
+ * The instances that have rows in each year are also kept so that the instances touched by a change of years can be found.
+ * <p>
+ * Read only once loaded, safe for concurrent use.
+ */
+public class TimedInstanceStore {
+
+	private final int[] instanceOffsets;
+	private final int[] years;
+	private final int[] nodeIndexes;
+	private final int[] distinctYears;
+	private final RoaringBitmap[] yearInstances;
+
+	private TimedInstanceStore(int[] instanceOffsets, int[] years, int[] nodeIndexes) {
+		this.instanceOffsets = instanceOffsets;
+		this.years = years;
+		this.nodeIndexes = nodeIndexes;
+		distinctYears = Arrays.stream(years).distinct().sorted().toArray();
+		yearInstances = new RoaringBitmap[distinctYears.length];
+		for (int i = 0; i < yearInstances.length; i++) {
+			yearInstances[i] = new RoaringBitmap();
+		}
+		for (int instance = 0; instance < instanceOffsets.length - 1; instance++) {
+			for (int row = instanceOffsets[instance]; row < instanceOffsets[instance + 1]; row++) {
+				yearInstances[Arrays.binarySearch(distinctYears, years[row])].add(instance);
+			}
+		}
+	}
+
+	/**
+	 * Rows without a code or without a year are left out. Rows with a code that is not in the knowledge graph are kept with node index -1,
+	 * so that the instance is still in the windows of those years, the same as it is in group A or B when loaded without years.
+	 * @param instanceIds instance ids of the cohorts, instances only in the instance data are added
+	 */
+	public static TimedInstanceStore load(File instanceData, GraphBuilder knowledgeGraph, IdDictionary instanceIds) {
+		IntColumn instanceColumn = new IntColumn();
+		IntColumn yearColumn = new IntColumn();
+		IntColumn nodeColumn = new IntColumn();
+		IdDictionary notFoundCodes = new IdDictionary();
+		int[] withoutYear = new int[1];
+		try {
+			// instance	year	code
+			// 0		1		2
+			MappedTsvReader.read(instanceData, "instance\tyear\tcode", row -> {
+				if (row.isEmpty(2)) {// Some data may not be mapped
+					return;
+				}
+				int nodeIndex = knowledgeGraph.getNodeIndex(row, 2);
+				if (nodeIndex == -1) {
+					int reported = notFoundCodes.size();
+					if (notFoundCodes.getOrAdd(row, 2) == reported) {// Report only once per code
+						System.err.printf("Code %s not found in knowledge graph%n", row.getString(2));
+					}
+				}
+				if (row.isEmpty(1)) {
+					withoutYear[0]++;
+					return;
+				}
+				instanceColumn.add(instanceIds.getOrAdd(row, 0));
+				yearColumn.add(row.getInt(1));
+				nodeColumn.add(nodeIndex);
+			});
+		} catch (IOException e) {
+			throw new RuntimeException(e);
+		}
+		if (withoutYear[0] > 0) {
+			System.err.printf("%s rows without a year left out%n", withoutYear[0]);
+		}
+
+		// Counting sort by instance, then each slice sorted by year and node index
+		int rowCount = instanceColumn.size;
+		int[] instanceOffsets = new int[instanceIds.size() + 1];
+		for (int row = 0; row < rowCount; row++) {
+			instanceOffsets[instanceColumn.values[row] + 1]++;
+		}
+		for (int instance = 0; instance < instanceIds.size(); instance++) {
+			instanceOffsets[instance + 1] += instanceOffsets[instance];
+		}
+		int minYear = Arrays.stream(yearColumn.values, 0, rowCount).min().orElse(0);
+		long[] yearNodes = new long[rowCount];
+		int[] fill = Arrays.copyOf(instanceOffsets, instanceIds.size());
+		for (int row = 0; row < rowCount; row++) {
+			yearNodes[fill[instanceColumn.values[row]]++] = ((long) (yearColumn.values[row] - minYear) << 32) | (nodeColumn.values[row] & 0xFFFFFFFFL);
+		}
+		int[] years = new int[rowCount];
+		int[] nodeIndexes = new int[rowCount];
+		for (int instance = 0; instance < instanceIds.size(); instance++) {
+			Arrays.sort(yearNodes, instanceOffsets[instance], instanceOffsets[instance + 1]);
+		}
+		for (int row = 0; row < rowCount; row++) {
+			years[row] = (int) (yearNodes[row] >>> 32) + minYear;
+			nodeIndexes[row] = (int) yearNodes[row];
+		}
+		return new TimedInstanceStore(instanceOffsets, years, nodeIndexes);
+	}
+
+	public int getInstanceCount() {
+		return instanceOffsets.length - 1;
+	}
+
+	public int getRowCount() {
+		return years.length;
+	}
+
+	/**
+	 * @return first row of the instance, its rows end at the first row of the next instance
+	 */
+	public int getFirstRow(int instance) {
+		return instanceOffsets[instance];
+	}
+
+	public int getYear(int row) {
+		return years[row];
+	}
+
+	/**
+	 * @return node index of the row, -1 for a code that is not in the knowledge graph
+	 */
+	public int getNodeIndex(int row) {
+		return nodeIndexes[row];
+	}
+
+	/**
+	 * @return every year with rows, sorted
+	 */
+	public int[] getYears() {
+		return distinctYears.clone();
+	}
+
+	/**
+	 * @return instances with rows in any year of the range, inclusive
+	 */
+	public RoaringBitmap getInstances(int fromYear, int toYear) {
+		RoaringBitmap instances = new RoaringBitmap();
+		for (int i = 0; i < distinctYears.length; i++) {
+			if (distinctYears[i] >= fromYear && distinctYears[i] <= toYear) {
+				instances.or(yearInstances[i]);
+			}
+		}
+		return instances;
+	}
+
+	private static final class IntColumn {
+
+		private int[] values = new int[1024];
+		private int size;
+
+		private void add(int value) {
+			if (size == values.length) {
+				values = Arrays.copyOf(values, size * 2);
+			}
+			values[size++] = value;
+		}
+	}
+}
@@ -0,0 +1,63 @@
+package io.kaicode.graphpattern.service;
+
+import org.roaringbitmap.RoaringBitmap;
+import org.springframework.http.HttpStatus;
+import org.springframework.web.bind.annotation.*;
+import org.springframework.web.server.ResponseStatusException;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import static java.lang.String.format;
+
+@RestController
+public class AnalysisController {
+
+	private final AnalysisIndex analysisIndex;
+
+	public AnalysisController(AnalysisIndex analysisIndex) {
+		this.analysisIndex = analysisIndex;
+	}
+
+	/**
+	 * @return size of each cohort
+	 */
+	@GetMapping("/cohorts")
+	public Map<String, Integer> getCohorts() {
+		Map<String, Integer> cohortSizes = new LinkedHashMap<>();
+		analysisIndex.getCohorts().forEach((cohort, instances) -> cohortSizes.put(cohort, instances.getCardinality()));
+		return cohortSizes;
+	}
+
+	/**
+	 * @return timings and counts of each phase, in the Prometheus text format
+	 */
+	@GetMapping(value = "/metrics", produces = "text/plain; version=0.0.4")
+	public String getMetrics() {
+		return analysisIndex.getMetrics().toPrometheusText();
+	}
+
+	@PostMapping("/clusters")
+	public AnalysisResult findClusters(@RequestBody AnalysisRequest request) {
+		RoaringBitmap groupB;
+		if (request.getCohort() != null) {
+			groupB = analysisIndex.getCohort(request.getCohort());
+			if (groupB == null) {
+				throw new ResponseStatusException(HttpStatus.NOT_FOUND, format("Cohort '%s' is not present in the cohorts file", request.getCohort()));
+			}
+		} else if (request.getInstances() != null) {
+			groupB = analysisIndex.getInstances(request.getInstances());
+		} else {
+			throw new ResponseStatusException(HttpStatus.BAD_REQUEST, "Either cohort or instances must be given");
+		}
+		if (request.getMaxClusters() < 1) {
+			throw new ResponseStatusException(HttpStatus.BAD_REQUEST, "maxClusters must be at least 1");
+		}
+
+		AnalysisResult result = analysisIndex.analyse(groupB, request.getMinDiff(), request.getMaxClusters(), request.isClusterMap());
+		if (result.getGroupBSize() == 0) {
+			throw new ResponseStatusException(HttpStatus.BAD_REQUEST, "GroupB cohort is empty");
+		}
+		return result;
+	}
+}
@@ -0,0 +1,168 @@
+package io.kaicode.graphpattern.service;
+
+import io.kaicode.graphpattern.ClusterMapWriter;
+import io.kaicode.graphpattern.InstanceDataLoader;
+import io.kaicode.graphpattern.KnowledgeGraphLoader;
+import io.kaicode.graphpattern.clustering.ClusterSelector;
+import io.kaicode.graphpattern.clustering.CohortScoreCache;
+import io.kaicode.graphpattern.clustering.CohortScores;
+import io.kaicode.graphpattern.clustering.SubtreeAggregator;
+import io.kaicode.graphpattern.clustering.SubtreeInstanceIndex;
+import io.kaicode.graphpattern.domain.AncestorIndex;
+import io.kaicode.graphpattern.domain.GraphBuilder;
+import io.kaicode.graphpattern.domain.Node;
+import io.kaicode.graphpattern.util.IdDictionary;
+import io.kaicode.graphpattern.util.RunMetrics;
+import org.roaringbitmap.RoaringBitmap;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ForkJoinPool;
+
+/**
+ * Knowledge graph and instance data held in memory so that any cohort can be analysed against the rest without reloading.
+ * Nothing is modified after loading so one index is shared by concurrent requests.
+ */
+public class AnalysisIndex {
+
+	private final GraphBuilder knowledgeGraph;
+	private final AncestorIndex ancestorIndex;
+	private final IdDictionary instanceIds;
+	private final Map<String, RoaringBitmap> cohorts;
+	private final RoaringBitmap allCodesUsed;
+	private final SubtreeInstanceIndex subtreeInstanceIndex;
+	private final long dataVersion;
+	private final CohortScoreCache scoreCache;
+	private final ForkJoinPool pool;
+	private final RunMetrics metrics = new RunMetrics();
+
+	/**
+	 * @param knowledgeGraphSnapshot path of a compiled knowledge graph snapshot to load from, or create, null to always load the TSV files
+	 * @param threads number of threads used to load and count, 1 to use the calling thread
+	 * @param scoreCache scores of recent cohorts, so that a cohort can be selected again with other thresholds without counting
+	 */
+	public AnalysisIndex(File knowledgeGraphHierarchy, File knowledgeGraphLabels, File instanceData, File instanceCohorts, File knowledgeGraphSnapshot,
+			int threads, CohortScoreCache scoreCache) {
+
+		pool = threads > 1 ? metrics.newPool(threads) : null;
+		this.scoreCache = scoreCache;
+		dataVersion = CohortScoreCache.getDataVersion(knowledgeGraphHierarchy, instanceData, instanceCohorts);
+		GraphBuilder loadedKnowledgeGraph = metrics.call("load-knowledge-graph",
+				() -> KnowledgeGraphLoader.load(knowledgeGraphHierarchy, knowledgeGraphLabels, knowledgeGraphSnapshot));
+		knowledgeGraph = loadedKnowledgeGraph;
+		ancestorIndex = metrics.call("enrichment", () -> {
+			loadedKnowledgeGraph.getNodeDepths();// Calculated up front so that requests only read them
+			return new AncestorIndex(loadedKnowledgeGraph);
+		});
+
+		instanceIds = new IdDictionary();
+		// Loaded without a group B, so group A of each node holds all of its instances
+		RoaringBitmap allInstances = new RoaringBitmap();
+		allCodesUsed = new RoaringBitmap();
+		try (RunMetrics.Phase phase = metrics.start("load-instance-data")) {
+			cohorts = InstanceDataLoader.loadCohorts(instanceCohorts, instanceIds);
+			if (threads > 1) {
+				// Read on threads of the file reader
+				phase.markPartialAllocation();
+			}
+			phase.addRowsParsed(InstanceDataLoader.loadInstanceData(instanceData, knowledgeGraph, instanceIds, new RoaringBitmap(), threads, allInstances,
+					allCodesUsed));
+		}
+		subtreeInstanceIndex = metrics.call("index-subtrees", () -> new SubtreeInstanceIndex(
+				new SubtreeAggregator(pool).aggregateSubtrees(loadedKnowledgeGraph, Node::getGroupAInstances), allInstances));
+		System.out.printf("Analysis index ready, %s nodes, %s instances, %s cohorts%n", knowledgeGraph.getNodeCount(), allInstances.getCardinality(), cohorts.size());
+	}
+
+	/**
+	 * @return instances of the cohort, or null if there is no such cohort
+	 */
+	public RoaringBitmap getCohort(String cohort) {
+		return cohorts.get(cohort);
+	}
+
+	public Map<String, RoaringBitmap> getCohorts() {
+		return cohorts;
+	}
+
+	/**
+	 * @return instance ids from the dictionary, instances not in the instance data are left out
+	 */
+	public RoaringBitmap getInstances(List<String> instances) {
+		RoaringBitmap bitmap = new RoaringBitmap();
+		for (String instance : instances) {
+			int instanceId = instanceIds.get(instance);
+			if (instanceId != -1) {
+				bitmap.add(instanceId);
+			}
+		}
+		return bitmap;
+	}
+
+	/**
+	 * Selects the nodes that best differentiate group B from every other instance.
+	 * @param includeClusterMap whether to map each used code to the clusters it falls under
+	 */
+	public AnalysisResult analyse(RoaringBitmap groupB, float minDiff, int maxClusters, boolean includeClusterMap) {
+		RoaringBitmap groupBWithData = RoaringBitmap.and(groupB, subtreeInstanceIndex.getAllInstances());
+		CohortScores scores;
+		try (RunMetrics.Phase phase = metrics.start("aggregation")) {
+			scores = scoreCache.getOrCompute(dataVersion, groupBWithData, () -> {
+				int groupBSize = groupBWithData.getCardinality();
+				phase.addNodesScored(knowledgeGraph.getNodeCount());
+				return new CohortScores(subtreeInstanceIndex.count(groupBWithData, pool), subtreeInstanceIndex.getInstanceCount() - groupBSize, groupBSize);
+			});
+		}
+		int groupASize = scores.getGroupASize();
+		int groupBSize = scores.getGroupBSize();
+		float[] differences = scores.getDifferences();
+		int[] chosenNodeIndexes;
+		try (RunMetrics.Phase phase = metrics.start("selection")) {
+			ClusterSelector clusterSelector = new ClusterSelector(knowledgeGraph, ancestorIndex);
+			chosenNodeIndexes = clusterSelector.select(differences, maxClusters, minDiff);
+			phase.addCandidatesEvaluated(clusterSelector.getCandidatesEvaluated());
+		}
+
+		IdDictionary codes = knowledgeGraph.getCodes();
+		boolean[] chosenNodes = new boolean[knowledgeGraph.getNodeCount()];
+		List<AnalysisResult.Cluster> clusters = new ArrayList<>();
+		for (int nodeIndex : chosenNodeIndexes) {
+			chosenNodes[nodeIndex] = true;
+			RoaringBitmap clusterCodeIndexes = RoaringBitmap.and(knowledgeGraph.getNode(nodeIndex).getIndexAndDescendantIndexes(new RoaringBitmap()), allCodesUsed);
+			List<String> clusterCodes = new ArrayList<>();
+			clusterCodeIndexes.forEach((int clusterCode) -> clusterCodes.add(codes.decode(clusterCode)));
+			clusters.add(new AnalysisResult.Cluster(codes.decode(nodeIndex), differences[nodeIndex], knowledgeGraph.getLabel(nodeIndex), clusterCodes));
+		}
+
+		List<AnalysisResult.ClusterMapping> clusterMap = null;
+		if (includeClusterMap) {
+			clusterMap = metrics.call("writing", () -> {
+				// Found the same way as the cluster map file of GraphClustering
+				ClusterMapWriter.CodeClusters codeClusters = new ClusterMapWriter.CodeClusters(knowledgeGraph, allCodesUsed, chosenNodes);
+				List<AnalysisResult.ClusterMapping> mappings = new ArrayList<>();
+				for (int position = 0; position < codeClusters.getUsedCodeCount(); position++) {
+					String usedCode = codes.decode(codeClusters.getUsedCode(position));
+					for (int i = codeClusters.getFirstCluster(position); i < codeClusters.getFirstCluster(position + 1); i++) {
+						mappings.add(new AnalysisResult.ClusterMapping(usedCode, codes.decode(codeClusters.getCluster(i))));
+					}
+				}
+				return mappings;
+			});
+		}
+		return new AnalysisResult(groupASize, groupBSize, clusters, clusterMap);
+	}
+
+	/**
+	 * @return totals of each phase, of loading and of every analysis so far
+	 */
+	public RunMetrics getMetrics() {
+		return metrics;
+	}
+
+	public void shutdown() {
+		if (pool != null) {
+			pool.shutdown();
+		}
+	}
+}
@@ -0,0 +1,55 @@
+package io.kaicode.graphpattern.service;
+
+import java.util.List;
+
+/**
+ * Group B is either a cohort from the cohorts file or a list of instance ids. Group A is every other instance.
+ */
+public class AnalysisRequest {
+
+	private String cohort;
+	private List<String> instances;
+	private float minDiff;
+	private int maxClusters = 100;
+	private boolean clusterMap = true;
+
+	public String getCohort() {
+		return cohort;
+	}
+
+	public void setCohort(String cohort) {
+		this.cohort = cohort;
+	}
+
+	public List<String> getInstances() {
+		return instances;
+	}
+
+	public void setInstances(List<String> instances) {
+		this.instances = instances;
+	}
+
+	public float getMinDiff() {
+		return minDiff;
+	}
+
+	public void setMinDiff(float minDiff) {
+		this.minDiff = minDiff;
+	}
+
+	public int getMaxClusters() {
+		return maxClusters;
+	}
+
+	public void setMaxClusters(int maxClusters) {
+		this.maxClusters = maxClusters;
+	}
+
+	public boolean isClusterMap() {
+		return clusterMap;
+	}
+
+	public void setClusterMap(boolean clusterMap) {
+		this.clusterMap = clusterMap;
+	}
+}
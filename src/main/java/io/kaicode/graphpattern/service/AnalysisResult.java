@@ -0,0 +1,87 @@
+package io.kaicode.graphpattern.service;
+
+import com.fasterxml.jackson.annotation.JsonInclude;
+
+import java.util.List;
+
+@JsonInclude(JsonInclude.Include.NON_NULL)
+public class AnalysisResult {
+
+	private final int groupASize;
+	private final int groupBSize;
+	private final List<Cluster> clusters;
+	private final List<ClusterMapping> clusterMap;
+
+	public AnalysisResult(int groupASize, int groupBSize, List<Cluster> clusters, List<ClusterMapping> clusterMap) {
+		this.groupASize = groupASize;
+		this.groupBSize = groupBSize;
+		this.clusters = clusters;
+		this.clusterMap = clusterMap;
+	}
+
+	public int getGroupASize() {
+		return groupASize;
+	}
+
+	public int getGroupBSize() {
+		return groupBSize;
+	}
+
+	public List<Cluster> getClusters() {
+		return clusters;
+	}
+
+	public List<ClusterMapping> getClusterMap() {
+		return clusterMap;
+	}
+
+	public static class Cluster {
+
+		private final String code;
+		private final float diffStrength;
+		private final String display;
+		private final List<String> clusterCodes;
+
+		public Cluster(String code, float diffStrength, String display, List<String> clusterCodes) {
+			this.code = code;
+			this.diffStrength = diffStrength;
+			this.display = display;
+			this.clusterCodes = clusterCodes;
+		}
+
+		public String getCode() {
+			return code;
+		}
+
+		public float getDiffStrength() {
+			return diffStrength;
+		}
+
+		public String getDisplay() {
+			return display;
+		}
+
+		public List<String> getClusterCodes() {
+			return clusterCodes;
+		}
+	}
+
+	public static class ClusterMapping {
+
+		private final String sourceCode;
+		private final String targetCode;
+
+		public ClusterMapping(String sourceCode, String targetCode) {
+			this.sourceCode = sourceCode;
+			this.targetCode = targetCode;
+		}
+
+		public String getSourceCode() {
+			return sourceCode;
+		}
+
+		public String getTargetCode() {
+			return targetCode;
+		}
+	}
+}
@@ -0,0 +1,41 @@
+package io.kaicode.graphpattern.service;
+
+import io.kaicode.graphpattern.clustering.CohortScoreCache;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.ApplicationArguments;
+import org.springframework.boot.SpringApplication;
+import org.springframework.boot.autoconfigure.SpringBootApplication;
+import org.springframework.context.annotation.Bean;
+
+import java.io.File;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Service mode, loads the knowledge graph and instance data once then answers cohort analyses over HTTP.
+ */
+@SpringBootApplication
+public class GraphPatternService {
+
+	// path-to-knowledge-graph path-to-knowledge-graph-labels path-to-instance-data path-to-cohorts
+	public static void main(String[] args) {
+		long argumentCount = Arrays.stream(args).filter(arg -> !arg.startsWith("--")).count();
+		if (argumentCount != 4) {
+			System.out.println("Expecting 4 arguments: path-to-knowledge-graph path-to-knowledge-graph-labels path-to-instance-data path-to-cohorts");
+			System.out.println("Options, after the arguments: --threads=N --snapshot=path-to-knowledge-graph-snapshot --cache-size=N --cache-dir=path-to-score-cache " +
+					"--server.port=8080");
+			System.exit(1);
+		}
+		SpringApplication.run(GraphPatternService.class, args);
+	}
+
+	@Bean(destroyMethod = "shutdown")
+	public AnalysisIndex analysisIndex(ApplicationArguments arguments, @Value("${threads:1}") int threads, @Value("${snapshot:#{null}}") String snapshot,
+			@Value("${cache-size:16}") int cacheSize, @Value("${cache-dir:#{null}}") String cacheDir) {
+
+		List<String> paths = arguments.getNonOptionArgs();
+		CohortScoreCache scoreCache = new CohortScoreCache(cacheSize, cacheDir != null ? new File(cacheDir) : null);
+		return new AnalysisIndex(new File(paths.get(0)), new File(paths.get(1)), new File(paths.get(2)), new File(paths.get(3)),
+				snapshot != null ? new File(snapshot) : null, threads, scoreCache);
+	}
+}
@@ -0,0 +1,227 @@
+package io.kaicode.graphpattern.util;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+/**
+ * Maps identifiers, such as codes and instance ids, to dense int ids in order of first appearance.
+ * The UTF-8 bytes of each identifier are held in one shared array and looked up through an open addressing hash table,
+ * so identifiers can be encoded straight from a MappedTsvReader row without creating a String.
+ * Strings are only created when an id is decoded.
+ * <p>
+ * Not thread safe for writes. Concurrent lookups are safe once the dictionary is no longer being added to.
+ */
+public class IdDictionary {
+
+	private static final int EMPTY = -1;
+
+	private byte[] bytes = new byte[1 << 12];
+	private int bytesUsed;
+	private int[] offsets = new int[1 << 8];
+	private int size;
+	private int[] table = new int[1 << 8];
+	private int[] tableHashes = new int[1 << 8];
+
+	public IdDictionary() {
+		Arrays.fill(table, EMPTY);
+	}
+
+	public int size() {
+		return size;
+	}
+
+	/**
+	 * @return id of the value in the given column, or -1 if not present
+	 */
+	public int get(MappedTsvReader.Row row, int column) {
+		int hash = hash(row, column);
+		int slot = hash & (table.length - 1);
+		int id;
+		while ((id = table[slot]) != EMPTY) {
+			if (tableHashes[slot] == hash && matches(id, row, column)) {
+				return id;
+			}
+			slot = (slot + 1) & (table.length - 1);
+		}
+		return EMPTY;
+	}
+
+	public int getOrAdd(MappedTsvReader.Row row, int column) {
+		int hash = hash(row, column);
+		int slot = hash & (table.length - 1);
+		int id;
+		while ((id = table[slot]) != EMPTY) {
+			if (tableHashes[slot] == hash && matches(id, row, column)) {
+				return id;
+			}
+			slot = (slot + 1) & (table.length - 1);
+		}
+		int length = row.getLength(column);
+		ensureBytes(length);
+		for (int i = 0; i < length; i++) {
+			bytes[bytesUsed + i] = row.getByte(column, i);
+		}
+		return add(slot, hash, length);
+	}
+
+	/**
+	 * @return id of the value, or -1 if not present
+	 */
+	public int get(String value) {
+		byte[] valueBytes = value.getBytes(StandardCharsets.UTF_8);
+		return get(valueBytes, 0, valueBytes.length);
+	}
+
+	public int getOrAdd(String value) {
+		byte[] valueBytes = value.getBytes(StandardCharsets.UTF_8);
+		return getOrAdd(valueBytes, 0, valueBytes.length);
+	}
+
+	/**
+	 * Add an identifier held in another dictionary, without decoding it.
+	 * @return id of the identifier in this dictionary
+	 */
+	public int getOrAdd(IdDictionary other, int otherId) {
+		int start = other.offsets[otherId];
+		return getOrAdd(other.bytes, start, other.offsets[otherId + 1] - start);
+	}
+
+	public int get(byte[] value, int start, int length) {
+		int hash = hash(value, start, length);
+		int slot = hash & (table.length - 1);
+		int id;
+		while ((id = table[slot]) != EMPTY) {
+			if (tableHashes[slot] == hash && matches(id, value, start, length)) {
+				return id;
+			}
+			slot = (slot + 1) & (table.length - 1);
+		}
+		return EMPTY;
+	}
+
+	public int getOrAdd(byte[] value, int start, int length) {
+		int hash = hash(value, start, length);
+		int slot = hash & (table.length - 1);
+		int id;
+		while ((id = table[slot]) != EMPTY) {
+			if (tableHashes[slot] == hash && matches(id, value, start, length)) {
+				return id;
+			}
+			slot = (slot + 1) & (table.length - 1);
+		}
+		ensureBytes(length);
+		System.arraycopy(value, start, bytes, bytesUsed, length);
+		return add(slot, hash, length);
+	}
+
+	public String decode(int id) {
+		int start = offsets[id];
+		return new String(bytes, start, offsets[id + 1] - start, StandardCharsets.UTF_8);
+	}
+
+	/**
+	 * @return number of UTF-8 bytes of the value
+	 */
+	public int getLength(int id) {
+		return offsets[id + 1] - offsets[id];
+	}
+
+	/**
+	 * Copies the UTF-8 bytes of the value, without creating a String.
+	 * @return offset in the destination after the value
+	 */
+	public int copyBytes(int id, byte[] destination, int destinationOffset) {
+		int length = offsets[id + 1] - offsets[id];
+		System.arraycopy(bytes, offsets[id], destination, destinationOffset, length);
+		return destinationOffset + length;
+	}
+
+	private int add(int slot, int hash, int length) {
+		int id = size++;
+		if (offsets.length < size + 1) {
+			offsets = Arrays.copyOf(offsets, offsets.length * 2);
+		}
+		offsets[id] = bytesUsed;
+		bytesUsed += length;
+		offsets[id + 1] = bytesUsed;
+		table[slot] = id;
+		tableHashes[slot] = hash;
+		if (size * 2 > table.length) {
+			rehash();
+		}
+		return id;
+	}
+
+	private void ensureBytes(int length) {
+		if (bytesUsed + length > bytes.length) {
+			bytes = Arrays.copyOf(bytes, Math.max(bytes.length * 2, bytesUsed + length));
+		}
+	}
+
+	private void rehash() {
+		int[] oldTable = table;
+		int[] oldHashes = tableHashes;
+		table = new int[oldTable.length * 2];
+		tableHashes = new int[table.length];
+		Arrays.fill(table, EMPTY);
+		for (int oldSlot = 0; oldSlot < oldTable.length; oldSlot++) {
+			if (oldTable[oldSlot] != EMPTY) {
+				int slot = oldHashes[oldSlot] & (table.length - 1);
+				while (table[slot] != EMPTY) {
+					slot = (slot + 1) & (table.length - 1);
+				}
+				table[slot] = oldTable[oldSlot];
+				tableHashes[slot] = oldHashes[oldSlot];
+			}
+		}
+	}
+
+	private boolean matches(int id, MappedTsvReader.Row row, int column) {
+		int start = offsets[id];
+		int length = row.getLength(column);
+		if (offsets[id + 1] - start != length) {
+			return false;
+		}
+		for (int i = 0; i < length; i++) {
+			if (bytes[start + i] != row.getByte(column, i)) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	private boolean matches(int id, byte[] value, int valueStart, int length) {
+		int start = offsets[id];
+		if (offsets[id + 1] - start != length) {
+			return false;
+		}
+		for (int i = 0; i < length; i++) {
+			if (bytes[start + i] != value[valueStart + i]) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	private static int hash(MappedTsvReader.Row row, int column) {
+		int hash = 0;
+		int length = row.getLength(column);
+		for (int i = 0; i < length; i++) {
+			hash = 31 * hash + row.getByte(column, i);
+		}
+		return mix(hash);
+	}
+
+	private static int hash(byte[] value, int start, int length) {
+		int hash = 0;
+		for (int i = start; i < start + length; i++) {
+			hash = 31 * hash + value[i];
+		}
+		return mix(hash);
+	}
+
+	private static int mix(int hash) {
+		hash *= 0x9E3779B1;
+		return hash ^ (hash >>> 16);
+	}
+}
@@ -0,0 +1,299 @@
+package io.kaicode.graphpattern.util;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.function.Supplier;
+
+import static java.lang.String.format;
+
+/**
+ * Reads tab separated files through memory mapped buffers.
+ * Columns are located in place within the mapped bytes and handed to a RowHandler, nothing is allocated per row or per field
+ * unless the handler asks for a String. Large files can be split into chunks at line boundaries and read in parallel,
+ * each chunk gets its own handler.
+ */
+public class MappedTsvReader {
+
+	// Stay well under the 2GB limit of a single mapped buffer
+	private static final long MAX_CHUNK_BYTES = 1L << 30;
+
+	public interface RowHandler {
+		void handle(Row row);
+	}
+
+	/**
+	 * Read a file on the calling thread.
+	 * @param expectedHeader the first line must match this exactly, null to skip the first line without checking
+	 */
+	public static void read(File file, String expectedHeader, RowHandler handler) throws IOException {
+		try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+			long start = readHeader(channel, expectedHeader);
+			for (long[] chunk : split(channel, start, 1)) {
+				readChunk(channel, chunk[0], chunk[1], handler);
+			}
+		}
+	}
+
+	/**
+	 * Read a file in parallel chunks.
+	 * @param expectedHeader the first line must match this exactly, null to skip the first line without checking
+	 * @param handlerFactory called once per chunk
+	 * @return the handlers in file order, so that results can be merged in the same order as a serial read
+	 */
+	public static <H extends RowHandler> List<H> read(File file, String expectedHeader, int threads, Supplier<H> handlerFactory) throws IOException {
+		try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+			long start = readHeader(channel, expectedHeader);
+			List<long[]> chunks = split(channel, start, Math.max(threads, 1));
+			List<H> handlers = new ArrayList<>();
+			for (int i = 0; i < chunks.size(); i++) {
+				handlers.add(handlerFactory.get());
+			}
+			if (threads <= 1 || chunks.size() == 1) {
+				for (int i = 0; i < chunks.size(); i++) {
+					readChunk(channel, chunks.get(i)[0], chunks.get(i)[1], handlers.get(i));
+				}
+				return handlers;
+			}
+
+			ExecutorService executorService = Executors.newFixedThreadPool(Math.min(threads, chunks.size()));
+			try {
+				List<Future<?>> futures = new ArrayList<>();
+				for (int i = 0; i < chunks.size(); i++) {
+					long[] chunk = chunks.get(i);
+					H handler = handlers.get(i);
+					futures.add(executorService.submit(() -> {
+						readChunk(channel, chunk[0], chunk[1], handler);
+						return null;
+					}));
+				}
+				for (Future<?> future : futures) {
+					future.get();
+				}
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				throw new IOException("Interrupted while reading " + file, e);
+			} catch (ExecutionException e) {
+				if (e.getCause() instanceof IOException) {
+					throw (IOException) e.getCause();
+				}
+				throw new RuntimeException("Failed to read " + file, e.getCause());
+			} finally {
+				executorService.shutdown();
+			}
+			return handlers;
+		}
+	}
+
+	/**
+	 * @return the first line of the file, without the line ending
+	 */
+	public static String readHeader(File file) throws IOException {
+		try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+			long end = findLineStart(channel, 0);
+			ByteBuffer buffer = ByteBuffer.allocate((int) Math.min(end, 65536));
+			channel.read(buffer, 0);
+			return trimLineEnding(new String(buffer.array(), 0, buffer.position(), StandardCharsets.UTF_8));
+		}
+	}
+
+	private static long readHeader(FileChannel channel, String expectedHeader) throws IOException {
+		long end = findLineStart(channel, 0);
+		if (expectedHeader != null) {
+			ByteBuffer buffer = ByteBuffer.allocate((int) Math.min(end, 65536));
+			channel.read(buffer, 0);
+			String actualHeader = trimLineEnding(new String(buffer.array(), 0, buffer.position(), StandardCharsets.UTF_8));
+			if (!expectedHeader.equals(actualHeader)) {
+				throw new RuntimeException(format("Unexpected header, expected '%s', got '%s'", expectedHeader, actualHeader));
+			}
+		}
+		return end;
+	}
+
+	private static String trimLineEnding(String line) {
+		int end = line.length();
+		while (end > 0 && (line.charAt(end - 1) == '\n' || line.charAt(end - 1) == '\r')) {
+			end--;
+		}
+		return line.substring(0, end);
+	}
+
+	/**
+	 * Splits the file from the given position into chunks that each end at a line boundary.
+	 */
+	private static List<long[]> split(FileChannel channel, long start, int parts) throws IOException {
+		long size = channel.size();
+		long remaining = size - start;
+		int chunkCount = (int) Math.max(parts, (remaining + MAX_CHUNK_BYTES - 1) / MAX_CHUNK_BYTES);
+		List<long[]> chunks = new ArrayList<>();
+		long chunkStart = start;
+		for (int i = 1; i <= chunkCount && chunkStart < size; i++) {
+			long chunkEnd = i == chunkCount ? size : findLineStart(channel, start + remaining * i / chunkCount);
+			if (chunkEnd > chunkStart) {
+				chunks.add(new long[] {chunkStart, chunkEnd});
+				chunkStart = chunkEnd;
+			}
+		}
+		return chunks;
+	}
+
+	/**
+	 * @return position just after the next line feed at or after the given position, or the end of the file
+	 */
+	private static long findLineStart(FileChannel channel, long position) throws IOException {
+		ByteBuffer buffer = ByteBuffer.allocate(8192);
+		long size = channel.size();
+		while (position < size) {
+			buffer.clear();
+			int read = channel.read(buffer, position);
+			if (read <= 0) {
+				break;
+			}
+			for (int i = 0; i < read; i++) {
+				if (buffer.get(i) == '\n') {
+					return position + i + 1;
+				}
+			}
+			position += read;
+		}
+		return size;
+	}
+
+	private static void readChunk(FileChannel channel, long start, long end, RowHandler handler) throws IOException {
+		MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, start, end - start);
+		Row row = new Row(buffer);
+		int limit = buffer.limit();
+		int lineStart = 0;
+		while (lineStart < limit) {
+			int position = lineStart;
+			row.columnCount = 0;
+			int columnStart = position;
+			byte b = 0;
+			while (position < limit && (b = buffer.get(position)) != '\n') {
+				if (b == '\t') {
+					row.addColumn(columnStart, position);
+					columnStart = position + 1;
+				}
+				position++;
+			}
+			int lineEnd = position;
+			if (lineEnd > columnStart && buffer.get(lineEnd - 1) == '\r') {
+				lineEnd--;
+			}
+			if (lineEnd > lineStart) {// Skip blank lines
+				row.addColumn(columnStart, lineEnd);
+				handler.handle(row);
+			}
+			lineStart = position + 1;
+		}
+	}
+
+	/**
+	 * One line of the file, only valid during the call to RowHandler.handle.
+	 */
+	public static final class Row {
+
+		private final ByteBuffer buffer;
+		private int[] starts = new int[8];
+		private int[] ends = new int[8];
+		private int columnCount;
+
+		private Row(ByteBuffer buffer) {
+			this.buffer = buffer;
+		}
+
+		private void addColumn(int start, int end) {
+			if (columnCount == starts.length) {
+				starts = Arrays.copyOf(starts, columnCount * 2);
+				ends = Arrays.copyOf(ends, columnCount * 2);
+			}
+			starts[columnCount] = start;
+			ends[columnCount] = end;
+			columnCount++;
+		}
+
+		public int getColumnCount() {
+			return columnCount;
+		}
+
+		public int getLength(int column) {
+			checkColumn(column);
+			return ends[column] - starts[column];
+		}
+
+		public boolean isEmpty(int column) {
+			return column >= columnCount || starts[column] == ends[column];
+		}
+
+		/**
+		 * @param offset position within the column
+		 */
+		public byte getByte(int column, int offset) {
+			checkColumn(column);
+			return buffer.get(starts[column] + offset);
+		}
+
+		public int getInt(int column) {
+			checkColumn(column);
+			int position = starts[column];
+			int end = ends[column];
+			boolean negative = position < end && buffer.get(position) == '-';
+			if (negative) {
+				position++;
+			}
+			if (position == end) {
+				throw new NumberFormatException("Empty number in column " + column);
+			}
+			int value = 0;
+			for (; position < end; position++) {
+				int digit = buffer.get(position) - '0';
+				if (digit < 0 || digit > 9) {
+					throw new NumberFormatException(format("Not a number in column %s: '%s'", column, getString(column)));
+				}
+				value = value * 10 + digit;
+			}
+			return negative ? -value : value;
+		}
+
+		/**
+		 * Allocates a new String, avoid for columns that can be handled as bytes.
+		 */
+		public String getString(int column) {
+			int length = getLength(column);
+			byte[] bytes = new byte[length];
+			for (int i = 0; i < length; i++) {
+				bytes[i] = buffer.get(starts[column] + i);
+			}
+			return new String(bytes, StandardCharsets.UTF_8);
+		}
+
+		/**
+		 * Columns past the end of a short row would otherwise read the positions left by a longer row before it.
+		 */
+		private void checkColumn(int column) {
+			if (column >= columnCount || column < 0) {
+				throw new IndexOutOfBoundsException(format("Column %s requested from a row with %s columns: '%s'", column, columnCount, getLine()));
+			}
+		}
+
+		private String getLine() {
+			int end = ends[columnCount - 1];
+			byte[] bytes = new byte[end - starts[0]];
+			for (int i = 0; i < bytes.length; i++) {
+				bytes[i] = buffer.get(starts[0] + i);
+			}
+			return new String(bytes, StandardCharsets.UTF_8);
+		}
+	}
+}
@@ -0,0 +1,336 @@
+package io.kaicode.graphpattern.util;
+
+import jdk.jfr.Category;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryPoolMXBean;
+import java.lang.management.MemoryType;
+import java.lang.management.ThreadMXBean;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinWorkerThread;
+import java.util.function.Function;
+import java.util.function.Supplier;
+
+import static java.lang.String.format;
+
+/**
+ * Timings and counts of each phase of a run, kept as totals over every run of the phase.
+ * Each phase is also committed as a JFR event, recorded when a flight recording is running, for example with -XX:StartFlightRecording.
+ * <p>
+ * Allocation is that of the thread that runs the phase plus that of the workers of pools made by {@link #newPool(int)}.
+ * The workers can not tell which phase their work is for, so while phases overlap, as requests do in the service, pool allocation is
+ * left out of them and those runs are counted as partial. Runs that hand work to other threads are marked partial by the caller.
+ * The heap figure is of the whole process, not of a phase. Safe for concurrent phases.
+ */
+public class RunMetrics {
+
+	private static final String PREFIX = "graph_patterns_phase_";
+	private static final String HEAP_POOL_PEAKS_METRIC = "graph_patterns_heap_pool_peaks_bytes";
+
+	private final Map<String, Totals> phases = new LinkedHashMap<>();
+	private final Set<Phase> runningPhases = new HashSet<>();
+	private final Set<Thread> poolWorkers = new HashSet<>();
+	// Allocation of pool workers that have stopped
+	private long stoppedWorkerBytes;
+
+	/**
+	 * @return running phase, close it to record it
+	 */
+	public Phase start(String phase) {
+		return new Phase(phase);
+	}
+
+	/**
+	 * @return value of the supplier, run as the phase
+	 */
+	public <T> T call(String phase, Supplier<T> supplier) {
+		Phase running = start(phase);
+		try {
+			return supplier.get();
+		} finally {
+			running.close();
+		}
+	}
+
+	/**
+	 * @return pool whose workers' allocation is counted in the phases that use it
+	 */
+	public ForkJoinPool newPool(int parallelism) {
+		return new ForkJoinPool(parallelism, pool -> new PoolWorker(pool), null, false);
+	}
+
+	/**
+	 * Writes the totals of each phase as a tab separated file, followed by the heap pool peaks of the process.
+	 */
+	public void write(File file) {
+		try (BufferedWriter writer = new BufferedWriter(new FileWriter(file))) {
+			writer.write("phase\truns\tmillis\trowsParsed\tnodesScored\tcandidatesEvaluated\tallocatedBytes\tpartialAllocationRuns");
+			writer.newLine();
+			for (Map.Entry<String, Totals> entry : getPhases().entrySet()) {
+				Totals totals = entry.getValue();
+				writer.write(format("%s\t%s\t%s\t%s\t%s\t%s\t%s\t%s", entry.getKey(), totals.runs, totals.nanos / 1_000_000, totals.rowsParsed,
+						totals.nodesScored, totals.candidatesEvaluated, totals.allocatedBytes, totals.partialAllocationRuns));
+				writer.newLine();
+			}
+			writer.newLine();
+			writer.write(format("heapPoolPeaksBytes\t%s", getHeapPoolPeaksBytes()));
+			writer.newLine();
+		} catch (IOException e) {
+			throw new RuntimeException("Failed to write metrics file.", e);
+		}
+	}
+
+	/**
+	 * @return totals of each phase in the Prometheus text format
+	 */
+	public String toPrometheusText() {
+		Map<String, Totals> phases = getPhases();
+		StringBuilder text = new StringBuilder();
+		appendMetric(text, "runs_total", "counter", "Number of times the phase ran", phases, totals -> totals.runs);
+		appendMetric(text, "seconds_total", "counter", "Time spent in the phase", phases, totals -> totals.nanos / 1e9);
+		appendMetric(text, "rows_parsed_total", "counter", "Input rows parsed", phases, totals -> totals.rowsParsed);
+		appendMetric(text, "nodes_scored_total", "counter", "Knowledge graph nodes scored", phases, totals -> totals.nodesScored);
+		appendMetric(text, "candidates_evaluated_total", "counter", "Cluster candidates evaluated", phases, totals -> totals.candidatesEvaluated);
+		appendMetric(text, "allocated_bytes_total", "counter", "Bytes allocated during the phase", phases, totals -> totals.allocatedBytes);
+		appendMetric(text, "partial_allocation_runs_total", "counter", "Runs of the phase whose allocation leaves out work on other threads", phases,
+				totals -> totals.partialAllocationRuns);
+		text.append("# HELP ").append(HEAP_POOL_PEAKS_METRIC)
+				.append(" Sum of the peak use of each heap pool, reached at different times so above the real heap peak\n");
+		text.append("# TYPE ").append(HEAP_POOL_PEAKS_METRIC).append(" gauge\n");
+		text.append(HEAP_POOL_PEAKS_METRIC).append(' ').append(getHeapPoolPeaksBytes()).append('\n');
+		return text.toString();
+	}
+
+	private static void appendMetric(StringBuilder text, String name, String type, String help, Map<String, Totals> phases,
+			Function<Totals, Number> value) {
+		text.append("# HELP ").append(PREFIX).append(name).append(' ').append(help).append('\n');
+		text.append("# TYPE ").append(PREFIX).append(name).append(' ').append(type).append('\n');
+		phases.forEach((phase, totals) -> text.append(PREFIX).append(name).append("{phase=\"").append(phase).append("\"} ")
+				.append(value.apply(totals)).append('\n'));
+	}
+
+	private synchronized Map<String, Totals> getPhases() {
+		Map<String, Totals> copy = new LinkedHashMap<>();
+		phases.forEach((phase, totals) -> copy.put(phase, totals.copy()));
+		return copy;
+	}
+
+	/**
+	 * The pools reach their peaks at different times, so the sum is an upper bound of the heap peak rather than the peak itself.
+	 * @return sum of the peak use of each heap pool since the JVM started
+	 */
+	public static long getHeapPoolPeaksBytes() {
+		long heapPoolPeaksBytes = 0;
+		for (MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans()) {
+			if (pool.getType() == MemoryType.HEAP && pool.isValid()) {
+				heapPoolPeaksBytes += pool.getPeakUsage().getUsed();
+			}
+		}
+		return heapPoolPeaksBytes;
+	}
+
+	private synchronized void record(Phase phase, long nanos, long allocatedBytes, boolean partialAllocation) {
+		Totals totals = phases.computeIfAbsent(phase.name, name -> new Totals());
+		totals.runs++;
+		totals.nanos += nanos;
+		totals.rowsParsed += phase.rowsParsed;
+		totals.nodesScored += phase.nodesScored;
+		totals.candidatesEvaluated += phase.candidatesEvaluated;
+		totals.allocatedBytes += allocatedBytes;
+		if (partialAllocation) {
+			totals.partialAllocationRuns++;
+		}
+	}
+
+	/**
+	 * @return allocation of every pool worker so far, counting those that have stopped
+	 */
+	private synchronized long getPoolAllocatedBytes() {
+		long allocated = stoppedWorkerBytes;
+		for (Thread worker : poolWorkers) {
+			allocated += getAllocatedBytes(worker.getId());
+		}
+		return allocated;
+	}
+
+	private static long getAllocatedBytes(long threadId) {
+		ThreadMXBean threadBean = ManagementFactory.getThreadMXBean();
+		if (threadBean instanceof com.sun.management.ThreadMXBean) {
+			com.sun.management.ThreadMXBean allocationBean = (com.sun.management.ThreadMXBean) threadBean;
+			if (allocationBean.isThreadAllocatedMemorySupported() && allocationBean.isThreadAllocatedMemoryEnabled()) {
+				return Math.max(0, allocationBean.getThreadAllocatedBytes(threadId));// -1 once the thread has stopped
+			}
+		}
+		return 0;
+	}
+
+	private final class PoolWorker extends ForkJoinWorkerThread {
+
+		private PoolWorker(ForkJoinPool pool) {
+			super(pool);
+		}
+
+		@Override
+		protected void onStart() {
+			super.onStart();
+			synchronized (RunMetrics.this) {
+				poolWorkers.add(this);
+			}
+		}
+
+		@Override
+		protected void onTermination(Throwable exception) {
+			// Still running so its allocation can be read
+			synchronized (RunMetrics.this) {
+				stoppedWorkerBytes += getAllocatedBytes(getId());
+				poolWorkers.remove(this);
+			}
+			super.onTermination(exception);
+		}
+	}
+
+	public final class Phase implements AutoCloseable {
+
+		private final String name;
+		private final long threadId;
+		private final long startNanos;
+		private final long startAllocatedBytes;
+		private final long startPoolAllocatedBytes;
+		private final PhaseEvent event;
+		private long rowsParsed;
+		private long nodesScored;
+		private long candidatesEvaluated;
+		// Guarded by the metrics
+		private boolean overlapped;
+		private boolean partialAllocation;
+
+		private Phase(String name) {
+			this.name = name;
+			threadId = Thread.currentThread().getId();
+			synchronized (RunMetrics.this) {
+				if (!runningPhases.isEmpty()) {
+					overlapped = true;
+					runningPhases.forEach(phase -> phase.overlapped = true);
+				}
+				runningPhases.add(this);
+			}
+			startAllocatedBytes = getAllocatedBytes(threadId);
+			startPoolAllocatedBytes = getPoolAllocatedBytes();
+			event = new PhaseEvent();
+			event.begin();
+			startNanos = System.nanoTime();
+		}
+
+		public void addRowsParsed(long rows) {
+			rowsParsed += rows;
+		}
+
+		public void addNodesScored(long nodes) {
+			nodesScored += nodes;
+		}
+
+		public void addCandidatesEvaluated(long candidates) {
+			candidatesEvaluated += candidates;
+		}
+
+		/**
+		 * Marks this run as handing work to threads that are not counted, such as those of a file reader.
+		 */
+		public void markPartialAllocation() {
+			synchronized (RunMetrics.this) {
+				partialAllocation = true;
+			}
+		}
+
+		@Override
+		public void close() {
+			long nanos = System.nanoTime() - startNanos;
+			event.end();
+			long allocatedBytes = Math.max(0, getAllocatedBytes(threadId) - startAllocatedBytes);
+			long poolAllocatedBytes = Math.max(0, getPoolAllocatedBytes() - startPoolAllocatedBytes);
+			boolean partial;
+			synchronized (RunMetrics.this) {
+				runningPhases.remove(this);
+				// Pool work of overlapping phases can not be told apart
+				if (overlapped) {
+					partial = partialAllocation || poolAllocatedBytes > 0;
+				} else {
+					partial = partialAllocation;
+					allocatedBytes += poolAllocatedBytes;
+				}
+			}
+			if (event.shouldCommit()) {
+				event.phase = name;
+				event.rowsParsed = rowsParsed;
+				event.nodesScored = nodesScored;
+				event.candidatesEvaluated = candidatesEvaluated;
+				event.allocatedBytes = allocatedBytes;
+				event.partialAllocation = partial;
+				event.commit();
+			}
+			record(this, nanos, allocatedBytes, partial);
+		}
+	}
+
+	@Name("io.kaicode.graphpattern.Phase")
+	@Label("Graph Patterns Phase")
+	@Category("Graph Patterns")
+	@Description("One phase of a clustering run")
+	static class PhaseEvent extends Event {
+
+		@Label("Phase")
+		String phase;
+
+		@Label("Rows Parsed")
+		long rowsParsed;
+
+		@Label("Nodes Scored")
+		long nodesScored;
+
+		@Label("Candidates Evaluated")
+		long candidatesEvaluated;
+
+		@Label("Allocated")
+		@DataAmount
+		long allocatedBytes;
+
+		@Label("Partial Allocation")
+		boolean partialAllocation;
+	}
+
+	private static final class Totals {
+
+		private long runs;
+		private long nanos;
+		private long rowsParsed;
+		private long nodesScored;
+		private long candidatesEvaluated;
+		private long allocatedBytes;
+		private long partialAllocationRuns;
+
+		private Totals copy() {
+			Totals copy = new Totals();
+			copy.runs = runs;
+			copy.nanos = nanos;
+			copy.rowsParsed = rowsParsed;
+			copy.nodesScored = nodesScored;
+			copy.candidatesEvaluated = candidatesEvaluated;
+			copy.allocatedBytes = allocatedBytes;
+			copy.partialAllocationRuns = partialAllocationRuns;
+			return copy;
+		}
+	}
+}
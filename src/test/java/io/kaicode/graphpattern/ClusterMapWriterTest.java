@@ -0,0 +1,70 @@
+package io.kaicode.graphpattern;
+
+import io.kaicode.graphpattern.domain.AncestorIndex;
+import io.kaicode.graphpattern.domain.GraphBuilder;
+import io.kaicode.graphpattern.domain.Node;
+import org.junit.jupiter.api.Test;
+import org.roaringbitmap.RoaringBitmap;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.Random;
+import java.util.StringJoiner;
+import java.util.concurrent.ForkJoinPool;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+class ClusterMapWriterTest {
+
+	@Test
+	public void testShardedOutputMatchesRowsInCodeOrder() throws IOException {
+		Random random = new Random(42);
+		GraphBuilder graph = new GraphBuilder();
+		for (int i = 1; i < 30000; i++) {
+			graph.addChildParentLink("c" + i, "c" + random.nextInt(i));
+			if (random.nextFloat() < 0.3f) {
+				graph.addChildParentLink("c" + i, "c" + random.nextInt(i));
+			}
+		}
+		AncestorIndex ancestorIndex = new AncestorIndex(graph);
+		boolean[] chosenNodes = new boolean[graph.getNodeCount()];
+		for (int i = 0; i < 40; i++) {
+			chosenNodes[random.nextInt(chosenNodes.length)] = true;
+		}
+		RoaringBitmap allCodesUsed = new RoaringBitmap();
+		// Several shards, more than the window of a single thread pool
+		for (int i = 0; i < 25000; i++) {
+			allCodesUsed.add(random.nextInt(chosenNodes.length));
+		}
+
+		// Each used code then each chosen cluster at or above it, self first
+		StringJoiner expected = new StringJoiner(System.lineSeparator(), "", System.lineSeparator());
+		expected.add("sourceCode\ttargetCode");
+		for (int usedCode : allCodesUsed) {
+			Node node = graph.getNode(usedCode);
+			if (chosenNodes[usedCode]) {
+				expected.add(node.getCode() + "\t" + node.getCode());
+			}
+			for (int a = 0; a < ancestorIndex.getAncestorCount(usedCode); a++) {
+				int ancestor = ancestorIndex.getAncestor(usedCode, a);
+				if (chosenNodes[ancestor]) {
+					expected.add(node.getCode() + "\t" + graph.getNode(ancestor).getCode());
+				}
+			}
+		}
+
+		ClusterMapWriter writer = new ClusterMapWriter(graph);
+		ByteArrayOutputStream serial = new ByteArrayOutputStream();
+		writer.write(serial, allCodesUsed, chosenNodes, null);
+		assertEquals(expected.toString(), serial.toString(StandardCharsets.UTF_8));
+
+		for (int threads : new int[] {1, 4}) {
+			ForkJoinPool pool = new ForkJoinPool(threads);
+			ByteArrayOutputStream sharded = new ByteArrayOutputStream();
+			writer.write(sharded, allCodesUsed, chosenNodes, pool);
+			pool.shutdown();
+			assertEquals(expected.toString(), sharded.toString(StandardCharsets.UTF_8));
+		}
+	}
+}
@@ -0,0 +1,74 @@
+package io.kaicode.graphpattern;
+
+import io.kaicode.graphpattern.domain.Graph;
+import io.kaicode.graphpattern.domain.GraphSet;
+import io.kaicode.graphpattern.domain.Node;
+import io.kaicode.graphpattern.domain.Pattern;
+import org.junit.jupiter.api.Test;
+
+import java.util.*;
+import java.util.stream.Collectors;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class ContrastSetMinerTest {
+
+	@Test
+	public void testSetsMatchBruteForceCounts() {
+		Random random = new Random(42);
+		GraphSet graphSet = new GraphSet();
+		Graph root = graphSet.createKnowledgeGraph();
+		List<Node> nodes = new ArrayList<>();
+		for (int i = 0; i < 12; i++) {
+			nodes.add(root.addChild(new Node("n" + i)));
+		}
+		List<Graph> groupAGraphs = graphSet.generateInstanceGraphs(400, (graph) -> {
+			for (int i = 0; i < 4; i++) {
+				graph.link(nodes.get(random.nextInt(12)));
+			}
+		});
+		List<Graph> groupBGraphs = graphSet.generateInstanceGraphs(300, (graph) -> {
+			for (int i = 0; i < 3; i++) {
+				graph.link(nodes.get(random.nextInt(12)));
+			}
+			if (random.nextFloat() < 0.6f) {
+				graph.link(nodes.get(0));
+				graph.link(nodes.get(1));
+			}
+		});
+
+		float minCoverage = 0.05f;
+		float minDifference = 0.02f;
+		List<Pattern> serial = new ContrastSetMiner(1).mine(groupAGraphs, groupBGraphs, minCoverage, minDifference, 3);
+		List<Pattern> parallel = new ContrastSetMiner(4).mine(groupAGraphs, groupBGraphs, minCoverage, minDifference, 3);
+
+		// Every set of up to three links, counted directly
+		Map<Set<Node>, int[]> expected = new HashMap<>();
+		for (int a = 0; a < 12; a++) {
+			for (int b = a; b < 12; b++) {
+				for (int c = b; c < 12; c++) {
+					Set<Node> set = new HashSet<>(Arrays.asList(nodes.get(a), nodes.get(b), nodes.get(c)));
+					int groupACount = (int) groupAGraphs.stream().filter(graph -> graph.getLinks().containsAll(set)).count();
+					int groupBCount = (int) groupBGraphs.stream().filter(graph -> graph.getLinks().containsAll(set)).count();
+					float difference = groupBCount / 300f - groupACount / 400f;
+					if (groupBCount >= Math.ceil(minCoverage * 300) && difference >= minDifference) {
+						expected.put(set, new int[] {groupACount, groupBCount});
+					}
+				}
+			}
+		}
+
+		assertFalse(expected.isEmpty());
+		assertEquals(expected.size(), serial.size());
+		for (Pattern pattern : serial) {
+			int[] counts = expected.get(pattern.getNodes());
+			assertNotNull(counts, pattern.toString());
+			assertEquals(counts[1], pattern.getCount());
+			assertEquals(counts[1] / 300f, pattern.getCoverage(), 0.0001f);
+			// Rounded to three places, as set on the pattern
+			assertEquals(Math.round(counts[1] / (float) (counts[0] + counts[1]) * 1000) / 1000f, pattern.getAccuracy());
+		}
+		assertEquals(serial.stream().map(Pattern::getNodes).collect(Collectors.toList()), parallel.stream().map(Pattern::getNodes).collect(Collectors.toList()));
+		assertEquals(Set.of(nodes.get(0), nodes.get(1)), serial.get(0).getNodes());
+	}
+}
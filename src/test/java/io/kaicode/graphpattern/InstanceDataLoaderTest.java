@@ -0,0 +1,99 @@
+package io.kaicode.graphpattern;
+
+import io.kaicode.graphpattern.domain.GraphBuilder;
+import io.kaicode.graphpattern.util.IdDictionary;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.roaringbitmap.RoaringBitmap;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class InstanceDataLoaderTest {
+
+	@TempDir
+	File tempDir;
+
+	@Test
+	public void testInstanceWithOnlyUnknownCodesIsCounted() throws IOException {
+		GraphBuilder knowledgeGraph = new GraphBuilder();
+		knowledgeGraph.addChildParentLink("A", "root");
+		File cohorts = new File(tempDir, "cohorts.txt");
+		Files.write(cohorts.toPath(), List.of("instance\tcohort", "p0\tB", "p1\tB", "p2\tA"));
+		File instanceData = new File(tempDir, "instance-data.txt");
+		Files.write(instanceData.toPath(), List.of("instance\tyear\tcode", "p0\t2000\tA", "p1\t2000\tX", "p1\t2000\tY", "p2\t2000\tA",
+				"p3\t2000\tZ", "p4\t2000\t"));
+
+		IdDictionary instanceIds = new IdDictionary();
+		RoaringBitmap groupB = InstanceDataLoader.loadCohorts(cohorts, instanceIds).get("B");
+		RoaringBitmap allInstances = new RoaringBitmap();
+		RoaringBitmap allCodesUsed = new RoaringBitmap();
+		InstanceDataLoader.loadInstanceData(instanceData, knowledgeGraph, instanceIds, groupB, 1, allInstances, allCodesUsed);
+
+		// p1 and p3 only have codes that are not in the knowledge graph, p4 has no code
+		assertEquals(4, instanceIds.size());
+		assertEquals(RoaringBitmap.bitmapOf(0, 1, 2, 3), allInstances);
+		assertEquals(2, RoaringBitmap.andCardinality(groupB, allInstances));
+		assertEquals(RoaringBitmap.bitmapOf(knowledgeGraph.getNode("A").getIndex()), allCodesUsed);
+	}
+
+	@Test
+	public void testInstanceIdsAreTheSameInParallel() throws IOException {
+		Random random = new Random(42);
+		File cohorts = new File(tempDir, "cohorts.txt");
+		File instanceData = new File(tempDir, "instance-data.txt");
+		try (BufferedWriter cohortWriter = new BufferedWriter(new FileWriter(cohorts));
+			 BufferedWriter dataWriter = new BufferedWriter(new FileWriter(instanceData))) {
+			cohortWriter.write("instance\tcohort");
+			cohortWriter.newLine();
+			// Most instances are not in the cohort file
+			for (int instance = 0; instance < 500; instance += 10) {
+				cohortWriter.write(String.format("p%s\t%s", instance, instance % 20 == 0 ? "B" : "A"));
+				cohortWriter.newLine();
+			}
+			dataWriter.write("instance\tyear\tcode");
+			dataWriter.newLine();
+			for (int row = 0; row < 5000; row++) {
+				dataWriter.write(String.format("p%s\t2000\tc%s", random.nextInt(500), random.nextInt(25)));
+				dataWriter.newLine();
+			}
+		}
+
+		GraphBuilder serialGraph = newGraph();
+		IdDictionary serialIds = new IdDictionary();
+		RoaringBitmap groupB = InstanceDataLoader.loadCohorts(cohorts, serialIds).get("B");
+		RoaringBitmap serialInstances = new RoaringBitmap();
+		InstanceDataLoader.loadInstanceData(instanceData, serialGraph, serialIds, groupB, 1, serialInstances, new RoaringBitmap());
+
+		GraphBuilder parallelGraph = newGraph();
+		IdDictionary parallelIds = new IdDictionary();
+		InstanceDataLoader.loadCohorts(cohorts, parallelIds);
+		RoaringBitmap parallelInstances = new RoaringBitmap();
+		InstanceDataLoader.loadInstanceData(instanceData, parallelGraph, parallelIds, groupB, 4, parallelInstances, new RoaringBitmap());
+
+		assertEquals(serialIds.size(), parallelIds.size());
+		for (int instance = 0; instance < serialIds.size(); instance++) {
+			assertEquals(serialIds.decode(instance), parallelIds.decode(instance));
+		}
+		assertEquals(serialInstances, parallelInstances);
+		for (int nodeIndex = 0; nodeIndex < serialGraph.getNodeCount(); nodeIndex++) {
+			assertEquals(serialGraph.getNode(nodeIndex).getGroupAInstances(), parallelGraph.getNode(nodeIndex).getGroupAInstances());
+			assertEquals(serialGraph.getNode(nodeIndex).getGroupBInstances(), parallelGraph.getNode(nodeIndex).getGroupBInstances());
+		}
+	}
+
+	private static GraphBuilder newGraph() {
+		GraphBuilder knowledgeGraph = new GraphBuilder();
+		for (int code = 0; code < 25; code++) {
+			knowledgeGraph.addChildParentLink("c" + code, "root");
+		}
+		return knowledgeGraph;
+	}
+}
@@ -0,0 +1,71 @@
+package io.kaicode.graphpattern;
+
+import io.kaicode.graphpattern.domain.GraphBuilder;
+import io.kaicode.graphpattern.domain.Node;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.StandardOpenOption;
+import java.util.List;
+import java.util.Set;
+import java.util.stream.Collectors;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class KnowledgeGraphLoaderTest {
+
+	@TempDir
+	File tempDir;
+
+	@Test
+	public void testSnapshotMatchesTsvAndIsOnlyUsedWhileUpToDate() throws IOException {
+		File hierarchy = new File(tempDir, "hierarchy.txt");
+		// More than one parent and codes that are not ASCII
+		Files.write(hierarchy.toPath(), List.of("child\tparent", "A\troot", "B\troot", "C\tA", "C\tB", "Dé\tC", "E\tDé", "E\tA", "F日本\tB"));
+		File labels = new File(tempDir, "labels.txt");
+		Files.write(labels.toPath(), List.of("code\tlabel", "A\tConcept A", "C\tConcept ç", "Dé\t", "F日本\tLabel 日本", "X\tNot in the graph"));
+		File snapshot = new File(tempDir, "graph.snapshot");
+
+		GraphBuilder tsvGraph = KnowledgeGraphLoader.loadTsv(hierarchy, labels);
+		assertFalse(snapshot.exists());
+		KnowledgeGraphLoader.load(hierarchy, labels, snapshot);
+		assertTrue(snapshot.isFile());
+
+		GraphBuilder snapshotGraph = KnowledgeGraphLoader.readSnapshot(snapshot, hierarchy, labels);
+		assertNotNull(snapshotGraph);
+		assertSameGraph(tsvGraph, snapshotGraph);
+		assertSameGraph(tsvGraph, KnowledgeGraphLoader.load(hierarchy, labels, snapshot));
+
+		// Touched
+		assertTrue(hierarchy.setLastModified(hierarchy.lastModified() + 2000));
+		assertNull(KnowledgeGraphLoader.readSnapshot(snapshot, hierarchy, labels));
+		assertSameGraph(tsvGraph, KnowledgeGraphLoader.load(hierarchy, labels, snapshot));
+		assertNotNull(KnowledgeGraphLoader.readSnapshot(snapshot, hierarchy, labels));
+
+		// Changed size with the same modification time
+		long lastModified = labels.lastModified();
+		Files.write(labels.toPath(), List.of("B\tConcept B"), StandardOpenOption.APPEND);
+		assertTrue(labels.setLastModified(lastModified));
+		assertNull(KnowledgeGraphLoader.readSnapshot(snapshot, hierarchy, labels));
+		GraphBuilder reloaded = KnowledgeGraphLoader.load(hierarchy, labels, snapshot);
+		assertEquals("Concept B", reloaded.getLabel(reloaded.getNode("B").getIndex()));
+		assertSameGraph(reloaded, KnowledgeGraphLoader.readSnapshot(snapshot, hierarchy, labels));
+	}
+
+	private static void assertSameGraph(GraphBuilder expected, GraphBuilder actual) {
+		assertEquals(expected.getNodeCount(), actual.getNodeCount());
+		assertArrayEquals(expected.getNodeDepths(), actual.getNodeDepths());
+		for (int nodeIndex = 0; nodeIndex < expected.getNodeCount(); nodeIndex++) {
+			assertEquals(expected.getCodes().decode(nodeIndex), actual.getCodes().decode(nodeIndex));
+			assertEquals(expected.getLabel(nodeIndex), actual.getLabel(nodeIndex));
+			assertEquals(getParentIndexes(expected.getNode(nodeIndex)), getParentIndexes(actual.getNode(nodeIndex)));
+		}
+	}
+
+	private static Set<Integer> getParentIndexes(Node node) {
+		return node.getParents().stream().map(Node::getIndex).collect(Collectors.toSet());
+	}
+}
@@ -0,0 +1,16 @@
+package io.kaicode.graphpattern;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+class OneVsRestClusteringTest {
+
+	@Test
+	public void testCohortDirNamesStayInOutputAndAreUnique() {
+		List<String> dirNames = OneVsRestClustering.getCohortDirNames(List.of("a/b", "a_b", "..", ".", "", "../x", "A_B", "a_b-2", "case 1"));
+		assertEquals(List.of("a_b", "a_b-2", "___", "__", "_", ".._x", "A_B-3", "a_b-2-2", "case_1"), dirNames);
+	}
+}
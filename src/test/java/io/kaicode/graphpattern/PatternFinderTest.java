@@ -1,12 +1,16 @@
 package io.kaicode.graphpattern;
 
 import io.kaicode.graphpattern.domain.*;
+import io.kaicode.graphpattern.util.IdDictionary;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.roaringbitmap.RoaringBitmap;
 
-import java.util.ArrayList;
-import java.util.Iterator;
-import java.util.List;
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.*;
 
 import static java.lang.String.format;
 import static org.junit.jupiter.api.Assertions.*;
@@ -20,6 +24,9 @@ class PatternFinderTest {
 	private Node kC;
 	private List<Node> otherHundred;
 
+	@TempDir
+	File tempDir;
+
 	@BeforeEach
 	public void setup() {
 		// Setup
@@ -88,6 +95,76 @@ class PatternFinderTest {
 		assertEquals("[A, B]", firstMergedPattern.getOptionalNodes().toString());
 	}
 
+	@Test
+	public void testParallelPatternCountsMatchSerial() {
+		Random random = new Random(42);
+		List<Graph> groupAGraphs = graphSet.generateInstanceGraphs(5_000, (node) -> {
+			for (int i = 0; i < 3; i++) {
+				node.link(otherHundred.get(random.nextInt(10)));
+			}
+		});
+		List<Graph> groupBGraphs = graphSet.generateInstanceGraphs(5_000, (node) -> {
+			node.link(kC);
+			for (int i = 0; i < 3; i++) {
+				node.link(otherHundred.get(random.nextInt(10)));
+			}
+		});
+
+		PatternSets serial = new PatternFinder(kRootNode).differentiateGroupB(groupAGraphs, groupBGraphs);
+		PatternSets parallel = new PatternFinder(kRootNode, 4).differentiateGroupB(groupAGraphs, groupBGraphs);
+
+		assertEquals(serial.getGroupAPatterns().size(), parallel.getGroupAPatterns().size());
+		assertEquals(serial.getGroupBPatterns().size(), parallel.getGroupBPatterns().size());
+		Map<Set<Node>, Integer> serialCounts = new HashMap<>();
+		for (Pattern pattern : serial.getGroupAPatterns()) {
+			serialCounts.put(pattern.getNodes(), pattern.getCount());
+		}
+		for (Pattern pattern : parallel.getGroupAPatterns()) {
+			assertEquals(serialCounts.get(pattern.getNodes()), pattern.getCount());
+		}
+		Map<Set<Node>, Pattern> serialGroupBPatterns = new HashMap<>();
+		for (Pattern pattern : serial.getGroupBPatterns()) {
+			serialGroupBPatterns.put(pattern.getNodes(), pattern);
+		}
+		assertEquals(serial.getGroupBPatterns().size(), serialGroupBPatterns.size());
+		int groupBTotal = 0;
+		for (Pattern pattern : parallel.getGroupBPatterns()) {
+			Pattern serialPattern = serialGroupBPatterns.get(pattern.getNodes());
+			assertNotNull(serialPattern, pattern.toString());
+			assertEquals(serialPattern.getCount(), pattern.getCount());
+			assertEquals(serialPattern.getCoverage(), pattern.getCoverage());
+			assertEquals(serialPattern.getAccuracy(), pattern.getAccuracy());
+			groupBTotal += pattern.getCount();
+		}
+		assertEquals(5_000, groupBTotal);
+	}
+
+	@Test
+	public void testPatternsFromInstanceCodeMatrix() throws IOException {
+		GraphBuilder knowledgeGraph = new GraphBuilder();
+		knowledgeGraph.addChildParentLink("A", "root");
+		knowledgeGraph.addChildParentLink("C", "root");
+		File cohorts = new File(tempDir, "cohorts.txt");
+		Files.write(cohorts.toPath(), List.of("instance\tcohort", "p0\tB", "p1\tB", "p2\tB", "p3\tA"));
+		File instanceData = new File(tempDir, "instance-data.txt");
+		Files.write(instanceData.toPath(), List.of("instance\tyear\tcode", "p0\t2000\tA", "p0\t2000\tC", "p1\t2000\tC", "p1\t2000\tA", "p1\t2001\tA",
+				"p2\t2000\tC", "p3\t2000\tA", "p4\t2000\tC", "p4\t2000\tA"));
+		IdDictionary instanceIds = new IdDictionary();
+		RoaringBitmap groupB = InstanceDataLoader.loadCohorts(cohorts, instanceIds).get("B");
+		InstanceCodeMatrix matrix = InstanceCodeMatrix.load(instanceData, knowledgeGraph, instanceIds, new File(tempDir, "matrix.bin"), 1);
+
+		List<Pattern> groupBPatterns = new PatternFinder(kRootNode).differentiateGroupB(matrix, knowledgeGraph, groupB).getGroupBPatterns();
+
+		assertEquals(2, groupBPatterns.size());
+		assertEquals(Set.of(knowledgeGraph.getNode("A"), knowledgeGraph.getNode("C")), groupBPatterns.get(0).getNodes());
+		assertEquals(2, groupBPatterns.get(0).getCount());
+		assertEquals(2 / 3f, groupBPatterns.get(0).getCoverage(), 0.001f);
+		assertEquals(2 / 3f, groupBPatterns.get(0).getAccuracy(), 0.001f);
+		assertEquals(Set.of(knowledgeGraph.getNode("C")), groupBPatterns.get(1).getNodes());
+		assertEquals(1, groupBPatterns.get(1).getCount());
+		assertEquals(1f, groupBPatterns.get(1).getAccuracy());
+	}
+
 	@Test
 	public void testCollectAllGroupBPatternsAndAttemptMergeWithMessyGroups() {
 		// Generate instance graphs for group A
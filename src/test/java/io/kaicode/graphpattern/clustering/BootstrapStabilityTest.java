@@ -0,0 +1,110 @@
+package io.kaicode.graphpattern.clustering;
+
+import io.kaicode.graphpattern.InstanceDataLoader;
+import io.kaicode.graphpattern.domain.AncestorIndex;
+import io.kaicode.graphpattern.domain.GraphBuilder;
+import io.kaicode.graphpattern.domain.Node;
+import io.kaicode.graphpattern.util.IdDictionary;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.roaringbitmap.RoaringBitmap;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class BootstrapStabilityTest {
+
+	@TempDir
+	File tempDir;
+
+	@Test
+	public void testSeededFrequenciesAreTheSameInParallel() {
+		// root
+		// ├── X
+		// └── Y
+		GraphBuilder graph = new GraphBuilder();
+		graph.addChildParentLink("X", "root");
+		graph.addChildParentLink("Y", "root");
+		Node x = graph.getNode("X");
+		Node y = graph.getNode("Y");
+		// Group B is 0 to 49. X is mostly group B, Y is random
+		Random random = new Random(42);
+		RoaringBitmap groupB = RoaringBitmap.bitmapOfRange(0, 50);
+		for (int instance = 0; instance < 300; instance++) {
+			if (instance < 45 || instance % 50 == 0) {
+				x.addGroupAInstance(instance);
+			}
+			if (random.nextInt(4) == 0) {
+				y.addGroupAInstance(instance);
+			}
+		}
+		RoaringBitmap allInstances = RoaringBitmap.or(x.getGroupAInstances(), y.getGroupAInstances());
+		SubtreeInstanceIndex index = new SubtreeInstanceIndex(new SubtreeAggregator().aggregateSubtrees(graph, Node::getGroupAInstances), allInstances);
+		BootstrapStability bootstrap = new BootstrapStability(index, graph, new AncestorIndex(graph), 200, 3);
+
+		float[] frequencies = bootstrap.getSelectionFrequencies(groupB, 1, 0.01f, null);
+		assertEquals(1, frequencies[x.getIndex()]);
+		assertTrue(frequencies[y.getIndex()] < 0.1);
+		for (float frequency : frequencies) {
+			assertTrue(frequency >= 0 && frequency <= 1);
+		}
+
+		ForkJoinPool pool = new ForkJoinPool(4);
+		assertArrayEquals(frequencies, bootstrap.getSelectionFrequencies(groupB, 1, 0.01f, pool));
+		assertArrayEquals(bootstrap.getSelectionFrequencies(groupB, 3, 0f, null), bootstrap.getSelectionFrequencies(groupB, 3, 0f, pool));
+		pool.shutdown();
+	}
+
+	@Test
+	public void testFrequenciesAreTheSameWhenLoadedInParallel() throws IOException {
+		Random random = new Random(42);
+		File cohorts = new File(tempDir, "cohorts.txt");
+		File instanceData = new File(tempDir, "instance-data.txt");
+		try (BufferedWriter cohortWriter = new BufferedWriter(new FileWriter(cohorts));
+			 BufferedWriter dataWriter = new BufferedWriter(new FileWriter(instanceData))) {
+			cohortWriter.write("instance\tcohort");
+			cohortWriter.newLine();
+			// Most instances are not in the cohort file so are given their ids while the instance data is read
+			for (int instance = 0; instance < 500; instance += 5) {
+				cohortWriter.write(String.format("p%s\t%s", instance, instance % 10 == 0 ? "B" : "A"));
+				cohortWriter.newLine();
+			}
+			dataWriter.write("instance\tyear\tcode");
+			dataWriter.newLine();
+			for (int row = 0; row < 5000; row++) {
+				int instance = random.nextInt(500);
+				// Group B is more likely to have the first few codes
+				int code = instance % 10 == 0 && random.nextBoolean() ? random.nextInt(5) : random.nextInt(25);
+				dataWriter.write(String.format("p%s\t2000\tc%s", instance, code));
+				dataWriter.newLine();
+			}
+		}
+
+		float[] serial = getLoadedFrequencies(cohorts, instanceData, 1, null);
+		ForkJoinPool pool = new ForkJoinPool(4);
+		float[] parallel = getLoadedFrequencies(cohorts, instanceData, 4, pool);
+		pool.shutdown();
+		assertArrayEquals(serial, parallel);
+	}
+
+	private static float[] getLoadedFrequencies(File cohorts, File instanceData, int threads, ForkJoinPool pool) {
+		GraphBuilder graph = new GraphBuilder();
+		for (int code = 1; code < 25; code++) {
+			graph.addChildParentLink("c" + code, "c" + code / 5);
+		}
+		IdDictionary instanceIds = new IdDictionary();
+		RoaringBitmap groupB = InstanceDataLoader.loadCohorts(cohorts, instanceIds).get("B");
+		RoaringBitmap allInstances = new RoaringBitmap();
+		InstanceDataLoader.loadInstanceData(instanceData, graph, instanceIds, groupB, threads, allInstances, new RoaringBitmap());
+		RoaringBitmap[] subtreeInstances = new SubtreeAggregator(pool).aggregateSubtrees(graph,
+				node -> RoaringBitmap.or(node.getGroupAInstances(), node.getGroupBInstances()));
+		SubtreeInstanceIndex index = new SubtreeInstanceIndex(subtreeInstances, allInstances);
+		return new BootstrapStability(index, graph, new AncestorIndex(graph), 50, 7).getSelectionFrequencies(groupB, 5, 0f, pool);
+	}
+}
@@ -0,0 +1,47 @@
+package io.kaicode.graphpattern.clustering;
+
+import io.kaicode.graphpattern.domain.AncestorIndex;
+import io.kaicode.graphpattern.domain.GraphBuilder;
+import org.junit.jupiter.api.Test;
+
+import java.util.Arrays;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+
+class ClusterSelectorTest {
+
+	@Test
+	public void testSelectionClearsDescendantsAndTheirAncestors() {
+		// root
+		// ├── X ──┐
+		// └── Y ──┴── Z
+		//     └── W
+		GraphBuilder graph = new GraphBuilder();
+		graph.addChildParentLink("X", "root");
+		graph.addChildParentLink("Y", "root");
+		graph.addChildParentLink("Z", "X");
+		graph.addChildParentLink("Z", "Y");
+		graph.addChildParentLink("W", "Y");
+		ClusterSelector selector = new ClusterSelector(graph, new AncestorIndex(graph));
+
+		float[] differences = new float[graph.getNodeCount()];
+		Arrays.fill(differences, Float.NaN);
+		differences[index(graph, "root")] = 0.1f;
+		differences[index(graph, "X")] = 0.5f;
+		differences[index(graph, "Z")] = 0.3f;
+		differences[index(graph, "Y")] = -0.1f;
+		differences[index(graph, "W")] = -0.05f;
+
+		// Z is subsumed by X, root subsumes X
+		assertArrayEquals(new int[] {index(graph, "X")}, selector.select(differences, 10, 0.01f));
+
+		// Y is cleared to zero because it is an ancestor of Z, but is not subsumed by X
+		assertArrayEquals(new int[] {index(graph, "X"), index(graph, "Y")}, selector.select(differences, 10, 0f));
+
+		assertArrayEquals(new int[] {index(graph, "X"), index(graph, "Y")}, selector.select(differences, 2, -1f));
+	}
+
+	private int index(GraphBuilder graph, String code) {
+		return graph.getNode(code).getIndex();
+	}
+}
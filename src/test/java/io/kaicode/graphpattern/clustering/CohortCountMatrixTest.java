@@ -0,0 +1,103 @@
+package io.kaicode.graphpattern.clustering;
+
+import io.kaicode.graphpattern.InstanceDataLoader;
+import io.kaicode.graphpattern.domain.GraphBuilder;
+import io.kaicode.graphpattern.domain.Node;
+import io.kaicode.graphpattern.util.IdDictionary;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.roaringbitmap.RoaringBitmap;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+class CohortCountMatrixTest {
+
+	@TempDir
+	File tempDir;
+
+	@Test
+	public void testOneVsRestCountsMatchAggregatedCounts() throws IOException {
+		Random random = new Random(42);
+		File cohortsFile = new File(tempDir, "cohorts.txt");
+		try (BufferedWriter writer = new BufferedWriter(new FileWriter(cohortsFile))) {
+			writer.write("instance\tcohort");
+			writer.newLine();
+			// Some instances are in no cohort
+			for (int instance = 0; instance < 250; instance++) {
+				if (instance % 5 != 4) {
+					writer.write(String.format("p%s\t%s", instance, "cohort" + instance % 4));
+					writer.newLine();
+				}
+			}
+		}
+		File instanceData = new File(tempDir, "instance-data.txt");
+		try (BufferedWriter writer = new BufferedWriter(new FileWriter(instanceData))) {
+			writer.write("instance\tyear\tcode");
+			writer.newLine();
+			for (int row = 0; row < 3000; row++) {
+				int instance = random.nextInt(250);
+				// Each cohort favours its own part of the graph
+				int code = random.nextBoolean() ? random.nextInt(200) : instance % 4 * 50 + random.nextInt(50);
+				writer.write(String.format("p%s\t2000\tc%s", instance, code));
+				writer.newLine();
+			}
+		}
+
+		GraphBuilder graph = newGraph();
+		IdDictionary instanceIds = new IdDictionary();
+		Map<String, RoaringBitmap> cohortMap = InstanceDataLoader.loadCohorts(cohortsFile, instanceIds);
+		List<RoaringBitmap> cohorts = new ArrayList<>(cohortMap.values());
+		RoaringBitmap allInstances = new RoaringBitmap();
+		InstanceDataLoader.loadInstanceData(instanceData, graph, instanceIds, new RoaringBitmap(), 1, allInstances, new RoaringBitmap());
+		CohortCountMatrix countMatrix = new CohortCountMatrix(graph, Node::getGroupAInstances, cohorts, allInstances, new SubtreeAggregator());
+		ForkJoinPool pool = new ForkJoinPool(4);
+		CohortCountMatrix parallelCountMatrix = new CohortCountMatrix(graph, Node::getGroupAInstances, cohorts, allInstances, new SubtreeAggregator(pool));
+		pool.shutdown();
+
+		assertEquals(4, countMatrix.getCohortCount());
+		assertEquals(allInstances.getCardinality(), countMatrix.getInstanceCount());
+		for (int cohort = 0; cohort < cohorts.size(); cohort++) {
+			// Loaded again with the cohort as group B
+			GraphBuilder cohortGraph = newGraph();
+			IdDictionary cohortInstanceIds = new IdDictionary();
+			RoaringBitmap groupB = new ArrayList<>(InstanceDataLoader.loadCohorts(cohortsFile, cohortInstanceIds).values()).get(cohort);
+			RoaringBitmap cohortAllInstances = new RoaringBitmap();
+			InstanceDataLoader.loadInstanceData(instanceData, cohortGraph, cohortInstanceIds, groupB, 1, cohortAllInstances, new RoaringBitmap());
+			SubtreeCounts expected = new SubtreeAggregator().aggregate(cohortGraph);
+
+			assertEquals(RoaringBitmap.andCardinality(groupB, cohortAllInstances), countMatrix.getCohortSize(cohort));
+			SubtreeCounts counts = countMatrix.getOneVsRestCounts(cohort);
+			SubtreeCounts parallelCounts = parallelCountMatrix.getOneVsRestCounts(cohort);
+			for (int nodeIndex = 0; nodeIndex < graph.getNodeCount(); nodeIndex++) {
+				assertEquals(expected.getGroupACount(nodeIndex), counts.getGroupACount(nodeIndex));
+				assertEquals(expected.getGroupBCount(nodeIndex), counts.getGroupBCount(nodeIndex));
+				assertEquals(expected.getGroupBCount(nodeIndex), countMatrix.getCount(nodeIndex, cohort));
+				assertEquals(expected.getGroupACount(nodeIndex), parallelCounts.getGroupACount(nodeIndex));
+				assertEquals(expected.getGroupBCount(nodeIndex), parallelCounts.getGroupBCount(nodeIndex));
+			}
+		}
+	}
+
+	private static GraphBuilder newGraph() {
+		// Many nodes have more than one parent
+		Random random = new Random(7);
+		GraphBuilder graph = new GraphBuilder();
+		for (int i = 1; i < 200; i++) {
+			graph.addChildParentLink("c" + i, "c" + random.nextInt(i));
+			if (random.nextFloat() < 0.4f) {
+				graph.addChildParentLink("c" + i, "c" + random.nextInt(i));
+			}
+		}
+		return graph;
+	}
+}
@@ -0,0 +1,81 @@
+package io.kaicode.graphpattern.clustering;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.roaringbitmap.RoaringBitmap;
+
+import java.io.File;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class CohortScoreCacheTest {
+
+	@TempDir
+	File tempDir;
+
+	@Test
+	public void testLeastRecentlyUsedEviction() {
+		CohortScoreCache cache = new CohortScoreCache(2, null);
+		AtomicInteger computed = new AtomicInteger();
+		RoaringBitmap cohortOne = RoaringBitmap.bitmapOf(1, 2, 3);
+		RoaringBitmap cohortTwo = RoaringBitmap.bitmapOf(4, 5);
+		RoaringBitmap cohortThree = RoaringBitmap.bitmapOf(1, 2, 3, 4);
+
+		cache.getOrCompute(1, cohortOne, () -> scores(computed));
+		cache.getOrCompute(1, cohortTwo, () -> scores(computed));
+		cache.getOrCompute(1, RoaringBitmap.bitmapOf(1, 2, 3), () -> scores(computed));
+		assertEquals(2, computed.get());
+
+		// Cohort two is least recently used so is evicted
+		cache.getOrCompute(1, cohortThree, () -> scores(computed));
+		cache.getOrCompute(1, cohortOne, () -> scores(computed));
+		assertEquals(3, computed.get());
+		cache.getOrCompute(1, cohortTwo, () -> scores(computed));
+		assertEquals(4, computed.get());
+		assertEquals(2, cache.size());
+
+		// Another data version is another entry
+		cache.getOrCompute(2, cohortTwo, () -> scores(computed));
+		assertEquals(5, computed.get());
+	}
+
+	@Test
+	public void testScoresReadBackFromDisk() {
+		RoaringBitmap cohort = RoaringBitmap.bitmapOf(7, 8, 9);
+		CohortScores written = new CohortScoreCache(4, tempDir).getOrCompute(3, cohort, () -> scores(new AtomicInteger()));
+
+		CohortScores read = new CohortScoreCache(4, tempDir).getOrCompute(3, cohort, () -> fail("Should be read from disk"));
+		assertNotSame(written, read);
+		assertEquals(written.getGroupASize(), read.getGroupASize());
+		assertEquals(written.getGroupBSize(), read.getGroupBSize());
+		assertEquals(3, read.getSubtreeCounts().getNodeCount());
+		assertEquals(5, read.getSubtreeCounts().getGroupACount(1));
+		assertEquals(2, read.getSubtreeCounts().getGroupBCount(2));
+		assertArrayEquals(written.getDifferences(), read.getDifferences());
+	}
+
+	@Test
+	public void testCollidingKeyIsAMiss() {
+		AtomicInteger computed = new AtomicInteger();
+		RoaringBitmap cohortOne = RoaringBitmap.bitmapOf(1, 2, 3);
+		RoaringBitmap cohortTwo = RoaringBitmap.bitmapOf(4, 5);
+		CohortScoreCache cache = new CohortScoreCache(4, tempDir);
+		CohortScores one = cache.getOrCompute("key", cohortOne, () -> scores(computed));
+		CohortScores two = cache.getOrCompute("key", cohortTwo, () -> scores(computed));
+		assertEquals(2, computed.get());
+		assertNotSame(one, two);
+		assertSame(two, cache.getOrCompute("key", cohortTwo, () -> fail("Should be held in memory")));
+
+		// The disk entry is of cohort two
+		CohortScoreCache restarted = new CohortScoreCache(4, tempDir);
+		restarted.getOrCompute("key", cohortTwo, () -> fail("Should be read from disk"));
+		restarted.getOrCompute("key", cohortOne, () -> scores(computed));
+		assertEquals(3, computed.get());
+	}
+
+	private CohortScores scores(AtomicInteger computed) {
+		computed.incrementAndGet();
+		return new CohortScores(new SubtreeCounts(new int[] {10, 5, 0}, new int[] {3, 1, 2}), 10, 3);
+	}
+}
@@ -0,0 +1,74 @@
+package io.kaicode.graphpattern.clustering;
+
+import io.kaicode.graphpattern.domain.GraphBuilder;
+import org.junit.jupiter.api.Test;
+import org.roaringbitmap.RoaringBitmap;
+
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.ForkJoinPool;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+class EnrichedCodeInstancesTest {
+
+	@Test
+	public void testMatchesMaterialisedEnrichment() {
+		Random random = new Random(42);
+		GraphBuilder graph = new GraphBuilder();
+		for (int i = 1; i < 300; i++) {
+			graph.addChildParentLink("c" + i, "c" + random.nextInt(i));
+			if (random.nextFloat() < 0.3f) {
+				graph.addChildParentLink("c" + i, "c" + random.nextInt(i));
+			}
+		}
+		int codeCount = graph.getNodeCount();
+		RoaringBitmap[] codeInstances = new RoaringBitmap[codeCount];
+		for (int instance = 0; instance < 500; instance++) {
+			for (int i = 0; i < 4; i++) {
+				int code = random.nextInt(codeCount);
+				if (codeInstances[code] == null) {
+					codeInstances[code] = new RoaringBitmap();
+				}
+				codeInstances[code].add(instance);
+			}
+		}
+		RoaringBitmap enrichmentCodes = new RoaringBitmap();
+		for (int code = 0; code < codeCount; code += 2) {
+			enrichmentCodes.add(code);
+		}
+
+		// Enriched the way ExperimentalRecursiveSplitting used to, by adding ancestors to the instances
+		RoaringBitmap[] expected = new RoaringBitmap[codeCount];
+		for (int code = 0; code < codeCount; code++) {
+			expected[code] = codeInstances[code] != null ? codeInstances[code].clone() : new RoaringBitmap();
+		}
+		for (int code : enrichmentCodes) {
+			if (codeInstances[code] != null) {
+				Set<String> ancestors = graph.getAncestors(graph.getNode(code).getCode(), 3);
+				for (String ancestor : ancestors) {
+					expected[graph.getNode(ancestor).getIndex()].or(codeInstances[code]);
+				}
+			}
+		}
+
+		EnrichedCodeInstances enriched = new EnrichedCodeInstances(graph, codeInstances, enrichmentCodes, 3);
+		RoaringBitmap group = new RoaringBitmap();
+		for (int instance = 0; instance < 500; instance += 3) {
+			group.add(instance);
+		}
+		int[] expectedCounts = new int[codeCount];
+		for (int code = 0; code < codeCount; code++) {
+			assertEquals(expected[code], enriched.getInstances(code));
+			expectedCounts[code] = RoaringBitmap.andCardinality(expected[code], group);
+			for (int instance = 0; instance < 500; instance += 7) {
+				assertEquals(expected[code].contains(instance), enriched.contains(instance, code));
+			}
+		}
+		assertArrayEquals(expectedCounts, enriched.countAll(group, null));
+		ForkJoinPool pool = new ForkJoinPool(4);
+		assertArrayEquals(expectedCounts, enriched.countAll(group, pool));
+		pool.shutdown();
+	}
+}
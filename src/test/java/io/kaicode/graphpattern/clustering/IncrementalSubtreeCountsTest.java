@@ -0,0 +1,90 @@
+package io.kaicode.graphpattern.clustering;
+
+import io.kaicode.graphpattern.domain.AncestorIndex;
+import io.kaicode.graphpattern.domain.GraphBuilder;
+import io.kaicode.graphpattern.util.IdDictionary;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.roaringbitmap.RoaringBitmap;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class IncrementalSubtreeCountsTest {
+
+	@TempDir
+	File tempDir;
+
+	@Test
+	public void testAppendedRowsMatchFullAggregation() throws IOException {
+		Random random = new Random(42);
+		GraphBuilder graph = new GraphBuilder();
+		for (int i = 1; i < 500; i++) {
+			graph.addChildParentLink("c" + i, "c" + random.nextInt(i));
+			if (random.nextFloat() < 0.3f) {
+				graph.addChildParentLink("c" + i, "c" + random.nextInt(i));
+			}
+		}
+		IdDictionary instanceIds = new IdDictionary();
+		RoaringBitmap groupB = new RoaringBitmap();
+		for (int instance = 0; instance < 1_000; instance += 3) {
+			groupB.add(instanceIds.getOrAdd("i" + instance));
+		}
+		IncrementalSubtreeCounts incremental = new IncrementalSubtreeCounts(graph, new AncestorIndex(graph), instanceIds, groupB);
+
+		File instanceData = new File(tempDir, "instances.txt");
+		try (BufferedWriter writer = new BufferedWriter(new FileWriter(instanceData))) {
+			writer.write("instance\tyear\tcode\n");
+			for (int row = 0; row < 3_000; row++) {
+				writer.write("i" + random.nextInt(1_000) + "\t2020\tc" + random.nextInt(500) + "\n");
+			}
+		}
+		incremental.addRows(instanceData);
+		assertCountsMatch(graph, incremental);
+
+		// Existing instances gain codes, group sizes stay the same so only nodes with new counts are scored
+		for (int row = 0; row < 200; row++) {
+			int groupASize = incremental.getGroupASize();
+			int groupBSize = incremental.getGroupBSize();
+			int[] groupACounts = new int[graph.getNodeCount()];
+			int[] groupBCounts = new int[graph.getNodeCount()];
+			for (int nodeIndex = 0; nodeIndex < graph.getNodeCount(); nodeIndex++) {
+				groupACounts[nodeIndex] = incremental.getSubtreeCounts().getGroupACount(nodeIndex);
+				groupBCounts[nodeIndex] = incremental.getSubtreeCounts().getGroupBCount(nodeIndex);
+			}
+			RoaringBitmap touched = incremental.addRow("i" + random.nextInt(1_000), "c" + random.nextInt(500));
+			if (groupASize == incremental.getGroupASize() && groupBSize == incremental.getGroupBSize()) {
+				for (int nodeIndex = 0; nodeIndex < graph.getNodeCount(); nodeIndex++) {
+					boolean changed = groupACounts[nodeIndex] != incremental.getSubtreeCounts().getGroupACount(nodeIndex)
+							|| groupBCounts[nodeIndex] != incremental.getSubtreeCounts().getGroupBCount(nodeIndex);
+					assertEquals(changed, touched.contains(nodeIndex));
+				}
+			}
+		}
+		assertCountsMatch(graph, incremental);
+
+		// A new instance changes the group size
+		RoaringBitmap touched = incremental.addRow("new", "c10");
+		assertCountsMatch(graph, incremental);
+		assertTrue(touched.getCardinality() > 1);
+		assertTrue(incremental.addRow("new", "c10").isEmpty());
+	}
+
+	private void assertCountsMatch(GraphBuilder graph, IncrementalSubtreeCounts incremental) {
+		SubtreeCounts expected = new SubtreeAggregator().aggregate(graph);
+		SubtreeCounts actual = incremental.getSubtreeCounts();
+		float[] expectedDifferences = expected.calculateDifferences(incremental.getGroupASize(), incremental.getGroupBSize());
+		for (int nodeIndex = 0; nodeIndex < graph.getNodeCount(); nodeIndex++) {
+			assertEquals(expected.getGroupACount(nodeIndex), actual.getGroupACount(nodeIndex));
+			assertEquals(expected.getGroupBCount(nodeIndex), actual.getGroupBCount(nodeIndex));
+			if (expected.getGroupACount(nodeIndex) != 0 || expected.getGroupBCount(nodeIndex) != 0) {
+				assertEquals(expectedDifferences[nodeIndex], incremental.getDifferences()[nodeIndex]);
+			}
+		}
+	}
+}
@@ -0,0 +1,119 @@
+package io.kaicode.graphpattern.clustering;
+
+import io.kaicode.graphpattern.InstanceDataLoader;
+import io.kaicode.graphpattern.domain.GraphBuilder;
+import io.kaicode.graphpattern.util.IdDictionary;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.roaringbitmap.RoaringBitmap;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class PermutationSignificanceTest {
+
+	@TempDir
+	File tempDir;
+
+	@Test
+	public void testSeededPValuesAreTheSameInParallel() {
+		Random random = new Random(42);
+		RoaringBitmap randomInstances = new RoaringBitmap();
+		while (randomInstances.getCardinality() < 50) {
+			randomInstances.add(random.nextInt(200));
+		}
+		RoaringBitmap[] subtreeInstances = {
+				RoaringBitmap.bitmapOfRange(0, 200),// Every instance
+				RoaringBitmap.bitmapOfRange(0, 40),// Only group B
+				randomInstances,
+				new RoaringBitmap(),
+				RoaringBitmap.bitmapOfRange(100, 140)// Only group A
+		};
+		SubtreeInstanceIndex index = new SubtreeInstanceIndex(subtreeInstances, RoaringBitmap.bitmapOfRange(0, 200));
+		PermutationSignificance permutationSignificance = new PermutationSignificance(index, 999, 7);
+
+		RoaringBitmap groupB = RoaringBitmap.bitmapOfRange(0, 40);
+		PermutationSignificance.Result serial = permutationSignificance.test(groupB, null);
+		float[] pValues = serial.getPValues();
+		assertEquals(1, pValues[0]);
+		assertEquals(1 / 1000f, pValues[1]);
+		assertTrue(pValues[2] > 0.01);
+		assertTrue(Float.isNaN(pValues[3]));
+		assertEquals(1, pValues[4]);
+		for (int nodeIndex : new int[] {0, 1, 2, 4}) {
+			assertTrue(serial.getQValues()[nodeIndex] >= pValues[nodeIndex]);
+		}
+
+		ForkJoinPool pool = new ForkJoinPool(4);
+		assertArrayEquals(pValues, permutationSignificance.test(groupB, pool).getPValues());
+		// Group B larger than group A is drawn the other way round
+		RoaringBitmap largeGroupB = RoaringBitmap.bitmapOfRange(30, 200);
+		PermutationSignificance.Result largeSerial = permutationSignificance.test(largeGroupB, null);
+		assertArrayEquals(largeSerial.getPValues(), permutationSignificance.test(largeGroupB, pool).getPValues());
+		assertEquals(1, largeSerial.getPValues()[0]);
+		assertEquals(1, largeSerial.getPValues()[1]);
+		pool.shutdown();
+	}
+
+	@Test
+	public void testPValuesAreTheSameWhenLoadedInParallel() throws IOException {
+		Random random = new Random(42);
+		File cohorts = new File(tempDir, "cohorts.txt");
+		File instanceData = new File(tempDir, "instance-data.txt");
+		try (BufferedWriter cohortWriter = new BufferedWriter(new FileWriter(cohorts));
+			 BufferedWriter dataWriter = new BufferedWriter(new FileWriter(instanceData))) {
+			cohortWriter.write("instance\tcohort");
+			cohortWriter.newLine();
+			// Most instances are not in the cohort file so are given their ids while the instance data is read
+			for (int instance = 0; instance < 500; instance += 5) {
+				cohortWriter.write(String.format("p%s\t%s", instance, instance % 10 == 0 ? "B" : "A"));
+				cohortWriter.newLine();
+			}
+			dataWriter.write("instance\tyear\tcode");
+			dataWriter.newLine();
+			for (int row = 0; row < 5000; row++) {
+				int instance = random.nextInt(500);
+				// Group B is more likely to have the first few codes
+				int code = instance % 10 == 0 && random.nextBoolean() ? random.nextInt(5) : random.nextInt(25);
+				dataWriter.write(String.format("p%s\t2000\tc%s", instance, code));
+				dataWriter.newLine();
+			}
+		}
+
+		PermutationSignificance.Result serial = testLoaded(cohorts, instanceData, 1, null);
+		ForkJoinPool pool = new ForkJoinPool(4);
+		PermutationSignificance.Result parallel = testLoaded(cohorts, instanceData, 4, pool);
+		pool.shutdown();
+		assertArrayEquals(serial.getPValues(), parallel.getPValues());
+		assertArrayEquals(serial.getQValues(), parallel.getQValues());
+	}
+
+	private static PermutationSignificance.Result testLoaded(File cohorts, File instanceData, int threads, ForkJoinPool pool) {
+		GraphBuilder graph = new GraphBuilder();
+		for (int code = 1; code < 25; code++) {
+			graph.addChildParentLink("c" + code, "c" + code / 5);
+		}
+		IdDictionary instanceIds = new IdDictionary();
+		RoaringBitmap groupB = InstanceDataLoader.loadCohorts(cohorts, instanceIds).get("B");
+		RoaringBitmap allInstances = new RoaringBitmap();
+		InstanceDataLoader.loadInstanceData(instanceData, graph, instanceIds, groupB, threads, allInstances, new RoaringBitmap());
+		RoaringBitmap[] subtreeInstances = new SubtreeAggregator(pool).aggregateSubtrees(graph,
+				node -> RoaringBitmap.or(node.getGroupAInstances(), node.getGroupBInstances()));
+		return new PermutationSignificance(new SubtreeInstanceIndex(subtreeInstances, allInstances), 200, 7).test(groupB, pool);
+	}
+
+	@Test
+	public void testBenjaminiHochbergAdjustment() {
+		float[] qValues = PermutationSignificance.adjust(new float[] {0.01f, 0.04f, 0.03f, Float.NaN});
+		assertEquals(0.03f, qValues[0], 1e-6);
+		assertEquals(0.04f, qValues[1], 1e-6);
+		assertEquals(0.04f, qValues[2], 1e-6);
+		assertTrue(Float.isNaN(qValues[3]));
+	}
+}
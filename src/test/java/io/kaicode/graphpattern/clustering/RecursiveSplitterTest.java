@@ -0,0 +1,147 @@
+package io.kaicode.graphpattern.clustering;
+
+import io.kaicode.graphpattern.domain.GraphBuilder;
+import org.junit.jupiter.api.Test;
+import org.roaringbitmap.RoaringBitmap;
+
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class RecursiveSplitterTest {
+
+	@Test
+	public void testSplits() {
+		GraphBuilder graph = new GraphBuilder();
+		graph.addChildParentLink("X", "root");
+		graph.addChildParentLink("Y", "root");
+		graph.addChildParentLink("Z", "root");
+		int x = graph.getNode("X").getIndex();
+		int y = graph.getNode("Y").getIndex();
+		int z = graph.getNode("Z").getIndex();
+		RoaringBitmap[] codeInstances = new RoaringBitmap[graph.getNodeCount()];
+		codeInstances[x] = RoaringBitmap.bitmapOf(0, 1, 2, 3, 5);
+		codeInstances[y] = RoaringBitmap.bitmapOf(0, 1, 6, 7);
+		codeInstances[z] = RoaringBitmap.bitmapOf(3, 4);
+		EnrichedCodeInstances enrichedCodeInstances = new EnrichedCodeInstances(graph, codeInstances, new RoaringBitmap(), 0);
+		RoaringBitmap groupA = RoaringBitmap.bitmapOf(5, 6, 7, 8, 9);
+		RoaringBitmap groupB = RoaringBitmap.bitmapOf(0, 1, 2, 3, 4);
+
+		List<RecursiveSplitter.Split> splits = new RecursiveSplitter(2, 2, 2, 1).split(enrichedCodeInstances, groupA, groupB, new RoaringBitmap());
+
+		// Y covers group A as much as group B so is not used at the top level
+		assertEquals(2, splits.size());
+		RecursiveSplitter.Split xSplit = splits.get(0);
+		assertEquals(x, xSplit.getCode());
+		assertEquals(0.6f, xSplit.getScore(), 0.0001f);
+		assertEquals(RoaringBitmap.bitmapOf(5), xSplit.getWithCodeGroupA());
+		assertEquals(RoaringBitmap.bitmapOf(0, 1, 2, 3), xSplit.getWithCodeGroupB());
+		assertEquals(RoaringBitmap.bitmapOf(6, 7, 8, 9), xSplit.getWithoutCodeGroupA());
+		assertEquals(RoaringBitmap.bitmapOf(4), xSplit.getWithoutCodeGroupB());
+
+		// X is on the path so is not used again, the maximum depth stops any further splits
+		List<RecursiveSplitter.Split> withXSplits = xSplit.getWithCodeSplits();
+		assertEquals(2, withXSplits.size());
+		assertEquals(y, withXSplits.get(0).getCode());
+		assertEquals(0.5f, withXSplits.get(0).getScore(), 0.0001f);
+		assertEquals(RoaringBitmap.bitmapOf(0, 1), withXSplits.get(0).getWithCodeGroupB());
+		assertEquals(z, withXSplits.get(1).getCode());
+		assertEquals(0.25f, withXSplits.get(1).getScore(), 0.0001f);
+		assertTrue(withXSplits.get(0).getWithCodeSplits().isEmpty());
+		assertTrue(withXSplits.get(0).getWithoutCodeSplits().isEmpty());
+		// One group B instance is below the minimum group B size
+		assertTrue(xSplit.getWithoutCodeSplits().isEmpty());
+
+		RecursiveSplitter.Split zSplit = splits.get(1);
+		assertEquals(z, zSplit.getCode());
+		assertEquals(0.4f, zSplit.getScore(), 0.0001f);
+		assertEquals(new RoaringBitmap(), zSplit.getWithCodeGroupA());
+		assertEquals(RoaringBitmap.bitmapOf(3, 4), zSplit.getWithCodeGroupB());
+		// Nothing to differentiate once group A is empty
+		assertTrue(zSplit.getWithCodeSplits().isEmpty());
+		List<RecursiveSplitter.Split> withoutZSplits = zSplit.getWithoutCodeSplits();
+		assertEquals(2, withoutZSplits.size());
+		assertEquals(x, withoutZSplits.get(0).getCode());
+		assertEquals(0.8f, withoutZSplits.get(0).getScore(), 0.0001f);
+		assertEquals(y, withoutZSplits.get(1).getCode());
+
+		// Branching of one keeps only the best code at each level
+		splits = new RecursiveSplitter(2, 1, 1, 1).split(enrichedCodeInstances, groupA, groupB, new RoaringBitmap());
+		assertEquals(1, splits.size());
+		assertEquals(x, splits.get(0).getCode());
+		assertEquals(1, splits.get(0).getWithCodeSplits().size());
+		assertEquals(y, splits.get(0).getWithCodeSplits().get(0).getCode());
+		assertEquals(1, splits.get(0).getWithoutCodeSplits().size());
+		assertEquals(z, splits.get(0).getWithoutCodeSplits().get(0).getCode());
+
+		// Depth of one and excluded codes
+		RoaringBitmap excludedCodes = RoaringBitmap.bitmapOf(x);
+		splits = new RecursiveSplitter(1, 2, 1, 1).split(enrichedCodeInstances, groupA, groupB, excludedCodes);
+		assertEquals(1, splits.size());
+		assertEquals(z, splits.get(0).getCode());
+		assertTrue(splits.get(0).getWithCodeSplits().isEmpty());
+		assertTrue(splits.get(0).getWithoutCodeSplits().isEmpty());
+		assertEquals(RoaringBitmap.bitmapOf(x), excludedCodes);
+	}
+
+	@Test
+	public void testInvalidLimits() {
+		assertThrows(IllegalArgumentException.class, () -> new RecursiveSplitter(0, 1, 1, 1));
+		assertThrows(IllegalArgumentException.class, () -> new RecursiveSplitter(-1, 1, 1, 1));
+		assertThrows(IllegalArgumentException.class, () -> new RecursiveSplitter(1, 0, 1, 1));
+		assertThrows(IllegalArgumentException.class, () -> new RecursiveSplitter(1, 1, 1, 0));
+	}
+
+	@Test
+	public void testParallelSplitsMatchSerial() {
+		Random random = new Random(42);
+		GraphBuilder graph = new GraphBuilder();
+		for (int i = 1; i < 200; i++) {
+			graph.addChildParentLink("c" + i, "c" + random.nextInt(i));
+		}
+		int codeCount = graph.getNodeCount();
+		RoaringBitmap[] codeInstances = new RoaringBitmap[codeCount];
+		RoaringBitmap groupA = new RoaringBitmap();
+		RoaringBitmap groupB = new RoaringBitmap();
+		// Enough instances for the group counts to be split into several chunks
+		for (int instance = 0; instance < 6000; instance++) {
+			boolean inGroupB = instance % 3 == 0;
+			(inGroupB ? groupB : groupA).add(instance);
+			for (int i = 0; i < 5; i++) {
+				// Group B favours the lower codes
+				int code = inGroupB && random.nextBoolean() ? random.nextInt(codeCount / 4) : random.nextInt(codeCount);
+				if (codeInstances[code] == null) {
+					codeInstances[code] = new RoaringBitmap();
+				}
+				codeInstances[code].add(instance);
+			}
+		}
+		RoaringBitmap enrichmentCodes = new RoaringBitmap();
+		enrichmentCodes.add(0L, codeCount);
+		EnrichedCodeInstances enrichedCodeInstances = new EnrichedCodeInstances(graph, codeInstances, enrichmentCodes, 1);
+
+		List<RecursiveSplitter.Split> serial = new RecursiveSplitter(3, 3, 10, 1).split(enrichedCodeInstances, groupA, groupB, new RoaringBitmap());
+		List<RecursiveSplitter.Split> parallel = new RecursiveSplitter(3, 3, 10, 4).split(enrichedCodeInstances, groupA, groupB, new RoaringBitmap());
+		assertEquals(3, serial.size());
+		assertSameSplits(serial, parallel);
+	}
+
+	private static void assertSameSplits(List<RecursiveSplitter.Split> expected, List<RecursiveSplitter.Split> actual) {
+		assertEquals(expected.size(), actual.size());
+		for (int i = 0; i < expected.size(); i++) {
+			RecursiveSplitter.Split expectedSplit = expected.get(i);
+			RecursiveSplitter.Split actualSplit = actual.get(i);
+			assertEquals(expectedSplit.getCode(), actualSplit.getCode());
+			assertEquals(expectedSplit.getScore(), actualSplit.getScore());
+			assertEquals(expectedSplit.getWithCodeGroupA(), actualSplit.getWithCodeGroupA());
+			assertEquals(expectedSplit.getWithCodeGroupB(), actualSplit.getWithCodeGroupB());
+			assertEquals(expectedSplit.getWithoutCodeGroupA(), actualSplit.getWithoutCodeGroupA());
+			assertEquals(expectedSplit.getWithoutCodeGroupB(), actualSplit.getWithoutCodeGroupB());
+			assertSameSplits(expectedSplit.getWithCodeSplits(), actualSplit.getWithCodeSplits());
+			assertSameSplits(expectedSplit.getWithoutCodeSplits(), actualSplit.getWithoutCodeSplits());
+		}
+	}
+}
@@ -0,0 +1,76 @@
+package io.kaicode.graphpattern.clustering;
+
+import io.kaicode.graphpattern.domain.GraphBuilder;
+import org.junit.jupiter.api.Test;
+
+import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+class SubtreeAggregatorTest {
+
+	@Test
+	public void testMultiParentInstancesCountedOnce() {
+		// root
+		// ├── A ──┐
+		// └── B ──┴── C ── D
+		GraphBuilder graph = new GraphBuilder();
+		graph.addChildParentLink("A", "root");
+		graph.addChildParentLink("B", "root");
+		graph.addChildParentLink("C", "A");
+		graph.addChildParentLink("C", "B");
+		graph.addChildParentLink("D", "C");
+
+		graph.getNode("D").addGroupBInstance(1);
+		graph.getNode("C").addGroupBInstance(1);
+		graph.getNode("C").addGroupBInstance(2);
+		graph.getNode("A").addGroupBInstance(2);
+		graph.getNode("B").addGroupAInstance(3);
+		graph.getNode("root").addGroupAInstance(4);
+
+		SubtreeCounts counts = new SubtreeAggregator().aggregate(graph);
+
+		assertEquals(1, counts.getGroupBCount(graph.getNode("D").getIndex()));
+		assertEquals(2, counts.getGroupBCount(graph.getNode("C").getIndex()));
+		assertEquals(2, counts.getGroupBCount(graph.getNode("A").getIndex()));
+		assertEquals(2, counts.getGroupBCount(graph.getNode("B").getIndex()));
+		assertEquals(1, counts.getGroupACount(graph.getNode("B").getIndex()));
+		assertEquals(2, counts.getGroupBCount(graph.getNode("root").getIndex()));
+		assertEquals(2, counts.getGroupACount(graph.getNode("root").getIndex()));
+		assertEquals(0, counts.getGroupACount(graph.getNode("A").getIndex()));
+	}
+
+	@Test
+	public void testParallelMatchesSerial() {
+		Random random = new Random(42);
+		GraphBuilder graph = new GraphBuilder();
+		for (int i = 1; i < 2_000; i++) {
+			graph.addChildParentLink("c" + i, "c" + random.nextInt(i));
+			if (random.nextFloat() < 0.3f) {
+				graph.addChildParentLink("c" + i, "c" + random.nextInt(i));
+			}
+		}
+		for (int instance = 0; instance < 5_000; instance++) {
+			for (int i = 0; i < 5; i++) {
+				String code = "c" + random.nextInt(2_000);
+				if (instance % 3 == 0) {
+					graph.getNode(code).addGroupBInstance(instance);
+				} else {
+					graph.getNode(code).addGroupAInstance(instance);
+				}
+			}
+		}
+
+		SubtreeCounts serial = new SubtreeAggregator().aggregate(graph);
+		ForkJoinPool pool = new ForkJoinPool(4);
+		SubtreeCounts parallel = new SubtreeAggregator(pool).aggregate(graph);
+		pool.shutdown();
+
+		for (int nodeIndex = 0; nodeIndex < graph.getNodeCount(); nodeIndex++) {
+			assertEquals(serial.getGroupACount(nodeIndex), parallel.getGroupACount(nodeIndex));
+			assertEquals(serial.getGroupBCount(nodeIndex), parallel.getGroupBCount(nodeIndex));
+		}
+	}
+
+}
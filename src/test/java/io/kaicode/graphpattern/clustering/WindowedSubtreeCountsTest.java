@@ -0,0 +1,161 @@
+package io.kaicode.graphpattern.clustering;
+
+import io.kaicode.graphpattern.InstanceDataLoader;
+import io.kaicode.graphpattern.domain.AncestorIndex;
+import io.kaicode.graphpattern.domain.GraphBuilder;
+import io.kaicode.graphpattern.domain.TimedInstanceStore;
+import io.kaicode.graphpattern.util.IdDictionary;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.roaringbitmap.RoaringBitmap;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.util.HashSet;
+import java.util.Random;
+import java.util.Set;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+class WindowedSubtreeCountsTest {
+
+	@TempDir
+	File tempDir;
+
+	@Test
+	public void testMovedWindowsMatchCountsFromScratch() throws IOException {
+		Random random = new Random(42);
+		GraphBuilder graph = new GraphBuilder();
+		for (int i = 1; i < 200; i++) {
+			graph.addChildParentLink("c" + i, "c" + random.nextInt(i));
+			if (random.nextFloat() < 0.3f) {
+				graph.addChildParentLink("c" + i, "c" + random.nextInt(i));
+			}
+		}
+		AncestorIndex ancestorIndex = new AncestorIndex(graph);
+		File instanceData = new File(tempDir, "instance-data.txt");
+		try (BufferedWriter writer = new BufferedWriter(new FileWriter(instanceData))) {
+			writer.write("instance\tyear\tcode");
+			writer.newLine();
+			for (int row = 0; row < 2000; row++) {
+				writer.write(String.format("p%s\t%s\tc%s", random.nextInt(150), 2000 + random.nextInt(10), random.nextInt(220)));
+				writer.newLine();
+			}
+		}
+		IdDictionary instanceIds = new IdDictionary();
+		TimedInstanceStore store = TimedInstanceStore.load(instanceData, graph, instanceIds);
+		RoaringBitmap groupB = new RoaringBitmap();
+		for (int instance = 0; instance < instanceIds.size(); instance += 3) {
+			groupB.add(instance);
+		}
+
+		WindowedSubtreeCounts windowedCounts = new WindowedSubtreeCounts(store, ancestorIndex, groupB);
+		// Slides, jumps, moves back, grows, shrinks and empties
+		int[][] windows = {{2000, 2002}, {2001, 2003}, {2002, 2004}, {2007, 2009}, {2003, 2005}, {2000, 2009}, {2004, 2004}, {2012, 2015}, {2002, 2006}};
+		for (int[] window : windows) {
+			windowedCounts.setWindow(window[0], window[1]);
+			SubtreeCounts counts = windowedCounts.getSubtreeCounts();
+
+			int[] expectedACounts = new int[graph.getNodeCount()];
+			int[] expectedBCounts = new int[graph.getNodeCount()];
+			int expectedASize = 0;
+			int expectedBSize = 0;
+			for (int instance = 0; instance < store.getInstanceCount(); instance++) {
+				Set<Integer> reached = new HashSet<>();
+				boolean inWindow = false;
+				for (int row = store.getFirstRow(instance); row < store.getFirstRow(instance + 1); row++) {
+					if (store.getYear(row) >= window[0] && store.getYear(row) <= window[1]) {
+						inWindow = true;
+						if (store.getNodeIndex(row) != -1) {
+							reached.add(store.getNodeIndex(row));
+							ancestorIndex.forEachAncestor(store.getNodeIndex(row), reached::add);
+						}
+					}
+				}
+				if (inWindow) {
+					int[] expectedCounts = groupB.contains(instance) ? expectedBCounts : expectedACounts;
+					reached.forEach(nodeIndex -> expectedCounts[nodeIndex]++);
+					if (groupB.contains(instance)) {
+						expectedBSize++;
+					} else {
+						expectedASize++;
+					}
+				}
+			}
+			for (int nodeIndex = 0; nodeIndex < graph.getNodeCount(); nodeIndex++) {
+				assertEquals(expectedACounts[nodeIndex], counts.getGroupACount(nodeIndex));
+				assertEquals(expectedBCounts[nodeIndex], counts.getGroupBCount(nodeIndex));
+			}
+			assertEquals(expectedASize, windowedCounts.getGroupASize());
+			assertEquals(expectedBSize, windowedCounts.getGroupBSize());
+		}
+	}
+
+	@Test
+	public void testFullRangeWindowMatchesAggregatedCounts() throws IOException {
+		Random random = new Random(42);
+		File cohorts = new File(tempDir, "cohorts.txt");
+		try (BufferedWriter writer = new BufferedWriter(new FileWriter(cohorts))) {
+			writer.write("instance\tcohort");
+			writer.newLine();
+			for (int instance = 0; instance < 100; instance += 3) {
+				writer.write(String.format("p%s\tB", instance));
+				writer.newLine();
+			}
+		}
+		// Codes past c199 are not in the knowledge graph, p100 to p109 only have those
+		File instanceData = new File(tempDir, "instance-data.txt");
+		try (BufferedWriter writer = new BufferedWriter(new FileWriter(instanceData))) {
+			writer.write("instance\tyear\tcode");
+			writer.newLine();
+			for (int row = 0; row < 1500; row++) {
+				writer.write(String.format("p%s\t%s\tc%s", random.nextInt(100), 2000 + random.nextInt(10), random.nextInt(230)));
+				writer.newLine();
+			}
+			for (int instance = 100; instance < 110; instance++) {
+				writer.write(String.format("p%s\t%s\tc%s", instance, 2000 + random.nextInt(10), 200 + random.nextInt(30)));
+				writer.newLine();
+			}
+		}
+
+		GraphBuilder aggregatedGraph = newGraph();
+		IdDictionary aggregatedIds = new IdDictionary();
+		RoaringBitmap groupB = InstanceDataLoader.loadCohorts(cohorts, aggregatedIds).get("B");
+		RoaringBitmap allInstances = new RoaringBitmap();
+		InstanceDataLoader.loadInstanceData(instanceData, aggregatedGraph, aggregatedIds, groupB, 1, allInstances, new RoaringBitmap());
+		SubtreeCounts expectedCounts = new SubtreeAggregator().aggregate(aggregatedGraph);
+		int expectedBSize = RoaringBitmap.andCardinality(groupB, allInstances);
+
+		GraphBuilder graph = newGraph();
+		IdDictionary instanceIds = new IdDictionary();
+		InstanceDataLoader.loadCohorts(cohorts, instanceIds);
+		TimedInstanceStore store = TimedInstanceStore.load(instanceData, graph, instanceIds);
+		WindowedSubtreeCounts windowedCounts = new WindowedSubtreeCounts(store, new AncestorIndex(graph), groupB);
+		windowedCounts.setWindow(2000, 2009);
+
+		SubtreeCounts counts = windowedCounts.getSubtreeCounts();
+		for (int nodeIndex = 0; nodeIndex < graph.getNodeCount(); nodeIndex++) {
+			assertEquals(expectedCounts.getGroupACount(nodeIndex), counts.getGroupACount(nodeIndex));
+			assertEquals(expectedCounts.getGroupBCount(nodeIndex), counts.getGroupBCount(nodeIndex));
+		}
+		assertEquals(allInstances.getCardinality() - expectedBSize, windowedCounts.getGroupASize());
+		assertEquals(expectedBSize, windowedCounts.getGroupBSize());
+		assertEquals(110, windowedCounts.getGroupASize() + windowedCounts.getGroupBSize());
+		assertArrayEquals(expectedCounts.calculateDifferences(allInstances.getCardinality() - expectedBSize, expectedBSize), windowedCounts.getDifferences());
+	}
+
+	private static GraphBuilder newGraph() {
+		Random random = new Random(7);
+		GraphBuilder graph = new GraphBuilder();
+		for (int i = 1; i < 200; i++) {
+			graph.addChildParentLink("c" + i, "c" + random.nextInt(i));
+			if (random.nextFloat() < 0.3f) {
+				graph.addChildParentLink("c" + i, "c" + random.nextInt(i));
+			}
+		}
+		return graph;
+	}
+}
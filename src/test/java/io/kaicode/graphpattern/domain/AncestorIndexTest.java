@@ -0,0 +1,43 @@
+package io.kaicode.graphpattern.domain;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.HashSet;
+import java.util.Set;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class AncestorIndexTest {
+
+	@Test
+	public void testMultiParentClosure() {
+		GraphBuilder graph = new GraphBuilder();
+		graph.addChildParentLink("D", "C");
+		graph.addChildParentLink("C", "A");
+		graph.addChildParentLink("C", "B");
+		graph.addChildParentLink("A", "root");
+		graph.addChildParentLink("B", "root");
+		graph.addChildParentLink("E", "B");
+
+		AncestorIndex index = new AncestorIndex(graph);
+		int d = graph.getNode("D").getIndex();
+		int e = graph.getNode("E").getIndex();
+		int a = graph.getNode("A").getIndex();
+		int root = graph.getNode("root").getIndex();
+
+		Set<String> ancestorsOfD = new HashSet<>();
+		index.forEachAncestor(d, ancestor -> ancestorsOfD.add(graph.getNode(ancestor).getCode()));
+		assertEquals(Set.of("C", "A", "B", "root"), ancestorsOfD);
+		assertEquals(4, index.getAncestorCount(d));
+		assertEquals(0, index.getAncestorCount(root));
+
+		assertTrue(index.isAncestor(root, d));
+		assertTrue(index.isAncestor(a, d));
+		assertFalse(index.isAncestor(a, e));
+		assertFalse(index.isAncestor(d, d));
+		assertTrue(index.isAncestorOrSelf(d, d));
+		assertTrue(index.isSubsumption(d, root));
+		assertFalse(index.isSubsumption(d, e));
+	}
+
+}
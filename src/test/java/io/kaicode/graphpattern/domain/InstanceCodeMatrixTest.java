@@ -0,0 +1,103 @@
+package io.kaicode.graphpattern.domain;
+
+import io.kaicode.graphpattern.InstanceDataLoader;
+import io.kaicode.graphpattern.clustering.SubtreeAggregator;
+import io.kaicode.graphpattern.clustering.SubtreeCounts;
+import io.kaicode.graphpattern.util.IdDictionary;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.roaringbitmap.RoaringBitmap;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class InstanceCodeMatrixTest {
+
+	@TempDir
+	File tempDir;
+
+	@Test
+	public void testMatrixMatchesInstanceDataLoadedIntoNodes() throws IOException {
+		Random random = new Random(42);
+		GraphBuilder graph = new GraphBuilder();
+		for (int i = 1; i < 200; i++) {
+			graph.addChildParentLink("c" + i, "c" + random.nextInt(i));
+			if (random.nextFloat() < 0.3f) {
+				graph.addChildParentLink("c" + i, "c" + random.nextInt(i));
+			}
+		}
+		File cohorts = new File(tempDir, "cohorts.txt");
+		try (BufferedWriter writer = new BufferedWriter(new FileWriter(cohorts))) {
+			writer.write("instance\tcohort");
+			writer.newLine();
+			// Some of the cohort have no instance data
+			for (int instance = 0; instance < 200; instance += 2) {
+				writer.write(String.format("p%s\t%s", instance, instance % 3 == 0 ? "B" : "A"));
+				writer.newLine();
+			}
+		}
+		// Duplicate codes, codes not in the graph and rows without a code
+		File instanceData = new File(tempDir, "instance-data.txt");
+		try (BufferedWriter writer = new BufferedWriter(new FileWriter(instanceData))) {
+			writer.write("instance\tyear\tcode");
+			writer.newLine();
+			for (int row = 0; row < 3000; row++) {
+				int code = random.nextInt(220);
+				writer.write(String.format("p%s\t2000\t%s", random.nextInt(150), code == 0 ? "" : "c" + code));
+				writer.newLine();
+			}
+		}
+
+		IdDictionary instanceIds = new IdDictionary();
+		RoaringBitmap groupB = InstanceDataLoader.loadCohorts(cohorts, instanceIds).get("B");
+		File matrixFile = new File(tempDir, "matrix.bin");
+		InstanceCodeMatrix matrix = InstanceCodeMatrix.load(instanceData, graph, instanceIds, matrixFile, 1);
+		assertEquals(3000, matrix.getRowsRead());
+		assertEquals(100, instanceIds.size());
+
+		RoaringBitmap allInstances = new RoaringBitmap();
+		RoaringBitmap allCodesUsed = new RoaringBitmap();
+		InstanceDataLoader.loadInstanceData(instanceData, graph, instanceIds, groupB, 1, allInstances, allCodesUsed);
+		assertEquals(instanceIds.size(), matrix.getInstanceCount());
+		assertEquals(allInstances, matrix.getInstances());
+		assertEquals(allCodesUsed, matrix.getCodesUsed());
+
+		int[] codes = new int[matrix.getMaxCodeCount()];
+		long codeCount = 0;
+		for (int instance = 0; instance < matrix.getInstanceCount(); instance++) {
+			int size = matrix.getCodes(instance, codes);
+			int finalInstance = instance;
+			int[] expected = allCodesUsed.stream().filter(nodeIndex -> graph.getNode(nodeIndex).getGroupAInstances().contains(finalInstance)
+					|| graph.getNode(nodeIndex).getGroupBInstances().contains(finalInstance)).toArray();
+			assertArrayEquals(expected, Arrays.copyOf(codes, size));
+			codeCount += size;
+		}
+		assertEquals(codeCount, matrix.getCodeCount());
+
+		AncestorIndex ancestorIndex = new AncestorIndex(graph);
+		SubtreeCounts expectedCounts = new SubtreeAggregator().aggregate(graph);
+		SubtreeCounts counts = new SubtreeAggregator().aggregate(matrix, ancestorIndex, groupB);
+		ForkJoinPool pool = new ForkJoinPool(4);
+		SubtreeCounts parallelCounts = new SubtreeAggregator(pool).aggregate(matrix, ancestorIndex, groupB);
+		pool.shutdown();
+		for (int nodeIndex = 0; nodeIndex < graph.getNodeCount(); nodeIndex++) {
+			assertEquals(expectedCounts.getGroupACount(nodeIndex), counts.getGroupACount(nodeIndex));
+			assertEquals(expectedCounts.getGroupBCount(nodeIndex), counts.getGroupBCount(nodeIndex));
+			assertEquals(expectedCounts.getGroupACount(nodeIndex), parallelCounts.getGroupACount(nodeIndex));
+			assertEquals(expectedCounts.getGroupBCount(nodeIndex), parallelCounts.getGroupBCount(nodeIndex));
+		}
+
+		// Reused while the data version matches, rebuilt when it does not
+		IdDictionary cohortIds = new IdDictionary();
+		InstanceDataLoader.loadCohorts(cohorts, cohortIds);
+		assertEquals(0, InstanceCodeMatrix.load(instanceData, graph, cohortIds, matrixFile, 1).getRowsRead());
+		assertEquals(3000, InstanceCodeMatrix.load(instanceData, graph, cohortIds, matrixFile, 2).getRowsRead());
+	}
+}
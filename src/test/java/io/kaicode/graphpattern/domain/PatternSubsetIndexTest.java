@@ -0,0 +1,52 @@
+package io.kaicode.graphpattern.domain;
+
+import org.junit.jupiter.api.Test;
+import org.roaringbitmap.RoaringBitmap;
+
+import java.util.*;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+class PatternSubsetIndexTest {
+
+	@Test
+	public void testSubsetsMatchPairwiseScan() {
+		Random random = new Random(42);
+		List<Pattern> patterns = new ArrayList<>();
+		Set<Set<Integer>> seen = new HashSet<>();
+		while (patterns.size() < 2_000) {
+			Set<Integer> ids = new TreeSet<>();
+			int size = random.nextInt(6);
+			for (int i = 0; i < size; i++) {
+				ids.add(random.nextInt(30));
+			}
+			if (seen.add(ids)) {
+				patterns.add(new Pattern(new HashSet<>(), ids.stream().mapToInt(Integer::intValue).toArray()));
+			}
+		}
+		RoaringBitmap include = new RoaringBitmap();
+		for (int position = 0; position < patterns.size(); position += 2) {
+			include.add(position);
+		}
+		PatternSubsetIndex index = new PatternSubsetIndex(patterns, include);
+
+		for (Pattern query : patterns) {
+			Set<Integer> queryIds = toSet(query.getNodeIds());
+			RoaringBitmap expected = new RoaringBitmap();
+			include.forEach((int position) -> {
+				if (queryIds.containsAll(toSet(patterns.get(position).getNodeIds()))) {
+					expected.add(position);
+				}
+			});
+			assertEquals(expected, index.getSubsets(query.getNodeIds()));
+		}
+	}
+
+	private Set<Integer> toSet(int[] ids) {
+		Set<Integer> set = new HashSet<>();
+		for (int id : ids) {
+			set.add(id);
+		}
+		return set;
+	}
+}
@@ -0,0 +1,112 @@
+package io.kaicode.graphpattern.service;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.boot.builder.SpringApplicationBuilder;
+import org.springframework.context.ConfigurableApplicationContext;
+
+import java.io.File;
+import java.io.IOException;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.file.Files;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Requests against the service on a random port, so that the JSON and error responses are those a client gets.
+ */
+class AnalysisControllerTest {
+
+	@TempDir
+	File tempDir;
+
+	private ConfigurableApplicationContext context;
+	private HttpClient client;
+	private String baseUrl;
+	private final ObjectMapper objectMapper = new ObjectMapper();
+
+	@BeforeEach
+	public void startService() throws IOException {
+		File hierarchy = new File(tempDir, "hierarchy.txt");
+		Files.write(hierarchy.toPath(), List.of("child\tparent", "A\troot", "B\troot", "C\tA", "D\tA"));
+		File labels = new File(tempDir, "labels.txt");
+		Files.write(labels.toPath(), List.of("code\tlabel", "A\tConcept A", "C\tConcept C"));
+		File cohorts = new File(tempDir, "cohorts.txt");
+		Files.write(cohorts.toPath(), List.of("instance\tcohort", "p0\tcase", "p1\tcase", "p2\tcontrol", "p3\tcontrol"));
+		File instanceData = new File(tempDir, "instance-data.txt");
+		// The case cohort has C or D, under A, the controls have B
+		Files.write(instanceData.toPath(), List.of("instance\tyear\tcode", "p0\t2000\tC", "p1\t2000\tD", "p2\t2000\tB", "p3\t2000\tB"));
+
+		context = new SpringApplicationBuilder(GraphPatternService.class).run(hierarchy.getPath(), labels.getPath(), instanceData.getPath(),
+				cohorts.getPath(), "--server.port=0");
+		baseUrl = "http://localhost:" + context.getEnvironment().getProperty("local.server.port");
+		client = HttpClient.newHttpClient();
+	}
+
+	@AfterEach
+	public void stopService() {
+		context.close();
+	}
+
+	@Test
+	public void testClusters() throws IOException, InterruptedException {
+		HttpResponse<String> response = post("/clusters", "{\"cohort\":\"case\",\"maxClusters\":1}");
+		assertEquals(200, response.statusCode());
+		JsonNode result = objectMapper.readTree(response.body());
+		assertEquals(2, result.get("groupASize").asInt());
+		assertEquals(2, result.get("groupBSize").asInt());
+		JsonNode clusters = result.get("clusters");
+		assertEquals(1, clusters.size());
+		JsonNode cluster = clusters.get(0);
+		assertEquals("A", cluster.get("code").asText());
+		assertEquals(1.0, cluster.get("diffStrength").asDouble(), 0.0001);
+		assertEquals("Concept A", cluster.get("display").asText());
+		assertEquals("[\"C\",\"D\"]", cluster.get("clusterCodes").toString());
+		assertEquals("[{\"sourceCode\":\"C\",\"targetCode\":\"A\"},{\"sourceCode\":\"D\",\"targetCode\":\"A\"}]", result.get("clusterMap").toString());
+
+		// The same cohort as instances, without the cluster map
+		response = post("/clusters", "{\"instances\":[\"p0\",\"p1\",\"p9\"],\"maxClusters\":1,\"clusterMap\":false}");
+		assertEquals(200, response.statusCode());
+		result = objectMapper.readTree(response.body());
+		assertEquals(clusters, result.get("clusters"));
+		assertFalse(result.has("clusterMap"));
+	}
+
+	@Test
+	public void testErrors() throws IOException, InterruptedException {
+		assertEquals(404, post("/clusters", "{\"cohort\":\"unknown\"}").statusCode());
+		assertEquals(400, post("/clusters", "{}").statusCode());
+		assertEquals(400, post("/clusters", "{\"cohort\":\"case\",\"maxClusters\":0}").statusCode());
+		// None of the instances have data
+		assertEquals(400, post("/clusters", "{\"instances\":[\"p9\"]}").statusCode());
+	}
+
+	@Test
+	public void testCohortsAndMetrics() throws IOException, InterruptedException {
+		HttpResponse<String> cohorts = client.send(HttpRequest.newBuilder(URI.create(baseUrl + "/cohorts")).build(), HttpResponse.BodyHandlers.ofString());
+		assertEquals(200, cohorts.statusCode());
+		assertEquals("{\"case\":2,\"control\":2}", cohorts.body());
+
+		post("/clusters", "{\"cohort\":\"case\"}");
+		HttpResponse<String> metrics = client.send(HttpRequest.newBuilder(URI.create(baseUrl + "/metrics")).build(), HttpResponse.BodyHandlers.ofString());
+		assertEquals(200, metrics.statusCode());
+		assertTrue(metrics.headers().firstValue("Content-Type").orElse("").startsWith("text/plain"));
+		assertTrue(metrics.body().contains("graph_patterns_phase_runs_total{phase=\"aggregation\"} 1\n"), metrics.body());
+	}
+
+	private HttpResponse<String> post(String path, String json) throws IOException, InterruptedException {
+		HttpRequest request = HttpRequest.newBuilder(URI.create(baseUrl + path))
+				.header("Content-Type", "application/json")
+				.POST(HttpRequest.BodyPublishers.ofString(json))
+				.build();
+		return client.send(request, HttpResponse.BodyHandlers.ofString());
+	}
+}
@@ -0,0 +1,150 @@
+package io.kaicode.graphpattern.service;
+
+import io.kaicode.graphpattern.ClusterMapWriter;
+import io.kaicode.graphpattern.GraphClustering;
+import io.kaicode.graphpattern.InstanceDataLoader;
+import io.kaicode.graphpattern.KnowledgeGraphLoader;
+import io.kaicode.graphpattern.clustering.ClusterSelector;
+import io.kaicode.graphpattern.clustering.CohortScoreCache;
+import io.kaicode.graphpattern.clustering.SubtreeAggregator;
+import io.kaicode.graphpattern.domain.AncestorIndex;
+import io.kaicode.graphpattern.domain.GraphBuilder;
+import io.kaicode.graphpattern.domain.Node;
+import io.kaicode.graphpattern.util.IdDictionary;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.roaringbitmap.RoaringBitmap;
+
+import java.io.BufferedWriter;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.StringWriter;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.StringJoiner;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class AnalysisIndexTest {
+
+	@TempDir
+	File tempDir;
+
+	@Test
+	public void testAnalyseMatchesClusteringOutput() throws IOException {
+		Random random = new Random(42);
+		File hierarchy = new File(tempDir, "hierarchy.txt");
+		File labels = new File(tempDir, "labels.txt");
+		File cohorts = new File(tempDir, "cohorts.txt");
+		File instanceData = new File(tempDir, "instance-data.txt");
+		try (BufferedWriter hierarchyWriter = new BufferedWriter(new FileWriter(hierarchy));
+			 BufferedWriter labelsWriter = new BufferedWriter(new FileWriter(labels));
+			 BufferedWriter cohortWriter = new BufferedWriter(new FileWriter(cohorts));
+			 BufferedWriter dataWriter = new BufferedWriter(new FileWriter(instanceData))) {
+			hierarchyWriter.write("child\tparent");
+			hierarchyWriter.newLine();
+			labelsWriter.write("code\tlabel");
+			labelsWriter.newLine();
+			for (int i = 1; i < 120; i++) {
+				hierarchyWriter.write(String.format("c%s\tc%s", i, random.nextInt(i)));
+				hierarchyWriter.newLine();
+				if (random.nextFloat() < 0.2f) {
+					hierarchyWriter.write(String.format("c%s\tc%s", i, random.nextInt(i)));
+					hierarchyWriter.newLine();
+				}
+				// Some codes without a label
+				if (i % 3 != 0) {
+					labelsWriter.write(String.format("c%s\tConcept %s", i, i));
+					labelsWriter.newLine();
+				}
+			}
+			cohortWriter.write("instance\tcohort");
+			cohortWriter.newLine();
+			for (int instance = 0; instance < 400; instance++) {
+				cohortWriter.write(String.format("p%s\t%s", instance, instance % 4 == 0 ? "B" : "A"));
+				cohortWriter.newLine();
+			}
+			dataWriter.write("instance\tyear\tcode");
+			dataWriter.newLine();
+			for (int row = 0; row < 4000; row++) {
+				int instance = random.nextInt(400);
+				// Group B favours the lower codes
+				int code = instance % 4 == 0 && random.nextBoolean() ? random.nextInt(30) : random.nextInt(120);
+				dataWriter.write(String.format("p%s\t2000\tc%s", instance, code));
+				dataWriter.newLine();
+			}
+		}
+		float minDiff = 0.02f;
+		int maxClusters = 8;
+
+		// As written by GraphClustering
+		GraphBuilder knowledgeGraph = KnowledgeGraphLoader.loadTsv(hierarchy, labels);
+		IdDictionary instanceIds = new IdDictionary();
+		RoaringBitmap groupB = InstanceDataLoader.loadCohorts(cohorts, instanceIds).get("B");
+		RoaringBitmap allInstances = new RoaringBitmap();
+		RoaringBitmap allCodesUsed = new RoaringBitmap();
+		InstanceDataLoader.loadInstanceData(instanceData, knowledgeGraph, instanceIds, groupB, 1, allInstances, allCodesUsed);
+		int groupBSize = RoaringBitmap.andCardinality(groupB, allInstances);
+		int groupASize = allInstances.getCardinality() - groupBSize;
+		float[] differences = new SubtreeAggregator().aggregate(knowledgeGraph).calculateDifferences(groupASize, groupBSize);
+		int[] chosenNodeIndexes = new ClusterSelector(knowledgeGraph, new AncestorIndex(knowledgeGraph)).select(differences, maxClusters, minDiff);
+		List<Node> clusters = new ArrayList<>();
+		boolean[] chosenNodes = new boolean[knowledgeGraph.getNodeCount()];
+		for (int nodeIndex : chosenNodeIndexes) {
+			clusters.add(knowledgeGraph.getNode(nodeIndex));
+			chosenNodes[nodeIndex] = true;
+		}
+		assertTrue(clusters.size() > 1);
+		StringWriter expectedClusters = new StringWriter();
+		try (BufferedWriter clustersWriter = new BufferedWriter(expectedClusters)) {
+			GraphClustering.writeClusters(clustersWriter, knowledgeGraph, clusters, differences, allCodesUsed);
+		}
+		ByteArrayOutputStream expectedClusterMap = new ByteArrayOutputStream();
+		new ClusterMapWriter(knowledgeGraph).write(expectedClusterMap, allCodesUsed, chosenNodes, null);
+
+		for (int threads : new int[] {1, 4}) {
+			AnalysisIndex analysisIndex = new AnalysisIndex(hierarchy, labels, instanceData, cohorts, null, threads, new CohortScoreCache(4, null));
+			try {
+				AnalysisResult result = analysisIndex.analyse(analysisIndex.getCohort("B"), minDiff, maxClusters, true);
+				assertEquals(groupASize, result.getGroupASize());
+				assertEquals(groupBSize, result.getGroupBSize());
+				assertEquals(expectedClusters.toString(), toClustersText(result));
+				assertEquals(expectedClusterMap.toString(StandardCharsets.UTF_8), toClusterMapText(result));
+
+				// Scores from the cache, and the same cohort given as instances
+				List<String> groupBInstances = new ArrayList<>();
+				groupB.forEach((int instanceId) -> groupBInstances.add(instanceIds.decode(instanceId)));
+				groupBInstances.add("not-an-instance");
+				RoaringBitmap requestedGroupB = analysisIndex.getInstances(groupBInstances);
+				assertEquals(groupB, requestedGroupB);
+				AnalysisResult cachedResult = analysisIndex.analyse(requestedGroupB, minDiff, maxClusters, false);
+				assertEquals(expectedClusters.toString(), toClustersText(cachedResult));
+				assertNull(cachedResult.getClusterMap());
+			} finally {
+				analysisIndex.shutdown();
+			}
+		}
+	}
+
+	private static String toClustersText(AnalysisResult result) {
+		StringJoiner text = new StringJoiner(System.lineSeparator(), "", System.lineSeparator());
+		text.add("code\tdiffStrength\tdisplay\tclusterCodes");
+		for (AnalysisResult.Cluster cluster : result.getClusters()) {
+			text.add(cluster.getCode() + "\t" + cluster.getDiffStrength() + "\t" + cluster.getDisplay() + "\t" + String.join(",", cluster.getClusterCodes()));
+		}
+		return text.toString();
+	}
+
+	private static String toClusterMapText(AnalysisResult result) {
+		StringJoiner text = new StringJoiner(System.lineSeparator(), "", System.lineSeparator());
+		text.add("sourceCode\ttargetCode");
+		for (AnalysisResult.ClusterMapping mapping : result.getClusterMap()) {
+			text.add(mapping.getSourceCode() + "\t" + mapping.getTargetCode());
+		}
+		return text.toString();
+	}
+}
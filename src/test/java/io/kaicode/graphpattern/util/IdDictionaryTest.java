@@ -0,0 +1,80 @@
+package io.kaicode.graphpattern.util;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class IdDictionaryTest {
+
+	@TempDir
+	File tempDir;
+
+	@Test
+	public void testGrowsPastInitialCapacity() {
+		IdDictionary dictionary = new IdDictionary();
+		// Well past the initial table, offsets and bytes
+		for (int i = 0; i < 20_000; i++) {
+			assertEquals(i, dictionary.getOrAdd("identifier-" + i));
+		}
+		assertEquals(20_000, dictionary.size());
+		for (int i = 0; i < 20_000; i++) {
+			assertEquals(i, dictionary.get("identifier-" + i));
+			assertEquals(i, dictionary.getOrAdd("identifier-" + i));
+			assertEquals("identifier-" + i, dictionary.decode(i));
+		}
+		assertEquals(20_000, dictionary.size());
+
+		assertEquals(-1, dictionary.get("identifier-20000"));
+		assertEquals(-1, dictionary.get(""));
+		assertEquals(20_000, dictionary.size());
+
+		IdDictionary other = new IdDictionary();
+		other.getOrAdd("other");
+		other.getOrAdd("identifier-7");
+		assertEquals(20_000, dictionary.getOrAdd(other, 0));
+		assertEquals(7, dictionary.getOrAdd(other, 1));
+	}
+
+	@Test
+	public void testRowBytesMatchStrings() throws IOException {
+		List<String> ids = List.of("p1", "é", "patient-ü", "日本語", "p1", "😀x", "", "é", "naïve café");
+		List<String> lines = new ArrayList<>();
+		lines.add("instance\tcode");
+		for (String id : ids) {
+			lines.add(id + "\tc");
+		}
+		File file = new File(tempDir, "ids.txt");
+		Files.write(file.toPath(), lines, StandardCharsets.UTF_8);
+
+		IdDictionary fromRows = new IdDictionary();
+		List<Integer> rowIds = new ArrayList<>();
+		List<Integer> rowLookups = new ArrayList<>();
+		MappedTsvReader.read(file, "instance\tcode", row -> {
+			rowLookups.add(fromRows.get(row, 0));
+			rowIds.add(fromRows.getOrAdd(row, 0));
+		});
+
+		IdDictionary fromStrings = new IdDictionary();
+		for (int i = 0; i < ids.size(); i++) {
+			String id = ids.get(i);
+			int stringId = fromStrings.getOrAdd(id);
+			assertEquals(stringId, (int) rowIds.get(i), id);
+			assertEquals(fromStrings.get(id), fromRows.get(id), id);
+			assertEquals(id, fromRows.decode(rowIds.get(i)));
+			assertEquals(id.getBytes(StandardCharsets.UTF_8).length, fromRows.getLength(rowIds.get(i)));
+			byte[] copy = new byte[fromRows.getLength(rowIds.get(i)) + 1];
+			assertEquals(copy.length, fromRows.copyBytes(rowIds.get(i), copy, 1));
+		}
+		assertEquals(fromStrings.size(), fromRows.size());
+		// Missing until first added
+		assertEquals(List.of(-1, -1, -1, -1, 0, -1, -1, 1, -1), rowLookups);
+	}
+}
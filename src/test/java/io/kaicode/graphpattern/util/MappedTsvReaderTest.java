@@ -0,0 +1,83 @@
+package io.kaicode.graphpattern.util;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class MappedTsvReaderTest {
+
+	@TempDir
+	File tempDir;
+
+	@Test
+	public void testReadInParallelChunksMatchesSerialRead() throws IOException {
+		File file = new File(tempDir, "instances.txt");
+		StringBuilder content = new StringBuilder("instance\tyear\tcode\r\n");
+		for (int i = 0; i < 10_000; i++) {
+			content.append("i").append(i).append("\t").append(2000 + i % 20).append("\t");
+			if (i % 7 != 0) {
+				content.append("c").append(i % 300);
+			}
+			content.append(i % 2 == 0 ? "\r\n" : "\n");
+			if (i % 1000 == 0) {
+				content.append("\n");
+			}
+		}
+		Files.writeString(file.toPath(), content.toString());
+
+		List<String> serialRows = new ArrayList<>();
+		MappedTsvReader.read(file, "instance\tyear\tcode", row -> serialRows.add(toString(row)));
+		assertEquals(10_000, serialRows.size());
+		assertEquals("i0|2000|", serialRows.get(0));
+		assertEquals("i1|2001|c1", serialRows.get(1));
+
+		List<RowCollector> chunks = MappedTsvReader.read(file, "instance\tyear\tcode", 7, RowCollector::new);
+		assertTrue(chunks.size() > 1);
+		List<String> parallelRows = new ArrayList<>();
+		for (RowCollector chunk : chunks) {
+			parallelRows.addAll(chunk.rows);
+		}
+		assertEquals(serialRows, parallelRows);
+	}
+
+	@Test
+	public void testUnexpectedHeader() throws IOException {
+		File file = new File(tempDir, "labels.txt");
+		Files.writeString(file.toPath(), "id\tlabel\n1\tOne\n");
+		assertThrows(RuntimeException.class, () -> MappedTsvReader.read(file, "code\tlabel", row -> {}));
+		assertEquals("id\tlabel", MappedTsvReader.readHeader(file));
+	}
+
+	@Test
+	public void testShortRowFailsLoudly() throws IOException {
+		File file = new File(tempDir, "cohorts.txt");
+		Files.writeString(file.toPath(), "instance\tcohort\np1\tA\np2\n");
+		List<String> cohorts = new ArrayList<>();
+		IndexOutOfBoundsException e = assertThrows(IndexOutOfBoundsException.class,
+				() -> MappedTsvReader.read(file, "instance\tcohort", row -> cohorts.add(row.getString(1))));
+		assertEquals("Column 1 requested from a row with 1 columns: 'p2'", e.getMessage());
+		// Not the value left by the row before
+		assertEquals(List.of("A"), cohorts);
+	}
+
+	private static String toString(MappedTsvReader.Row row) {
+		return row.getString(0) + "|" + row.getInt(1) + "|" + (row.isEmpty(2) ? "" : row.getString(2));
+	}
+
+	private static final class RowCollector implements MappedTsvReader.RowHandler {
+
+		private final List<String> rows = new ArrayList<>();
+
+		@Override
+		public void handle(MappedTsvReader.Row row) {
+			rows.add(MappedTsvReaderTest.toString(row));
+		}
+	}
+}
@@ -0,0 +1,101 @@
+package io.kaicode.graphpattern.util;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.stream.IntStream;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class RunMetricsTest {
+
+	private static final int ALLOCATION = 8 << 20;
+
+	@TempDir
+	File tempDir;
+
+	@Test
+	public void testMetricsFile() throws IOException, ExecutionException, InterruptedException {
+		RunMetrics metrics = new RunMetrics();
+		try (RunMetrics.Phase phase = metrics.start("load")) {
+			phase.addRowsParsed(10);
+			phase.markPartialAllocation();
+		}
+		try (RunMetrics.Phase phase = metrics.start("load")) {
+			phase.addRowsParsed(5);
+		}
+		ForkJoinPool pool = metrics.newPool(2);
+		try (RunMetrics.Phase phase = metrics.start("score")) {
+			phase.addNodesScored(3);
+			phase.addCandidatesEvaluated(2);
+			// Allocated only by the pool workers
+			pool.submit(() -> IntStream.range(0, 4).parallel().forEach(i -> allocate())).get();
+		} finally {
+			pool.shutdown();
+		}
+
+		File file = new File(tempDir, "metrics.txt");
+		metrics.write(file);
+		List<String> lines = Files.readAllLines(file.toPath());
+		assertEquals(5, lines.size());
+		assertEquals("phase\truns\tmillis\trowsParsed\tnodesScored\tcandidatesEvaluated\tallocatedBytes\tpartialAllocationRuns", lines.get(0));
+		String[] load = lines.get(1).split("\t");
+		assertEquals("load", load[0]);
+		assertEquals("2", load[1]);
+		assertEquals("15", load[3]);
+		assertEquals("1", load[7]);
+		String[] score = lines.get(2).split("\t");
+		assertEquals("score", score[0]);
+		assertEquals("1", score[1]);
+		assertEquals("3", score[4]);
+		assertEquals("2", score[5]);
+		assertTrue(Long.parseLong(score[6]) >= 4L * ALLOCATION, "Pool allocation is counted");
+		assertEquals("0", score[7]);
+		assertEquals("", lines.get(3));
+		assertTrue(lines.get(4).startsWith("heapPoolPeaksBytes\t"));
+		assertTrue(Long.parseLong(lines.get(4).split("\t")[1]) > 0);
+	}
+
+	@Test
+	public void testPrometheusText() throws ExecutionException, InterruptedException {
+		RunMetrics metrics = new RunMetrics();
+		ForkJoinPool pool = metrics.newPool(2);
+		try {
+			// Pool work can not be told apart while phases overlap
+			RunMetrics.Phase first = metrics.start("aggregation");
+			RunMetrics.Phase second = metrics.start("aggregation");
+			pool.submit(RunMetricsTest::allocate).get();
+			first.close();
+			second.close();
+		} finally {
+			pool.shutdown();
+		}
+		metrics.call("selection", () -> 1);
+
+		String text = metrics.toPrometheusText();
+		assertTrue(text.contains("# TYPE graph_patterns_phase_runs_total counter\n"));
+		assertTrue(text.contains("graph_patterns_phase_runs_total{phase=\"aggregation\"} 2\n"));
+		assertTrue(text.contains("graph_patterns_phase_runs_total{phase=\"selection\"} 1\n"));
+		assertTrue(text.contains("graph_patterns_phase_partial_allocation_runs_total{phase=\"aggregation\"} 2\n"));
+		assertTrue(text.contains("graph_patterns_phase_partial_allocation_runs_total{phase=\"selection\"} 0\n"));
+		assertTrue(text.contains("# TYPE graph_patterns_heap_pool_peaks_bytes gauge\n"));
+		assertTrue(text.matches("(?s).*\ngraph_patterns_heap_pool_peaks_bytes [1-9][0-9]*\n"));
+		for (String line : text.split("\n")) {
+			if (line.startsWith("graph_patterns_phase_allocated_bytes_total{phase=\"aggregation\"} ")) {
+				assertTrue(Long.parseLong(line.substring(line.lastIndexOf(' ') + 1)) < ALLOCATION, "Pool allocation is left out of overlapping phases");
+			}
+		}
+	}
+
+	private static void allocate() {
+		byte[] bytes = new byte[ALLOCATION];
+		bytes[bytes.length - 1] = 1;
+		assertEquals(1, bytes[ALLOCATION - 1]);
+	}
+}